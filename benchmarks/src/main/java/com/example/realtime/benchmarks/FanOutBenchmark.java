@@ -0,0 +1,121 @@
+package com.example.realtime.benchmarks;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.serde.AggregateSerializer;
+import com.example.realtime.common.serde.WireFormat;
+import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.ReplayBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventWebSocketHandler} with 10k-100k stub sessions that accept frames instantly, so the
+ * numbers are the gateway's own cost: registry lookup, coalescing queues, framing and the drain
+ * tasks. {@code enqueue} is one aggregate for one user (all of that user's sessions); {@code
+ * broadcast} is one notice to every session.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+    @Param({"10000", "100000"})
+    public int connections;
+
+    @Param({"1", "4"})
+    public int sessionsPerUser;
+
+    @Param({"JSON", "BINARY"})
+    public ClientProtocol protocol;
+
+    private EventWebSocketHandler handler;
+    private StubSession[] sessions;
+    private String[] userIds;
+    private String[] coalesceKeys;
+    private byte[] aggregateJson;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        handler = new EventWebSocketHandler(meterRegistry, 1000, 500, Duration.ofSeconds(5), sessionsPerUser,
+                Duration.ofMillis(100), new ReplayBuffer(8, 64L << 20, meterRegistry), List.of("1m"), new ObjectMapper());
+
+        int users = connections / sessionsPerUser;
+        userIds = new String[users];
+        coalesceKeys = new String[users];
+        for (int u = 0; u < users; u++) {
+            userIds[u] = "user_" + u;
+            coalesceKeys[u] = userIds[u] + "|1m";
+        }
+        sessions = new StubSession[connections];
+        for (int i = 0; i < connections; i++) {
+            URI uri = URI.create("ws://localhost:8082/ws/events?userId=" + userIds[i % users]);
+            sessions[i] = new StubSession("s" + i, uri, protocol.getSubprotocol());
+            handler.afterConnectionEstablished(sessions[i]);
+        }
+
+        AggregateDTO aggregate = new AggregateDTO();
+        aggregate.setMetricId("user_0");
+        aggregate.setResolution("1m");
+        aggregate.setWindowStart(Instant.ofEpochMilli(1_700_000_040_000L));
+        aggregate.setWindowEnd(Instant.ofEpochMilli(1_700_000_100_000L));
+        aggregate.setCount(1234);
+        aggregateJson = new AggregateSerializer(WireFormat.JSON).serialize("events-aggregated", aggregate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (StubSession session : sessions) {
+            session.close();
+        }
+    }
+
+    /** Per-thread round robin over the users. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enqueue(Cursor cursor) {
+        int user = cursor.next++ % userIds.length;
+        // One Update per Kafka record, as in KafkaPushService
+        Update update = Update.ofAggregates(new AggregatePayload[]{AggregatePayload.of(aggregateJson)},
+                System.currentTimeMillis());
+        handler.enqueue(userIds[user], coalesceKeys[user], update);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void broadcast() {
+        handler.broadcast("{\"notice\":\"maintenance\"}");
+    }
+}
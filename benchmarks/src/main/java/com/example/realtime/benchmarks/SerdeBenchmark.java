@@ -0,0 +1,92 @@
+package com.example.realtime.benchmarks;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.serde.AggregateDeserializer;
+import com.example.realtime.common.serde.AggregateSerializer;
+import com.example.realtime.common.serde.EventDeserializer;
+import com.example.realtime.common.serde.EventSerializer;
+import com.example.realtime.common.serde.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kafka value serdes of {@link EventDTO} and {@link AggregateDTO}, in both wire formats.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerdeBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public WireFormat format;
+
+    private EventSerializer eventSerializer;
+    private final EventDeserializer eventDeserializer = new EventDeserializer();
+    private AggregateSerializer aggregateSerializer;
+    private final AggregateDeserializer aggregateDeserializer = new AggregateDeserializer();
+
+    private EventDTO event;
+    private AggregateDTO aggregate;
+    private byte[] eventBytes;
+    private byte[] aggregateBytes;
+
+    @Setup
+    public void setup() {
+        eventSerializer = new EventSerializer(format);
+        aggregateSerializer = new AggregateSerializer(format);
+
+        event = new EventDTO("click", "user_benchmark", Instant.ofEpochMilli(1_700_000_000_123L),
+                Map.of("value", 42.5, "page", "/home"));
+        aggregate = new AggregateDTO();
+        aggregate.setMetricId("user_benchmark");
+        aggregate.setResolution("1m");
+        aggregate.setWindowStart(Instant.ofEpochMilli(1_700_000_040_000L));
+        aggregate.setWindowEnd(Instant.ofEpochMilli(1_700_000_100_000L));
+        aggregate.setCount(1234);
+        aggregate.setSum(99.5);
+        aggregate.setMax(12.25);
+        aggregate.setP50(3.5);
+        aggregate.setP95(9.0);
+        aggregate.setP99(11.0);
+
+        eventBytes = eventSerializer.serialize("events", event);
+        aggregateBytes = aggregateSerializer.serialize("events-aggregated", aggregate);
+    }
+
+    @Benchmark
+    public byte[] serializeEvent() {
+        return eventSerializer.serialize("events", event);
+    }
+
+    @Benchmark
+    public EventDTO deserializeEvent() {
+        return eventDeserializer.deserialize("events", eventBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeAggregate() {
+        return aggregateSerializer.serialize("events-aggregated", aggregate);
+    }
+
+    @Benchmark
+    public AggregateDTO deserializeAggregate() {
+        return aggregateDeserializer.deserialize("events-aggregated", aggregateBytes);
+    }
+}
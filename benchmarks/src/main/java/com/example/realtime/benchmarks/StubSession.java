@@ -0,0 +1,82 @@
+package com.example.realtime.benchmarks;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** WebSocket session that accepts every frame instantly. */
+class StubSession implements WebSocketSession {
+
+    private final String id;
+    private final URI uri;
+    private final String acceptedProtocol;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile boolean open = true;
+
+    StubSession(String id, URI uri, String acceptedProtocol) {
+        this.id = id;
+        this.uri = uri;
+        this.acceptedProtocol = acceptedProtocol;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+    }
+
+    @Override
+    public String getId() { return id; }
+
+    @Override
+    public URI getUri() { return uri; }
+
+    @Override
+    public String getAcceptedProtocol() { return acceptedProtocol; }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public void close() { open = false; }
+
+    @Override
+    public void close(CloseStatus status) { open = false; }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() { return HttpHeaders.EMPTY; }
+
+    @Override
+    public Map<String, Object> getAttributes() { return attributes; }
+
+    @Override
+    public Principal getPrincipal() { return null; }
+
+    @Override
+    public InetSocketAddress getLocalAddress() { return null; }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() { return null; }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getTextMessageSizeLimit() { return Integer.MAX_VALUE; }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getBinaryMessageSizeLimit() { return Integer.MAX_VALUE; }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() { return List.of(); }
+}
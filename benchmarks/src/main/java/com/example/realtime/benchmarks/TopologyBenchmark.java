@@ -0,0 +1,135 @@
+package com.example.realtime.benchmarks;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.serde.AggregateSerde;
+import com.example.realtime.common.serde.EventSerde;
+import com.example.realtime.processor.config.StreamsProperties;
+import com.example.realtime.processor.service.StreamsTopologyService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link StreamsTopologyService} topology in a {@link TopologyTestDriver}: records per second
+ * through deserialization, grouping, the window store and emission. Run with {@code -prof gc}
+ * for allocation per record ({@code gc.alloc.rate.norm}).
+ *
+ * Values are serialized up front, and each record is 100 ms after the previous one, so windows
+ * keep closing and retention keeps evicting as they would in production. The driver commits and
+ * checkpoints after every record, which real Streams threads do not, so absolute numbers are
+ * lower than in production; compare runs against each other.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TopologyBenchmark {
+
+    private static final int USERS = 1000;
+    private static final long STEP_MILLIS = 100;
+    // Output is read (without decoding) this often so the driver's queues stay small
+    private static final int DRAIN_EVERY = 1024;
+
+    @Param({"COUNT", "STATS"})
+    public StreamsProperties.AggregationMode mode;
+
+    @Param({"ROCKSDB", "IN_MEMORY", "PRIMITIVE"})
+    public StreamsProperties.StoreType storeType;
+
+    private Path stateDir;
+    private TopologyTestDriver driver;
+    private TestInputTopic<String, byte[]> events;
+    private TestOutputTopic<byte[], byte[]> aggregates;
+    private String[] keys;
+    private byte[][] values;
+    private long timestamp;
+    private int n;
+
+    @Setup
+    public void setup() throws IOException {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().setMode(mode);
+        props.getAggregation().setStoreType(storeType);
+
+        StreamsBuilder builder = new StreamsBuilder();
+        StreamsTopologyService service = new StreamsTopologyService();
+        ReflectionTestUtils.setField(service, "streamsBuilder", builder);
+        ReflectionTestUtils.setField(service, "eventSerde", new EventSerde());
+        ReflectionTestUtils.setField(service, "aggregateSerde", new AggregateSerde());
+        ReflectionTestUtils.setField(service, "properties", props);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        service.buildTopology();
+
+        // The driver checkpoints state after every record; keep that file I/O in memory where possible
+        Path shm = Path.of("/dev/shm");
+        stateDir = Files.isDirectory(shm) && Files.isWritable(shm)
+                ? Files.createTempDirectory(shm, "topology-benchmark")
+                : Files.createTempDirectory("topology-benchmark");
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "topology-benchmark");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        driver = new TopologyTestDriver(builder.build(), config);
+
+        events = driver.createInputTopic("events", new StringSerializer(), new ByteArraySerializer());
+        aggregates = driver.createOutputTopic("events-aggregated", new ByteArrayDeserializer(), new ByteArrayDeserializer());
+
+        EventSerde serde = new EventSerde();
+        keys = new String[USERS];
+        values = new byte[USERS][];
+        for (int i = 0; i < USERS; i++) {
+            keys[i] = "user_" + i;
+            EventDTO event = new EventDTO("click", keys[i], Instant.ofEpochMilli(0), Map.of("value", i % 100));
+            values[i] = serde.serializer().serialize("events", event);
+        }
+        timestamp = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    }
+
+    @Benchmark
+    public void processRecord() {
+        int user = n % USERS;
+        timestamp += STEP_MILLIS;
+        events.pipeInput(keys[user], values[user], timestamp);
+        if (++n % DRAIN_EVERY == 0) {
+            aggregates.readRecordsToList();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        driver.close();
+        try (var paths = Files.walk(stateDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.realtime.common.codec;
+
+import com.example.realtime.common.dto.AggregateDTO;
+
+import java.time.Instant;
+
+/**
+ * Binary encoding of {@link AggregateDTO}.
+ *
+ * Layout:
+ * <pre>
+ *   magic, version, flags (which nullable fields are present)
+ *   metricId     : length-prefixed UTF-8
+ *   windowStart  : zig-zag varint epoch millis
+ *   windowEnd    : varint millis after windowStart
+ *   count        : varint
+ *   sum, max     : 8-byte doubles
+ *   p50, p95, p99: 8-byte doubles (version 2+)
+ *   resolution   : length-prefixed UTF-8, if flagged (version 3+)
+ * </pre>
+ * Older versions are still decoded; missing fields keep their defaults.
+ */
+public final class AggregateCodec {
+    private AggregateCodec() {}
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int VERSION_3 = 3;
+
+    private static final int HAS_METRIC_ID = 1;
+    private static final int HAS_WINDOW_START = 1 << 1;
+    private static final int HAS_WINDOW_END = 1 << 2;
+    private static final int HAS_RESOLUTION = 1 << 3;
+
+    private static final ThreadLocal<BinaryWriter> WRITER = ThreadLocal.withInitial(() -> new BinaryWriter(64));
+
+    public static byte[] encode(AggregateDTO aggregate) {
+        BinaryWriter out = BinaryFormat.threadLocalWriter(WRITER);
+        encode(aggregate, out);
+        return out.toByteArray();
+    }
+
+    public static void encode(AggregateDTO aggregate, BinaryWriter out) {
+        BinaryFormat.writeHeader(out, VERSION_3);
+
+        int flags = 0;
+        if (aggregate.getMetricId() != null) flags |= HAS_METRIC_ID;
+        if (aggregate.getWindowStart() != null) flags |= HAS_WINDOW_START;
+        if (aggregate.getWindowEnd() != null) flags |= HAS_WINDOW_END;
+        if (aggregate.getResolution() != null) flags |= HAS_RESOLUTION;
+        out.writeByte(flags);
+
+        if (aggregate.getMetricId() != null) {
+            out.writeString(aggregate.getMetricId());
+        }
+        long start = 0;
+        if (aggregate.getWindowStart() != null) {
+            start = aggregate.getWindowStart().toEpochMilli();
+            out.writeSignedVarLong(start);
+        }
+        if (aggregate.getWindowEnd() != null) {
+            // Relative to the start: a one-minute window costs 3 bytes instead of 6
+            out.writeSignedVarLong(aggregate.getWindowEnd().toEpochMilli() - start);
+        }
+        out.writeVarLong(aggregate.getCount());
+        out.writeDouble(aggregate.getSum());
+        out.writeDouble(aggregate.getMax());
+        out.writeDouble(aggregate.getP50());
+        out.writeDouble(aggregate.getP95());
+        out.writeDouble(aggregate.getP99());
+        if (aggregate.getResolution() != null) {
+            out.writeString(aggregate.getResolution());
+        }
+    }
+
+    /** Window start of an encoded aggregate, read without decoding the rest; Long.MIN_VALUE if it has none. */
+    public static long windowStart(byte[] data) {
+        BinaryReader in = new BinaryReader(data);
+        int version = BinaryFormat.readHeader(in);
+        if (version < VERSION_1 || version > VERSION_3) {
+            throw new IllegalArgumentException("Unsupported aggregate schema version " + version);
+        }
+        int flags = in.readByte();
+        if ((flags & HAS_METRIC_ID) != 0) {
+            in.readString();
+        }
+        return (flags & HAS_WINDOW_START) != 0 ? in.readSignedVarLong() : Long.MIN_VALUE;
+    }
+
+    public static AggregateDTO decode(byte[] data) {
+        return decode(new BinaryReader(data));
+    }
+
+    public static AggregateDTO decode(BinaryReader in) {
+        int version = BinaryFormat.readHeader(in);
+        if (version < VERSION_1 || version > VERSION_3) {
+            throw new IllegalArgumentException("Unsupported aggregate schema version " + version);
+        }
+
+        int flags = in.readByte();
+        AggregateDTO aggregate = new AggregateDTO();
+        if ((flags & HAS_METRIC_ID) != 0) {
+            aggregate.setMetricId(in.readString());
+        }
+        long start = 0;
+        if ((flags & HAS_WINDOW_START) != 0) {
+            start = in.readSignedVarLong();
+            aggregate.setWindowStart(Instant.ofEpochMilli(start));
+        }
+        if ((flags & HAS_WINDOW_END) != 0) {
+            aggregate.setWindowEnd(Instant.ofEpochMilli(start + in.readSignedVarLong()));
+        }
+        aggregate.setCount(in.readVarLong());
+        aggregate.setSum(in.readDouble());
+        aggregate.setMax(in.readDouble());
+        if (version >= VERSION_2) {
+            aggregate.setP50(in.readDouble());
+            aggregate.setP95(in.readDouble());
+            aggregate.setP99(in.readDouble());
+        }
+        if (version >= VERSION_3 && (flags & HAS_RESOLUTION) != 0) {
+            aggregate.setResolution(in.readString());
+        }
+        return aggregate;
+    }
+}
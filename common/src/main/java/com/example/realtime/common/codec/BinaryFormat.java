@@ -0,0 +1,36 @@
+package com.example.realtime.common.codec;
+
+/**
+ * Framing shared by the binary codecs: every record starts with {@link #MAGIC} and a schema version.
+ *
+ * The magic byte can never start a JSON document (those begin with '{', '[', whitespace or a BOM),
+ * which is what lets the deserializers accept both formats during a migration.
+ */
+public final class BinaryFormat {
+    private BinaryFormat() {}
+
+    public static final byte MAGIC = (byte) 0xA5;
+
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > 1 && data[0] == MAGIC;
+    }
+
+    static void writeHeader(BinaryWriter out, int version) {
+        out.writeByte(MAGIC);
+        out.writeByte(version);
+    }
+
+    /** Checks the magic byte and returns the schema version. */
+    static int readHeader(BinaryReader in) {
+        if ((byte) in.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not a binary record (bad magic byte)");
+        }
+        return in.readByte();
+    }
+
+    static BinaryWriter threadLocalWriter(ThreadLocal<BinaryWriter> holder) {
+        BinaryWriter writer = holder.get();
+        writer.reset();
+        return writer;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.realtime.common.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over a byte array, the read side of {@link BinaryWriter}.
+ * Reads past the end throw {@link IllegalArgumentException}.
+ */
+public final class BinaryReader {
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    public BinaryReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public BinaryReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    /**
+     * Reads an element count and checks it against the bytes left, so a corrupt or hostile record
+     * cannot make the caller allocate for more elements than it could possibly hold.
+     *
+     * @param minBytesPerElement fewest bytes one element takes on the wire
+     */
+    public int readCount(int minBytesPerElement) {
+        long count = readVarLong();
+        if (count < 0 || count > (limit - pos) / minBytesPerElement) {
+            throw new IllegalArgumentException("Count " + count + " at offset " + pos + " exceeds the record");
+        }
+        return (int) count;
+    }
+
+    public int readByte() {
+        check(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    public long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at offset " + pos);
+    }
+
+    public int readVarInt() {
+        return (int) readVarLong();
+    }
+
+    public long readSignedVarLong() {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public double readDouble() {
+        check(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buf[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        check(length);
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private void check(int bytes) {
+        if (bytes < 0 || pos + bytes > limit) {
+            throw new IllegalArgumentException("Truncated record: need " + bytes + " bytes at offset " + pos);
+        }
+    }
+}
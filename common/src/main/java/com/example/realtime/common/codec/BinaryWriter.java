@@ -0,0 +1,81 @@
+package com.example.realtime.common.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with varint / zig-zag helpers used by the binary codecs.
+ * Not thread-safe; codecs keep one instance per thread and {@link #reset()} it per record.
+ */
+public final class BinaryWriter {
+
+    private byte[] buf;
+    private int pos;
+
+    public BinaryWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        pos = 0;
+    }
+
+    public int size() {
+        return pos;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    /** Unsigned LEB128 varint: 1 byte for values below 128. */
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /** Zig-zag varint so small negative numbers stay small too. */
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeDouble(double value) {
+        ensure(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 7; i >= 0; i--) {
+            buf[pos++] = (byte) (bits >>> (i * 8));
+        }
+    }
+
+    /** Length-prefixed UTF-8 string. */
+    public void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    private void ensure(int extra) {
+        if (pos + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+    }
+}
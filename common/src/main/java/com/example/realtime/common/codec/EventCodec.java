@@ -0,0 +1,199 @@
+package com.example.realtime.common.codec;
+
+import com.example.realtime.common.dto.EventDTO;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of {@link EventDTO}.
+ *
+ * Version 1 layout:
+ * <pre>
+ *   magic, version, flags (which fields are present)
+ *   eventType  : varint id from {@link EventTypes}, followed by the string when the id is 0
+ *   userId     : length-prefixed UTF-8
+ *   timestamp  : zig-zag varint epoch millis
+ *   metadata   : tagged value (see below)
+ *   eventId    : length-prefixed UTF-8
+ * </pre>
+ * The event id came later. It is written last, behind its own flag, so decoders that predate
+ * it still read everything else and simply stop before it.
+ * Metadata is encoded as a tree of tagged values (null, boolean, long, double, string, list, map),
+ * which is what Jackson produces for an untyped {@code Object}. Other types are written as their
+ * {@code toString()}.
+ */
+public final class EventCodec {
+    private EventCodec() {}
+
+    public static final int VERSION_1 = 1;
+
+    private static final int HAS_EVENT_TYPE = 1;
+    private static final int HAS_USER_ID = 1 << 1;
+    private static final int HAS_TIMESTAMP = 1 << 2;
+    private static final int HAS_METADATA = 1 << 3;
+    private static final int HAS_EVENT_ID = 1 << 4;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_LIST = 6;
+    private static final int TAG_MAP = 7;
+
+    // Deepest metadata nesting decoded; deeper records are rejected rather than overflowing the stack
+    static final int MAX_DEPTH = 64;
+
+    private static final ThreadLocal<BinaryWriter> WRITER = ThreadLocal.withInitial(() -> new BinaryWriter(256));
+
+    public static byte[] encode(EventDTO event) {
+        BinaryWriter out = BinaryFormat.threadLocalWriter(WRITER);
+        encode(event, out);
+        return out.toByteArray();
+    }
+
+    public static void encode(EventDTO event, BinaryWriter out) {
+        BinaryFormat.writeHeader(out, VERSION_1);
+
+        int flags = 0;
+        if (event.getEventType() != null) flags |= HAS_EVENT_TYPE;
+        if (event.getUserId() != null) flags |= HAS_USER_ID;
+        if (event.getTimestamp() != null) flags |= HAS_TIMESTAMP;
+        if (event.getMetadata() != null) flags |= HAS_METADATA;
+        if (event.getEventId() != null) flags |= HAS_EVENT_ID;
+        out.writeByte(flags);
+
+        if (event.getEventType() != null) {
+            int id = EventTypes.idOf(event.getEventType());
+            out.writeVarInt(id);
+            if (id == EventTypes.INLINE) {
+                out.writeString(event.getEventType());
+            }
+        }
+        if (event.getUserId() != null) {
+            out.writeString(event.getUserId());
+        }
+        if (event.getTimestamp() != null) {
+            out.writeSignedVarLong(event.getTimestamp().toEpochMilli());
+        }
+        if (event.getMetadata() != null) {
+            writeValue(out, event.getMetadata());
+        }
+        if (event.getEventId() != null) {
+            out.writeString(event.getEventId());
+        }
+    }
+
+    public static EventDTO decode(byte[] data) {
+        return decode(new BinaryReader(data));
+    }
+
+    public static EventDTO decode(BinaryReader in) {
+        int version = BinaryFormat.readHeader(in);
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported event schema version " + version);
+        }
+
+        int flags = in.readByte();
+        EventDTO event = new EventDTO();
+        if ((flags & HAS_EVENT_TYPE) != 0) {
+            int id = in.readVarInt();
+            event.setEventType(id == EventTypes.INLINE ? in.readString() : EventTypes.nameOf(id));
+        }
+        if ((flags & HAS_USER_ID) != 0) {
+            event.setUserId(in.readString());
+        }
+        if ((flags & HAS_TIMESTAMP) != 0) {
+            event.setTimestamp(Instant.ofEpochMilli(in.readSignedVarLong()));
+        }
+        if ((flags & HAS_METADATA) != 0) {
+            event.setMetadata(readValue(in, 0));
+        }
+        if ((flags & HAS_EVENT_ID) != 0) {
+            event.setEventId(in.readString());
+        }
+        return event;
+    }
+
+    private static void writeValue(BinaryWriter out, Object value) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean b) {
+            out.writeByte(b ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TAG_LONG);
+            out.writeSignedVarLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Map<?, ?> map) {
+            out.writeByte(TAG_MAP);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                out.writeString(String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List<?> list) {
+            out.writeByte(TAG_LIST);
+            out.writeVarInt(list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else {
+            out.writeByte(TAG_STRING);
+            out.writeString(value.toString());
+        }
+    }
+
+    private static Object readValue(BinaryReader in, int depth) {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_LONG:
+                return in.readSignedVarLong();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_STRING:
+                return in.readString();
+            case TAG_LIST: {
+                checkDepth(depth);
+                // Each item is at least its tag
+                int size = in.readCount(1);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                checkDepth(depth);
+                // Each entry is at least a key length and a tag
+                int size = in.readCount(2);
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = in.readString();
+                    map.put(key, readValue(in, depth + 1));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown metadata tag " + tag);
+        }
+    }
+
+    private static void checkDepth(int depth) {
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("Metadata nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+}
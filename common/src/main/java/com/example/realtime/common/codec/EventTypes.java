@@ -0,0 +1,53 @@
+package com.example.realtime.common.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of well-known event types and their one-byte wire ids.
+ *
+ * Every producer and consumer must agree on this table, so it is code rather than config and
+ * it is append-only: never renumber or remove an entry. Types that are not listed are written
+ * inline as strings under id {@link #INLINE}, so new types work before they are added here.
+ */
+public final class EventTypes {
+    private EventTypes() {}
+
+    public static final int INLINE = 0;
+
+    private static final String[] BY_ID = {
+            null,        // 0 = inline string
+            "click",
+            "view",
+            "page_view",
+            "purchase",
+            "add_to_cart",
+            "login",
+            "logout",
+            "signup",
+            "search",
+            "scroll",
+            "error"
+    };
+
+    private static final Map<String, Integer> IDS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < BY_ID.length; i++) {
+            IDS.put(BY_ID[i], i);
+        }
+    }
+
+    /** Wire id for the type, or {@link #INLINE} if it has none. */
+    public static int idOf(String eventType) {
+        Integer id = IDS.get(eventType);
+        return id != null ? id : INLINE;
+    }
+
+    public static String nameOf(int id) {
+        if (id <= INLINE || id >= BY_ID.length) {
+            throw new IllegalArgumentException("Unknown event type id " + id);
+        }
+        return BY_ID[id];
+    }
+}
@@ -7,17 +7,25 @@ import java.time.Instant;
  */
 public class AggregateDTO {
     private String metricId;
+    // Window resolution this aggregate belongs to, e.g. "1m", "1h", "1d"
+    private String resolution;
     private Instant windowStart;
     private Instant windowEnd;
     private long count;
     private double sum;
     private double max;
+    // Estimated percentiles; only filled in by the "stats" aggregation mode
+    private double p50;
+    private double p95;
+    private double p99;
 
     public AggregateDTO() {}
 
     // Getters and setters
     public String getMetricId() { return metricId; }
     public void setMetricId(String metricId) { this.metricId = metricId; }
+    public String getResolution() { return resolution; }
+    public void setResolution(String resolution) { this.resolution = resolution; }
     public Instant getWindowStart() { return windowStart; }
     public void setWindowStart(Instant windowStart) { this.windowStart = windowStart; }
     public Instant getWindowEnd() { return windowEnd; }
@@ -28,4 +36,10 @@ public class AggregateDTO {
     public void setSum(double sum) { this.sum = sum; }
     public double getMax() { return max; }
     public void setMax(double max) { this.max = max; }
+    public double getP50() { return p50; }
+    public void setP50(double p50) { this.p50 = p50; }
+    public double getP95() { return p95; }
+    public void setP95(double p95) { this.p95 = p95; }
+    public double getP99() { return p99; }
+    public void setP99(double p99) { this.p99 = p99; }
 }
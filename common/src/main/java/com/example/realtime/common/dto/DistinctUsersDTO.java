@@ -0,0 +1,33 @@
+package com.example.realtime.common.dto;
+
+import java.time.Instant;
+
+/**
+ * Approximate number of distinct users that sent a given event type in one window
+ * (HyperLogLog estimate, ~1.6% standard error).
+ */
+public class DistinctUsersDTO {
+    private String eventType;
+    private String resolution;
+    private Instant windowStart;
+    private Instant windowEnd;
+    // Exact number of events of this type in the window
+    private long count;
+    private long distinctUsers;
+
+    public DistinctUsersDTO() {}
+
+    // Getters and setters
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+    public String getResolution() { return resolution; }
+    public void setResolution(String resolution) { this.resolution = resolution; }
+    public Instant getWindowStart() { return windowStart; }
+    public void setWindowStart(Instant windowStart) { this.windowStart = windowStart; }
+    public Instant getWindowEnd() { return windowEnd; }
+    public void setWindowEnd(Instant windowEnd) { this.windowEnd = windowEnd; }
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+    public long getDistinctUsers() { return distinctUsers; }
+    public void setDistinctUsers(long distinctUsers) { this.distinctUsers = distinctUsers; }
+}
@@ -1,5 +1,7 @@
 package com.example.realtime.common.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.time.Instant;
 
 /**
@@ -11,6 +13,10 @@ public class EventDTO {
     private String userId;
     private Instant timestamp;
     private Object metadata;
+    // Optional, client-chosen and unique per user; lets ingest drop retried sends.
+    // Left out of the JSON when absent so events without one look exactly as before.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String eventId;
 
     public EventDTO() {}
 
@@ -30,4 +36,6 @@ public class EventDTO {
     public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
     public Object getMetadata() { return metadata; }
     public void setMetadata(Object metadata) { this.metadata = metadata; }
+    public String getEventId() { return eventId; }
+    public void setEventId(String eventId) { this.eventId = eventId; }
 }
@@ -0,0 +1,52 @@
+package com.example.realtime.common.dto;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Most active users for a given event type in one window, most active first.
+ * Counts are count-min estimates: they never undercount and may overcount slightly.
+ */
+public class TopUsersDTO {
+    private String eventType;
+    private String resolution;
+    private Instant windowStart;
+    private Instant windowEnd;
+    // Exact number of events of this type in the window
+    private long count;
+    private List<UserCount> users = new ArrayList<>();
+
+    public TopUsersDTO() {}
+
+    // Getters and setters
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+    public String getResolution() { return resolution; }
+    public void setResolution(String resolution) { this.resolution = resolution; }
+    public Instant getWindowStart() { return windowStart; }
+    public void setWindowStart(Instant windowStart) { this.windowStart = windowStart; }
+    public Instant getWindowEnd() { return windowEnd; }
+    public void setWindowEnd(Instant windowEnd) { this.windowEnd = windowEnd; }
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+    public List<UserCount> getUsers() { return users; }
+    public void setUsers(List<UserCount> users) { this.users = users; }
+
+    public static class UserCount {
+        private String userId;
+        private long count;
+
+        public UserCount() {}
+
+        public UserCount(String userId, long count) {
+            this.userId = userId;
+            this.count = count;
+        }
+
+        public String getUserId() { return userId; }
+        public void setUserId(String userId) { this.userId = userId; }
+        public long getCount() { return count; }
+        public void setCount(long count) { this.count = count; }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.dto.AggregateDTO;
+
+/** Kafka deserializer for {@link AggregateDTO}; accepts both JSON and binary records. */
+public class AggregateDeserializer extends DualFormatDeserializer<AggregateDTO> {
+
+    public AggregateDeserializer() {
+        super(AggregateDTO.class);
+    }
+
+    @Override
+    protected AggregateDTO decodeBinary(byte[] data) {
+        return AggregateCodec.decode(data);
+    }
+}
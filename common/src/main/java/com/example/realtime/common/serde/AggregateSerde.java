@@ -0,0 +1,16 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import org.apache.kafka.common.serialization.Serdes;
+
+/** Kafka Streams serde for {@link AggregateDTO}, built from {@link AggregateSerializer} and {@link AggregateDeserializer}. */
+public class AggregateSerde extends Serdes.WrapperSerde<AggregateDTO> {
+
+    public AggregateSerde() {
+        super(new AggregateSerializer(), new AggregateDeserializer());
+    }
+
+    public AggregateSerde(WireFormat format) {
+        super(new AggregateSerializer(format), new AggregateDeserializer());
+    }
+}
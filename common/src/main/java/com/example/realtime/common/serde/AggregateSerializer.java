@@ -0,0 +1,19 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.dto.AggregateDTO;
+
+/** Kafka serializer for {@link AggregateDTO}; JSON or binary per {@link WireFormat#CONFIG}. */
+public class AggregateSerializer extends DualFormatSerializer<AggregateDTO> {
+
+    public AggregateSerializer() {}
+
+    public AggregateSerializer(WireFormat format) {
+        super(format);
+    }
+
+    @Override
+    protected byte[] encodeBinary(AggregateDTO data) {
+        return AggregateCodec.encode(data);
+    }
+}
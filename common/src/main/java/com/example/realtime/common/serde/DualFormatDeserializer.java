@@ -0,0 +1,37 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.codec.BinaryFormat;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+
+/**
+ * Reads values written either as JSON or with a binary codec. The binary format is recognised by
+ * its magic byte, so producers can switch formats without coordinating with consumers.
+ */
+public abstract class DualFormatDeserializer<T> implements Deserializer<T> {
+
+    private final Class<T> type;
+
+    protected DualFormatDeserializer(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public T deserialize(String topic, byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            if (BinaryFormat.isBinary(data)) {
+                return decodeBinary(data);
+            }
+            return JsonSupport.MAPPER.readValue(data, type);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SerializationException("Could not read " + type.getSimpleName() + " from topic " + topic, e);
+        }
+    }
+
+    protected abstract T decodeBinary(byte[] data);
+}
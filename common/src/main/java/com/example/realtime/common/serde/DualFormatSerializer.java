@@ -0,0 +1,49 @@
+package com.example.realtime.common.serde;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+/**
+ * Writes values either as JSON or with a binary codec, depending on {@link WireFormat#CONFIG}.
+ */
+public abstract class DualFormatSerializer<T> implements Serializer<T> {
+
+    private WireFormat format = WireFormat.JSON;
+
+    protected DualFormatSerializer() {}
+
+    protected DualFormatSerializer(WireFormat format) {
+        this.format = format;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        if (configs.containsKey(WireFormat.CONFIG)) {
+            this.format = WireFormat.fromConfig(configs);
+        }
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public byte[] serialize(String topic, T data) {
+        if (data == null) {
+            return null;
+        }
+        if (format == WireFormat.BINARY) {
+            return encodeBinary(data);
+        }
+        try {
+            return JsonSupport.MAPPER.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Could not write " + data.getClass().getSimpleName() + " as JSON", e);
+        }
+    }
+
+    protected abstract byte[] encodeBinary(T data);
+}
@@ -0,0 +1,17 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.codec.EventCodec;
+import com.example.realtime.common.dto.EventDTO;
+
+/** Kafka deserializer for {@link EventDTO}; accepts both JSON and binary records. */
+public class EventDeserializer extends DualFormatDeserializer<EventDTO> {
+
+    public EventDeserializer() {
+        super(EventDTO.class);
+    }
+
+    @Override
+    protected EventDTO decodeBinary(byte[] data) {
+        return EventCodec.decode(data);
+    }
+}
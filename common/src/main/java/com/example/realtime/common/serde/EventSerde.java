@@ -0,0 +1,16 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.dto.EventDTO;
+import org.apache.kafka.common.serialization.Serdes;
+
+/** Kafka Streams serde for {@link EventDTO}, built from {@link EventSerializer} and {@link EventDeserializer}. */
+public class EventSerde extends Serdes.WrapperSerde<EventDTO> {
+
+    public EventSerde() {
+        super(new EventSerializer(), new EventDeserializer());
+    }
+
+    public EventSerde(WireFormat format) {
+        super(new EventSerializer(format), new EventDeserializer());
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.realtime.common.serde;
+
+import com.example.realtime.common.codec.EventCodec;
+import com.example.realtime.common.dto.EventDTO;
+
+/** Kafka serializer for {@link EventDTO}; JSON or binary per {@link WireFormat#CONFIG}. */
+public class EventSerializer extends DualFormatSerializer<EventDTO> {
+
+    public EventSerializer() {}
+
+    public EventSerializer(WireFormat format) {
+        super(format);
+    }
+
+    @Override
+    protected byte[] encodeBinary(EventDTO data) {
+        return EventCodec.encode(data);
+    }
+}
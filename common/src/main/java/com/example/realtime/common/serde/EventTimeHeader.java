@@ -0,0 +1,34 @@
+package com.example.realtime.common.serde;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Record header carrying the client's event time (epoch millis, 8 bytes big-endian).
+ *
+ * The Kafka record timestamp stays the producer's clock, so windowing and stream time never
+ * depend on client clocks. The client time rides along in this header instead; Kafka Streams
+ * keeps the headers of the record that last updated an aggregate, so the gateway can measure
+ * end-to-end latency from it.
+ */
+public final class EventTimeHeader {
+    private EventTimeHeader() {}
+
+    public static final String NAME = "event-time";
+
+    public static byte[] encode(long epochMillis) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(epochMillis).array();
+    }
+
+    /** The client event time, or -1 if the record has none. */
+    public static long decode(Headers headers) {
+        Header header = headers == null ? null : headers.lastHeader(NAME);
+        return decode(header == null ? null : header.value());
+    }
+
+    public static long decode(byte[] value) {
+        return value == null || value.length != Long.BYTES ? -1 : ByteBuffer.wrap(value).getLong();
+    }
+}
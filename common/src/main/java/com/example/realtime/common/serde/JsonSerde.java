@@ -0,0 +1,36 @@
+package com.example.realtime.common.serde;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serdes;
+
+import java.io.IOException;
+
+/**
+ * JSON-only serde for low-volume output records that have no binary codec
+ * (one record per key and window, e.g. the sketch results).
+ */
+public class JsonSerde<T> extends Serdes.WrapperSerde<T> {
+
+    public JsonSerde(Class<T> type) {
+        super((topic, data) -> {
+            if (data == null) {
+                return null;
+            }
+            try {
+                return JsonSupport.MAPPER.writeValueAsBytes(data);
+            } catch (JsonProcessingException e) {
+                throw new SerializationException("Could not write " + type.getSimpleName() + " as JSON", e);
+            }
+        }, (topic, data) -> {
+            if (data == null || data.length == 0) {
+                return null;
+            }
+            try {
+                return JsonSupport.MAPPER.readValue(data, type);
+            } catch (IOException e) {
+                throw new SerializationException("Could not read " + type.getSimpleName() + " from topic " + topic, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.realtime.common.serde;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Shared ObjectMapper configured like spring-kafka's JsonSerializer/JsonDeserializer
+ * (Instants as numeric epoch seconds, unknown properties ignored), so the JSON written here
+ * is byte-compatible with what the services produced before.
+ */
+final class JsonSupport {
+    private JsonSupport() {}
+
+    static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+}
@@ -0,0 +1,27 @@
+package com.example.realtime.common.serde;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Value format written by the serializers in this package. Deserializers read both.
+ * Selected with the {@link #CONFIG} property in the Kafka client / Streams config. Services set
+ * it from their {@link #PROPERTY} application property; that is the one to change.
+ */
+public enum WireFormat {
+    JSON,
+    BINARY;
+
+    public static final String CONFIG = "realtime.serde.format";
+
+    /** Application property every service reads the format from. */
+    public static final String PROPERTY = "app.serde.format";
+
+    static WireFormat fromConfig(Map<String, ?> configs) {
+        Object value = configs.get(CONFIG);
+        if (value == null) {
+            return JSON; // safe default while consumers are being upgraded
+        }
+        return value instanceof WireFormat format ? format : valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+    }
+}
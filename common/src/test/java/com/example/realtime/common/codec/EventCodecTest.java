@@ -0,0 +1,144 @@
+package com.example.realtime.common.codec;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.serde.AggregateDeserializer;
+import com.example.realtime.common.serde.AggregateSerializer;
+import com.example.realtime.common.serde.EventDeserializer;
+import com.example.realtime.common.serde.EventSerializer;
+import com.example.realtime.common.serde.WireFormat;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventCodecTest {
+
+    @Test
+    public void binaryEventRoundTripKeepsAllFields() {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("value", 42.5);
+        metadata.put("count", 3L);
+        metadata.put("tags", List.of("a", "b"));
+        metadata.put("ok", true);
+        metadata.put("missing", null);
+        EventDTO event = new EventDTO("click", "user_1", Instant.ofEpochMilli(1_700_000_000_123L), metadata);
+        event.setEventId("evt-7");
+
+        byte[] bytes = new EventSerializer(WireFormat.BINARY).serialize("events", event);
+        EventDTO decoded = new EventDeserializer().deserialize("events", bytes);
+
+        assertTrue(BinaryFormat.isBinary(bytes));
+        assertEquals("click", decoded.getEventType());
+        assertEquals("user_1", decoded.getUserId());
+        assertEquals(event.getTimestamp(), decoded.getTimestamp());
+        assertEquals(metadata, decoded.getMetadata());
+        assertEquals("evt-7", decoded.getEventId());
+    }
+
+    @Test
+    public void unknownEventTypeIsWrittenInline() {
+        EventDTO event = new EventDTO("something_new", "u", null, null);
+
+        EventDTO decoded = EventCodec.decode(EventCodec.encode(event));
+
+        assertEquals("something_new", decoded.getEventType());
+        assertNull(decoded.getTimestamp());
+        assertNull(decoded.getMetadata());
+    }
+
+    @Test
+    public void binaryIsSmallerThanJson() {
+        EventDTO event = new EventDTO("click", "user_benchmark", Instant.now(), "meta-1");
+
+        byte[] json = new EventSerializer(WireFormat.JSON).serialize("events", event);
+        byte[] binary = new EventSerializer(WireFormat.BINARY).serialize("events", event);
+
+        assertTrue(binary.length * 2 < json.length, "binary=" + binary.length + " json=" + json.length);
+    }
+
+    @Test
+    public void deserializerStillReadsJsonFromOldProducers() {
+        // Shape written by spring-kafka's JsonSerializer before the migration
+        String json = "{\"eventType\":\"view\",\"userId\":\"alex_doe\",\"timestamp\":1700000000.5,\"metadata\":{\"page\":\"/home\"}}";
+
+        EventDTO event = new EventDeserializer().deserialize("events", json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("view", event.getEventType());
+        assertEquals("alex_doe", event.getUserId());
+        assertEquals(Instant.ofEpochMilli(1_700_000_000_500L), event.getTimestamp());
+        assertEquals(Map.of("page", "/home"), event.getMetadata());
+    }
+
+    @Test
+    public void aggregateRoundTripInBothFormats() {
+        AggregateDTO agg = new AggregateDTO();
+        agg.setMetricId("user_1");
+        agg.setResolution("1h");
+        agg.setWindowStart(Instant.ofEpochMilli(1_700_000_040_000L));
+        agg.setWindowEnd(Instant.ofEpochMilli(1_700_000_100_000L));
+        agg.setCount(1234);
+        agg.setSum(99.5);
+        agg.setMax(12.25);
+        agg.setP50(3.5);
+        agg.setP99(11.0);
+
+        for (WireFormat format : WireFormat.values()) {
+            byte[] bytes = new AggregateSerializer(format).serialize("events-aggregated", agg);
+            AggregateDTO decoded = new AggregateDeserializer().deserialize("events-aggregated", bytes);
+
+            assertEquals(agg.getMetricId(), decoded.getMetricId());
+            assertEquals(agg.getResolution(), decoded.getResolution());
+            assertEquals(agg.getWindowStart(), decoded.getWindowStart());
+            assertEquals(agg.getWindowEnd(), decoded.getWindowEnd());
+            assertEquals(agg.getCount(), decoded.getCount());
+            assertEquals(agg.getSum(), decoded.getSum());
+            assertEquals(agg.getMax(), decoded.getMax());
+            assertEquals(agg.getP50(), decoded.getP50());
+            assertEquals(agg.getP99(), decoded.getP99());
+        }
+    }
+
+    @Test
+    public void collectionSizesAreCheckedAgainstTheRecord() {
+        // A few bytes claiming two billion list items or map entries
+        for (int tag : new int[]{6, 7}) {
+            BinaryWriter out = metadataRecord();
+            out.writeByte(tag);
+            out.writeVarLong(Integer.MAX_VALUE);
+            out.writeByte(0);
+
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> EventCodec.decode(out.toByteArray()));
+            assertTrue(e.getMessage().contains("exceeds the record"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void deeplyNestedMetadataIsRejected() {
+        BinaryWriter out = metadataRecord();
+        for (int i = 0; i < 10_000; i++) {
+            out.writeByte(6);
+            out.writeVarLong(1);
+        }
+        out.writeByte(0);
+
+        assertThrows(IllegalArgumentException.class, () -> EventCodec.decode(out.toByteArray()));
+    }
+
+    // Event header with only the metadata flag set; the caller writes the metadata
+    private static BinaryWriter metadataRecord() {
+        BinaryWriter out = new BinaryWriter(64);
+        BinaryFormat.writeHeader(out, EventCodec.VERSION_1);
+        out.writeByte(1 << 3);
+        return out;
+    }
+}
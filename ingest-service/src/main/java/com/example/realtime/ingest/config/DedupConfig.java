@@ -0,0 +1,26 @@
+package com.example.realtime.ingest.config;
+
+import com.example.realtime.ingest.dedup.RecentEventIds;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Drops retried events that carry an already seen {@code eventId}. Off unless {@code app.dedup.enabled=true}:
+ * the filter is lossy, see {@link RecentEventIds}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.dedup.enabled", havingValue = "true")
+public class DedupConfig {
+
+    @Bean
+    public RecentEventIds recentEventIds(@Value("${app.dedup.window:5m}") Duration window,
+                                         @Value("${app.dedup.generations:4}") int generations,
+                                         @Value("${app.dedup.expected-ids-per-second:10000}") long expectedIdsPerSecond,
+                                         @Value("${app.dedup.bits-per-id:32}") int bitsPerId) {
+        return new RecentEventIds(window, generations, expectedIdsPerSecond, bitsPerId);
+    }
+}
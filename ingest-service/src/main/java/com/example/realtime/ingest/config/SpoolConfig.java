@@ -0,0 +1,39 @@
+package com.example.realtime.ingest.config;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.ingest.spool.SegmentSpool;
+import com.example.realtime.ingest.spool.SpoolDrainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Local disk spool used when Kafka cannot keep up. Off unless {@code app.spool.enabled=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.spool.enabled", havingValue = "true")
+public class SpoolConfig {
+
+    @Bean(destroyMethod = "close")
+    public SegmentSpool segmentSpool(@Value("${app.spool.directory}") String directory,
+                                     @Value("${app.spool.segment-bytes:67108864}") int segmentBytes,
+                                     @Value("${app.spool.max-segments:16}") int maxSegments,
+                                     @Value("${app.spool.sync-interval-ms:200}") long syncIntervalMs) throws IOException {
+        return new SegmentSpool(Path.of(directory), segmentBytes, maxSegments, Duration.ofMillis(syncIntervalMs));
+    }
+
+    @Bean
+    public SpoolDrainer spoolDrainer(SegmentSpool segmentSpool,
+                                     KafkaTemplate<String, EventDTO> kafkaTemplate,
+                                     @Value("${app.kafka.topic}") String topicName,
+                                     @Value("${app.spool.drain-batch-size:500}") int batchSize,
+                                     @Value("${app.spool.drain-timeout-ms:30000}") long sendTimeoutMs) {
+        return new SpoolDrainer(segmentSpool, kafkaTemplate, topicName, batchSize, sendTimeoutMs);
+    }
+}
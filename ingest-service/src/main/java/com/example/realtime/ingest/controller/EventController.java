@@ -1,39 +1,97 @@
 package com.example.realtime.ingest.controller;
 
 import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.ingest.dto.BatchIngestResult;
+import com.example.realtime.ingest.service.BatchIngestService;
+import com.example.realtime.ingest.service.IngestOverloadedException;
 import com.example.realtime.ingest.service.KafkaProducerService;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
 @RestController
 @RequestMapping("/events")
 public class EventController {
 
-    // 1. Create the Logger
-    private static final Logger logger = LoggerFactory.getLogger(EventController.class);
+    // Seconds a shed client should wait before retrying
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
 
     private final KafkaProducerService producerService;
+    private final BatchIngestService batchIngestService;
+
+    // Time to accept a request (hand-off to the producer), not including the broker ack
+    private final Timer acceptSingle;
+    private final Timer acceptBatch;
 
     @Autowired
-    public EventController(KafkaProducerService producerService) {
+    public EventController(KafkaProducerService producerService, BatchIngestService batchIngestService,
+                           MeterRegistry meterRegistry) {
         this.producerService = producerService;
+        this.batchIngestService = batchIngestService;
+        this.acceptSingle = acceptTimer(meterRegistry, "single");
+        this.acceptBatch = acceptTimer(meterRegistry, "batch");
     }
-    
+
+    private static Timer acceptTimer(MeterRegistry meterRegistry, String type) {
+        return Timer.builder("ingest.accept")
+                .description("Time to accept an ingest request")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
     @PostMapping
     public ResponseEntity<Void> postEvent(@RequestBody EventDTO event) {
-        // 2. Log the receipt (good for debugging)
-        logger.info("Received event request: userId={}, type={}", event.getUserId(), event.getEventType());
-
-        // 3. Send to Kafka
+        // 1. Send to Kafka (no per-request logging: this is the hot path)
+        long start = System.nanoTime();
         producerService.sendEvent(event);
+        acceptSingle.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-        // 4. Return "202 Accepted"
+        // 2. Return "202 Accepted"
         return ResponseEntity.accepted().build();
     }
+
+    // Batch variant: accepts a JSON array or NDJSON and streams it straight to Kafka.
+    // The raw InputStream is used on purpose so the body is never buffered as a whole.
+    @PostMapping(path = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<BatchIngestResult> postEventBatch(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        BatchIngestResult result = batchIngestService.ingest(body);
+        acceptBatch.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (result.isThrottled()) {
+            // The first (accepted + rejected) items were handled; the client resends the rest later
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body(result);
+        }
+        return ResponseEntity.accepted().body(result);
+    }
+
+    // Load shedding: answer immediately instead of queueing behind a slow broker
+    @ExceptionHandler(IngestOverloadedException.class)
+    public ResponseEntity<Void> handleOverload(IngestOverloadedException e) {
+        HttpStatus status = e.getReason() == IngestOverloadedException.Reason.IN_FLIGHT_LIMIT
+                ? HttpStatus.TOO_MANY_REQUESTS
+                : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
 }
\ No newline at end of file
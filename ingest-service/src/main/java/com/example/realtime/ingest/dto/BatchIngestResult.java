@@ -0,0 +1,29 @@
+package com.example.realtime.ingest.dto;
+
+/**
+ * Response body for a batch ingest request: how many items were handed to Kafka
+ * and how many were rejected (malformed JSON, failed binding or missing fields).
+ * {@code throttled} is set when the batch was cut short by load shedding; items after
+ * the first {@code accepted + rejected} were not read.
+ */
+public class BatchIngestResult {
+    private long accepted;
+    private long rejected;
+    private boolean throttled;
+
+    public BatchIngestResult() {}
+
+    public BatchIngestResult(long accepted, long rejected, boolean throttled) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.throttled = throttled;
+    }
+
+    // Getters and setters
+    public long getAccepted() { return accepted; }
+    public void setAccepted(long accepted) { this.accepted = accepted; }
+    public long getRejected() { return rejected; }
+    public void setRejected(long rejected) { this.rejected = rejected; }
+    public boolean isThrottled() { return throttled; }
+    public void setThrottled(boolean throttled) { this.throttled = throttled; }
+}
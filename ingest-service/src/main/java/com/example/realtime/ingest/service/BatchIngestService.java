@@ -0,0 +1,84 @@
+package com.example.realtime.ingest.service;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.ingest.dto.BatchIngestResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a batch of events from a request body and hands each one to Kafka as soon as it is parsed.
+ *
+ * The body may be a JSON array ({@code [{...},{...}]}) or NDJSON (one object per line).
+ * Jackson's {@link MappingIterator} handles both: it unwraps a root-level array, and otherwise
+ * reads whitespace-separated root values. Only one event is held in memory at a time, so the
+ * batch size does not affect heap usage.
+ */
+@Service
+public class BatchIngestService {
+
+    private final KafkaProducerService producerService;
+
+    // Reusable, thread-safe reader bound to EventDTO
+    private final ObjectReader eventReader;
+
+    public BatchIngestService(KafkaProducerService producerService, ObjectMapper objectMapper) {
+        this.producerService = producerService;
+        this.eventReader = objectMapper.readerFor(EventDTO.class);
+    }
+
+    public BatchIngestResult ingest(InputStream body) throws IOException {
+        long accepted = 0;
+        long rejected = 0;
+        boolean throttled = false;
+
+        try (MappingIterator<EventDTO> items = eventReader.readValues(body)) {
+            while (true) {
+                EventDTO event;
+                try {
+                    if (!items.hasNextValue()) {
+                        break;
+                    }
+                    event = items.nextValue();
+                } catch (JsonMappingException e) {
+                    // The item was well-formed JSON but could not be bound; the iterator
+                    // skips to the end of it on the next call, so keep going.
+                    rejected++;
+                    continue;
+                } catch (JsonProcessingException e) {
+                    // Broken JSON: there is no reliable way to find the next item.
+                    rejected++;
+                    break;
+                }
+
+                if (!isValid(event)) {
+                    rejected++;
+                    continue;
+                }
+
+                try {
+                    producerService.sendEvent(event);
+                } catch (IngestOverloadedException e) {
+                    // Stop here so the client knows exactly which prefix of the batch was taken
+                    throttled = true;
+                    break;
+                }
+                accepted++;
+            }
+        }
+
+        return new BatchIngestResult(accepted, rejected, throttled);
+    }
+
+    private boolean isValid(EventDTO event) {
+        return event != null
+                && event.getUserId() != null && !event.getUserId().isEmpty()
+                && event.getEventType() != null && !event.getEventType().isEmpty();
+    }
+}
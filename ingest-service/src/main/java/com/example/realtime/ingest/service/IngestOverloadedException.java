@@ -0,0 +1,24 @@
+package com.example.realtime.ingest.service;
+
+/**
+ * Thrown when the producer pipeline cannot take another event right now.
+ * The controller turns this into a fast 429/503 instead of letting the request thread block.
+ */
+public class IngestOverloadedException extends RuntimeException {
+
+    public enum Reason {
+        // Too many sends are waiting for a broker acknowledgement
+        IN_FLIGHT_LIMIT,
+        // The producer could not even enqueue the record (buffer full, metadata unavailable)
+        BROKER_UNAVAILABLE
+    }
+
+    private final Reason reason;
+
+    public IngestOverloadedException(Reason reason, String message) {
+        super(message, null, false, false); // no stack trace: this is a hot, expected path
+        this.reason = reason;
+    }
+
+    public Reason getReason() { return reason; }
+}
@@ -1,13 +1,39 @@
 package com.example.realtime.ingest.service;
 
+import com.example.realtime.common.codec.EventCodec;
 import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.serde.EventTimeHeader;
+import com.example.realtime.ingest.dedup.RecentEventIds;
+import com.example.realtime.ingest.spool.SegmentSpool;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 @Service
 public class KafkaProducerService {
 
+    private static final Logger logger = LoggerFactory.getLogger(KafkaProducerService.class);
+
     // 1. The Tool: KafkaTemplate
     // <String, EventDTO> means: Key is a String, Value is our Event object.
     private final KafkaTemplate<String, EventDTO> kafkaTemplate;
@@ -16,20 +42,213 @@ public class KafkaProducerService {
     // We will load this from application.yml
     private final String topicName;
 
+    // 3. The Window: at most this many sends may be waiting for a broker ack.
+    // A permit is taken before send() and given back when the future completes,
+    // so a slow broker shows up here as "no permits" instead of blocked request threads.
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    // 4. The Spool (optional): local disk buffer that absorbs what Kafka cannot take right now.
+    // Events whose send failed are spooled from this thread, never from the producer's callback.
+    private final SegmentSpool spool;
+    private final ExecutorService spoolRetries;
+
+    // 5. Recent event ids (optional): drops client retries of events already taken
+    private final RecentEventIds recentIds;
+
+    private final AtomicLong failedSends = new AtomicLong();
+
+    // 6. Metrics: registered once, recorded without allocating
+    private final Timer sendLatency;
+    private final Counter uniqueIds;
+    private final Counter duplicateIds;
+
     // Constructor Injection: Spring provides the tools here
     public KafkaProducerService(KafkaTemplate<String, EventDTO> kafkaTemplate,
-                                @Value("${app.kafka.topic}") String topicName) {
+                                @Value("${app.kafka.topic}") String topicName,
+                                @Value("${app.kafka.producer.max-in-flight:10000}") int maxInFlight,
+                                ObjectProvider<SegmentSpool> spool,
+                                ObjectProvider<RecentEventIds> recentIds,
+                                MeterRegistry meterRegistry) {
         this.kafkaTemplate = kafkaTemplate;
         this.topicName = topicName;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.spool = spool.getIfAvailable();
+        this.spoolRetries = this.spool == null ? null : Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "spool-retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.recentIds = recentIds.getIfAvailable();
+
+        this.sendLatency = Timer.builder("ingest.producer.send")
+                .description("Time from send() to broker ack")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry);
+        Gauge.builder("ingest.producer.in-flight", this, KafkaProducerService::getInFlight)
+                .description("Sends waiting for a broker ack")
+                .register(meterRegistry);
+        FunctionCounter.builder("ingest.producer.failed", this, KafkaProducerService::getFailedSends)
+                .description("Sends that failed or timed out")
+                .register(meterRegistry);
+        if (this.spool != null) {
+            Gauge.builder("ingest.spool.pending", this.spool, SegmentSpool::getPending)
+                    .description("Events waiting in the local spool")
+                    .register(meterRegistry);
+        }
+        // Hit rate = duplicate / (unique + duplicate), over events that carry an id
+        this.uniqueIds = dedupCounter(meterRegistry, "unique");
+        this.duplicateIds = dedupCounter(meterRegistry, "duplicate");
+        if (this.recentIds != null) {
+            Gauge.builder("ingest.dedup.memory", this.recentIds, RecentEventIds::getSizeBytes)
+                    .description("Fixed size of the recent event id filter")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            // At 1, ids are no longer remembered until the next generation: raise expected-ids-per-second
+            Gauge.builder("ingest.dedup.saturation", this.recentIds, RecentEventIds::getSaturation)
+                    .description("Fill of the current generation of the recent event id filter")
+                    .register(meterRegistry);
+            FunctionCounter.builder("ingest.dedup.refused", this.recentIds, RecentEventIds::getRefused)
+                    .description("Event ids not remembered because the filter generation was full")
+                    .register(meterRegistry);
+        }
     }
 
+    private static Counter dedupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ingest.dedup.checks")
+                .description("Event ids checked against recently ingested ones")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Kafka record for an event. The record timestamp is left to the producer, so windows and
+     * stream time follow our clock; a client's own timestamp goes in the {@link EventTimeHeader},
+     * which end-to-end latency is measured from.
+     */
+    public static ProducerRecord<String, EventDTO> toRecord(String topic, EventDTO event) {
+        ProducerRecord<String, EventDTO> record = new ProducerRecord<>(topic, event.getUserId(), event);
+        if (event.getTimestamp() != null) {
+            record.headers().add(EventTimeHeader.NAME, EventTimeHeader.encode(event.getTimestamp().toEpochMilli()));
+        }
+        return record;
+    }
+
+    /**
+     * Hands the event to Kafka (or the spool). An event whose id was already taken recently is a
+     * client retry and is dropped without error, so the retry gets the same answer as the original.
+     *
+     * The id filter is probabilistic: a small share of new events (see {@link RecentEventIds}) is
+     * taken for retries and lost, although the client gets 202. They are counted as duplicates in
+     * {@code ingest.dedup.checks}. Dedup is therefore opt-in, with {@code app.dedup.enabled}.
+     */
     public void sendEvent(EventDTO event) {
-        // Logic: Send the event to the topic.
-        // We use the userId as the "Key". This ensures all events for the same user
-        // go to the same partition (Order Guarantee).
-        kafkaTemplate.send(topicName, event.getUserId(), event);
-        
-        // Simple logging to prove it worked
-        System.out.println("Message sent to Kafka topic: " + topicName);
-    }
-}
\ No newline at end of file
+        if (recentIds == null || event.getEventId() == null) {
+            send(event);
+            return;
+        }
+
+        String userId = Objects.toString(event.getUserId(), "");
+        if (recentIds.mightContain(userId, event.getEventId())) {
+            duplicateIds.increment();
+            return;
+        }
+        uniqueIds.increment();
+        // Remembered only once taken: a retry after a 429/503 must not be mistaken for a duplicate.
+        // Two copies racing in at the same moment can both get through; retries rarely do that.
+        send(event);
+        recentIds.add(userId, event.getEventId());
+    }
+
+    private void send(EventDTO event) {
+        // While a user's events are spooled, their new ones queue behind them so the key stays in
+        // order; everyone else goes straight to Kafka
+        if (spool != null && spool.holds(event.getUserId())) {
+            spoolEvent(event);
+            return;
+        }
+
+        if (!inFlight.tryAcquire()) {
+            if (spool != null) {
+                spoolEvent(event);
+                return;
+            }
+            throw new IngestOverloadedException(IngestOverloadedException.Reason.IN_FLIGHT_LIMIT,
+                    "In-flight window of " + maxInFlight + " sends is full");
+        }
+
+        try {
+            // We use the userId as the "Key". This ensures all events for the same user
+            // go to the same partition (Order Guarantee).
+            long start = System.nanoTime();
+            kafkaTemplate.send(toRecord(topicName, event))
+                    .whenComplete((result, ex) -> {
+                        inFlight.release();
+                        if (ex == null) {
+                            sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        } else {
+                            onSendFailure(ex);
+                            if (spool != null) {
+                                // Delivery timed out: keep the event, though it may now trail newer ones
+                                spoolRetries.execute(() -> spoolQuietly(event));
+                            }
+                        }
+                    });
+        } catch (KafkaException | org.apache.kafka.common.KafkaException e) {
+            // send() itself failed (e.g. max.block.ms elapsed waiting for buffer space or metadata)
+            inFlight.release();
+            onSendFailure(e);
+            if (spool != null) {
+                spoolEvent(event);
+                return;
+            }
+            throw new IngestOverloadedException(IngestOverloadedException.Reason.BROKER_UNAVAILABLE,
+                    "Kafka producer unavailable: " + e.getMessage());
+        }
+    }
+
+    private void spoolEvent(EventDTO event) {
+        boolean spooled;
+        try {
+            spooled = spool.append(event.getUserId(), EventCodec.encode(event));
+        } catch (IOException e) {
+            spooled = false;
+        }
+        if (!spooled) {
+            throw new IngestOverloadedException(IngestOverloadedException.Reason.BROKER_UNAVAILABLE,
+                    "Kafka is behind and the local spool is full");
+        }
+    }
+
+    private void spoolQuietly(EventDTO event) {
+        try {
+            spoolEvent(event);
+        } catch (IngestOverloadedException e) {
+            onSendFailure(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (spoolRetries != null) {
+            spoolRetries.shutdown();
+        }
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public long getFailedSends() {
+        return failedSends.get();
+    }
+
+    private void onSendFailure(Throwable ex) {
+        // Only the first failure of each thousand is logged, so an outage does not flood the log
+        if (failedSends.getAndIncrement() % 1000 == 0) {
+            logger.warn("Kafka send failed ({} failures so far): {}", failedSends.get(), ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.realtime.ingest.spool;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Append-only local spool made of memory-mapped segment files.
+ *
+ * Request threads {@link #append} records (serialized by a lock: an append is a memcpy into the
+ * page cache, so the critical section is tiny and nothing touches the heap beyond the payload).
+ * Nothing on that path waits for the disk: a full segment is only marked sealed, and a background
+ * thread writes new records back every {@code syncInterval} in one group commit. Rolling over to
+ * the next segment costs a rename or a sparse-file create, never a write-back.
+ * A single drainer thread reads batches from the oldest segment with {@link #readBatch}, then
+ * either {@link #commit}s them after Kafka acknowledged them or {@link #rewind}s to retry.
+ * Fully drained segments go back to a small pool of files and are reused.
+ *
+ * Records may carry a key (the userId). {@link #holds} tells whether a key may still have records
+ * waiting, so only those keys have to queue behind the spool to stay in order.
+ *
+ * The committed offset lives in each segment's header, so after a restart only records that were
+ * never acknowledged are replayed.
+ */
+public class SegmentSpool implements Closeable {
+
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".seg";
+
+    // Recycled files kept around for reuse; anything beyond this is deleted
+    private static final int MAX_POOLED_SEGMENTS = 2;
+
+    // Pending records per key hash; keys sharing a stripe only ever queue unnecessarily
+    private static final int KEY_STRIPES = 4096;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ConcurrentLinkedDeque<SpoolSegment> segments = new ConcurrentLinkedDeque<>();
+    private final Deque<SpoolSegment> pool = new ArrayDeque<>();
+    private long nextSequence;
+
+    // Records appended but not yet committed by the drainer
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicIntegerArray pendingByKey = new AtomicIntegerArray(KEY_STRIPES);
+    // Records left over from a previous run; their keys are unknown, so every key waits for them
+    private final AtomicLong recovered = new AtomicLong();
+
+    private final ScheduledExecutorService syncer;
+
+    public SegmentSpool(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        this(directory, segmentBytes, maxSegments, Duration.ZERO);
+    }
+
+    /** A zero {@code syncInterval} leaves write-back to the OS (and {@link #sync}/{@link #close}). */
+    public SegmentSpool(Path directory, int segmentBytes, int maxSegments, Duration syncInterval) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        recover();
+        if (syncInterval.isZero()) {
+            syncer = null;
+        } else {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "spool-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = Math.max(1, syncInterval.toMillis());
+            syncer.scheduleWithFixedDelay(this::syncQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            long sequence = parseSequence(file);
+            SpoolSegment segment = SpoolSegment.recover(file, sequence);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (segment.isFullyDrained()) {
+                release(segment);
+            } else {
+                long uncommitted = segment.countUncommitted();
+                pending.addAndGet(uncommitted);
+                recovered.addAndGet(uncommitted);
+                segments.addLast(segment);
+            }
+        }
+    }
+
+    /** Appends a record without a key. */
+    public boolean append(byte[] record) throws IOException {
+        return append(null, record);
+    }
+
+    /**
+     * Appends one record. Returns false when the spool is at {@code maxSegments} and full,
+     * in which case the caller has to shed the event.
+     */
+    public boolean append(String key, byte[] record) throws IOException {
+        writeLock.lock();
+        try {
+            SpoolSegment tail = segments.peekLast();
+            if (tail == null || !tail.append(record)) {
+                if (tail != null) {
+                    // Written back by the next sync, not here
+                    tail.seal();
+                }
+                if (segments.size() >= maxSegments || 4 + record.length > segmentBytes - SpoolSegment.HEADER_BYTES) {
+                    return false;
+                }
+                tail = acquire();
+                segments.addLast(tail);
+                if (!tail.append(record)) {
+                    return false;
+                }
+            }
+            pending.incrementAndGet();
+            if (key != null) {
+                pendingByKey.incrementAndGet(stripe(key));
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * True when records with this key (or one sharing its stripe, or of unknown key) may still be
+     * waiting; a new record for it has to go through the spool to stay behind them.
+     */
+    public boolean holds(String key) {
+        if (pending.get() == 0) {
+            return false;
+        }
+        return recovered.get() > 0 || key == null || pendingByKey.get(stripe(key)) > 0;
+    }
+
+    /** True when every appended record has been acknowledged; cheap enough for the request path. */
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    // ---- drainer side ------------------------------------------------------------------------
+
+    /**
+     * Reads up to {@code max} records from the oldest segment. A batch never spans two segments,
+     * so commit/rewind only ever move one read position.
+     */
+    public List<byte[]> readBatch(int max) throws IOException {
+        SpoolSegment head = segments.peekFirst();
+        while (head != null && head.isFullyDrained()) {
+            // Sealed by the writer after its last record was already committed
+            releaseHead(head);
+            head = segments.peekFirst();
+        }
+        if (head == null) {
+            return List.of();
+        }
+        List<byte[]> batch = new ArrayList<>(Math.min(max, 1024));
+        byte[] record;
+        while (batch.size() < max && (record = head.readNext()) != null) {
+            batch.add(record);
+        }
+        return batch;
+    }
+
+    /** Marks the last batch, of records appended without a key, as delivered. */
+    public void commit(int records) throws IOException {
+        commit(Collections.nCopies(records, null));
+    }
+
+    /**
+     * Marks the last batch as delivered and recycles the head segment once it is fully drained.
+     * {@code keys} holds the key each record of the batch was appended with, in order.
+     */
+    public void commit(List<String> keys) throws IOException {
+        SpoolSegment head = segments.peekFirst();
+        if (head == null) {
+            return;
+        }
+        head.commit();
+        for (String key : keys) {
+            // Recovered records come first and were never counted by key
+            if (recovered.get() > 0) {
+                recovered.decrementAndGet();
+            } else if (key != null) {
+                pendingByKey.decrementAndGet(stripe(key));
+            }
+        }
+        pending.addAndGet(-keys.size());
+        if (head.isFullyDrained()) {
+            releaseHead(head);
+        }
+    }
+
+    /** Moves the read position back to the last commit so the batch is sent again. */
+    public void rewind() {
+        SpoolSegment head = segments.peekFirst();
+        if (head != null) {
+            head.rewind();
+        }
+    }
+
+    /** Writes back whatever was appended since the last sync (group commit). */
+    public void sync() {
+        for (SpoolSegment segment : segments) {
+            segment.sync();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            // Data stays in the page cache; the next round tries again
+            LoggerFactory.getLogger(SegmentSpool.class).warn("Spool sync failed: {}", e.getMessage());
+        }
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (KEY_STRIPES - 1);
+    }
+
+    // ---- segment pool ------------------------------------------------------------------------
+
+    private void releaseHead(SpoolSegment head) throws IOException {
+        writeLock.lock();
+        try {
+            // Under the lock because the pool is shared with the writer
+            if (segments.peekFirst() == head) {
+                segments.pollFirst();
+                release(head);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private SpoolSegment acquire() throws IOException {
+        long sequence = nextSequence++;
+        Path path = pathFor(sequence);
+        SpoolSegment pooled = pool.pollFirst();
+        if (pooled != null) {
+            pooled.recycle(path, sequence);
+            return pooled;
+        }
+        return SpoolSegment.create(path, sequence, segmentBytes);
+    }
+
+    private void release(SpoolSegment segment) throws IOException {
+        if (pool.size() < MAX_POOLED_SEGMENTS) {
+            pool.addLast(segment);
+        } else {
+            segment.delete();
+        }
+    }
+
+    private Path pathFor(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    private static long parseSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+            try {
+                syncer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeLock.lock();
+        try {
+            for (SpoolSegment segment : segments) {
+                segment.close();
+            }
+            for (SpoolSegment segment : pool) {
+                segment.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.realtime.ingest.spool;
+
+import com.example.realtime.common.codec.EventCodec;
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.ingest.service.KafkaProducerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread that replays spooled events to Kafka.
+ *
+ * It sends one batch at a time and waits for every ack before committing it, so records leave
+ * the spool in the order they were written (and therefore in order per key). If any send fails
+ * the batch is rewound and retried after an exponential backoff; delivery is at-least-once.
+ */
+public class SpoolDrainer implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolDrainer.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final SegmentSpool spool;
+    private final KafkaTemplate<String, EventDTO> kafkaTemplate;
+    private final String topicName;
+    private final int batchSize;
+    private final long sendTimeoutMs;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public SpoolDrainer(SegmentSpool spool, KafkaTemplate<String, EventDTO> kafkaTemplate,
+                        String topicName, int batchSize, long sendTimeoutMs) {
+        this.spool = spool;
+        this.kafkaTemplate = kafkaTemplate;
+        this.topicName = topicName;
+        this.batchSize = batchSize;
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::drainLoop, "spool-drainer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void drainLoop() {
+        long backoffMs = MIN_BACKOFF_MS;
+        while (running) {
+            try {
+                List<byte[]> batch = spool.readBatch(batchSize);
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+
+                List<EventDTO> events = new ArrayList<>(batch.size());
+                List<String> keys = new ArrayList<>(batch.size());
+                for (byte[] record : batch) {
+                    EventDTO event = EventCodec.decode(record);
+                    events.add(event);
+                    keys.add(event.getUserId());
+                }
+
+                if (sendAndAwait(events)) {
+                    spool.commit(keys);
+                    backoffMs = MIN_BACKOFF_MS;
+                } else {
+                    spool.rewind();
+                    logger.warn("Spool replay failed, {} events pending; retrying in {} ms", spool.getPending(), backoffMs);
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Unexpected error in spool drainer", e);
+                spool.rewind();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs));
+            }
+        }
+    }
+
+    private boolean sendAndAwait(List<EventDTO> events) throws InterruptedException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[events.size()];
+        try {
+            for (int i = 0; i < futures.length; i++) {
+                // Windowed by replay time; the client time travels in the header
+                futures[i] = kafkaTemplate.send(KafkaProducerService.toRecord(topicName, events.get(i)));
+            }
+            CompletableFuture.allOf(futures).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.realtime.ingest.spool;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One fixed-size, memory-mapped spool file.
+ *
+ * Layout: an 8-byte header holding the committed read offset, then records of
+ * {@code [int length][payload]}. A length of 0 terminates the data, which is why every append
+ * also writes a 0 after itself: it makes recycled files safe to reuse without zeroing them.
+ *
+ * One writer (under {@link SegmentSpool}'s lock) and one reader (the drainer thread) touch a
+ * segment; {@link #publishedPos} is the volatile hand-off between them. A third thread syncs it
+ * to disk now and then, reading only {@link #publishedPos}.
+ */
+final class SpoolSegment {
+
+    static final int HEADER_BYTES = 8;
+
+    private Path path;
+    private long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // Writer side
+    private int writePos;
+    private volatile int publishedPos;
+    private volatile boolean sealed;
+    // End of the data already written back to disk; reset when the file is recycled
+    private volatile int syncedPos;
+
+    // Reader side (drainer thread only)
+    private int readPos;
+    private int committedPos;
+
+    private SpoolSegment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    static SpoolSegment create(Path path, long sequence, int size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        SpoolSegment segment = open(path, sequence);
+        segment.reset();
+        return segment;
+    }
+
+    /** Re-opens a segment left over from a previous run; it is sealed and only drained. */
+    static SpoolSegment recover(Path path, long sequence) throws IOException {
+        SpoolSegment segment = open(path, sequence);
+        MappedByteBuffer buf = segment.buffer;
+
+        int pos = HEADER_BYTES;
+        while (pos + 4 <= segment.capacity) {
+            int length = buf.getInt(pos);
+            if (length <= 0 || pos + 4 + length > segment.capacity) {
+                break;
+            }
+            pos += 4 + length;
+        }
+        segment.writePos = pos;
+        segment.publishedPos = pos;
+        segment.syncedPos = pos;
+        segment.sealed = true;
+
+        long committed = buf.getLong(0);
+        segment.committedPos = (committed >= HEADER_BYTES && committed <= pos) ? (int) committed : HEADER_BYTES;
+        segment.readPos = segment.committedPos;
+        return segment;
+    }
+
+    private static SpoolSegment open(Path path, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        return new SpoolSegment(path, sequence, channel, buffer);
+    }
+
+    // ---- writer side -------------------------------------------------------------------------
+
+    /** Appends a record, or returns false if it does not fit in the remaining space. */
+    boolean append(byte[] payload) {
+        int needed = 4 + payload.length;
+        if (sealed || writePos + needed > capacity) {
+            return false;
+        }
+        buffer.put(writePos + 4, payload);
+        if (writePos + needed + 4 <= capacity) {
+            buffer.putInt(writePos + needed, 0);
+        }
+        // Length last: a reader never sees a length whose payload is not there yet
+        buffer.putInt(writePos, payload.length);
+        writePos += needed;
+        publishedPos = writePos;
+        return true;
+    }
+
+    /** No more appends; the data is written back by the next {@link #sync}, not here. */
+    void seal() {
+        sealed = true;
+    }
+
+    /** Writes back the records published since the last call, and the header. */
+    void sync() {
+        int pos = publishedPos;
+        int from = syncedPos;
+        if (pos > from) {
+            buffer.force(from, pos - from);
+            syncedPos = pos;
+        }
+        buffer.force(0, HEADER_BYTES);
+    }
+
+    // ---- reader side -------------------------------------------------------------------------
+
+    /** Next unread record, or null if the reader has caught up with the writer. */
+    byte[] readNext() {
+        if (readPos >= publishedPos) {
+            return null;
+        }
+        int length = buffer.getInt(readPos);
+        byte[] payload = new byte[length];
+        buffer.get(readPos + 4, payload);
+        readPos += 4 + length;
+        return payload;
+    }
+
+    void commit() {
+        committedPos = readPos;
+        buffer.putLong(0, committedPos);
+    }
+
+    void rewind() {
+        readPos = committedPos;
+    }
+
+    /** True once nothing more will be written and everything written has been committed. */
+    boolean isFullyDrained() {
+        return sealed && committedPos == publishedPos;
+    }
+
+    /** Counts records between the committed offset and the end; used once at recovery. */
+    long countUncommitted() {
+        long count = 0;
+        int pos = committedPos;
+        while (pos < publishedPos) {
+            pos += 4 + buffer.getInt(pos);
+            count++;
+        }
+        return count;
+    }
+
+    // ---- lifecycle ---------------------------------------------------------------------------
+
+    /** Makes the file look empty again and gives it a new name/sequence so it can be reused. */
+    void recycle(Path newPath, long newSequence) throws IOException {
+        Files.move(path, newPath, StandardCopyOption.ATOMIC_MOVE);
+        path = newPath;
+        sequence = newSequence;
+        reset();
+    }
+
+    private void reset() {
+        buffer.putLong(0, HEADER_BYTES);
+        buffer.putInt(HEADER_BYTES, 0);
+        writePos = HEADER_BYTES;
+        publishedPos = HEADER_BYTES;
+        syncedPos = HEADER_BYTES;
+        readPos = HEADER_BYTES;
+        committedPos = HEADER_BYTES;
+        sealed = false;
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    long sequence() {
+        return sequence;
+    }
+}
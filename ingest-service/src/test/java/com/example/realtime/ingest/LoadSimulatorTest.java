@@ -1,22 +1,29 @@
 package com.example.realtime.ingest;
 
 import com.example.realtime.common.dto.EventDTO;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
 
 import java.time.Instant;
-import java.util.stream.IntStream;
-
-@SpringBootTest
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Runs against an in-process broker, so it works offline. For serde, topology and fan-out
+// numbers see the JMH benchmarks in the benchmarks module. Tagged "load": only runs with -Pload-tests.
+@Tag("load")
+@SpringBootTest(properties = "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}")
+@EmbeddedKafka(partitions = 3, topics = "events")
 public class LoadSimulatorTest {
 
     @Autowired
     private KafkaTemplate<String, EventDTO> kafkaTemplate;
 
     @Test
-    public void simulateTrafficSpike() {
+    public void simulateTrafficSpike() throws Exception {
         String userId = "user_benchmark";
         // INCREASED TO 100,000
         int messageCount = 100000;
@@ -24,19 +31,23 @@ public class LoadSimulatorTest {
         System.out.println("🚀 STARTING BENCHMARK: Sending " + messageCount + " events...");
         long start = System.currentTimeMillis();
 
-        IntStream.range(0, messageCount).forEach(i -> {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[messageCount];
+        for (int i = 0; i < messageCount; i++) {
             EventDTO event = new EventDTO("click", userId, Instant.now(), "meta-" + i);
-            kafkaTemplate.send("events", userId, event);
-        });
+            futures[i] = kafkaTemplate.send("events", userId, event);
+        }
+        long queued = System.currentTimeMillis() - start;
+
+        // send() only hands the record to the producer buffer; the rate that counts is acked records
+        CompletableFuture.allOf(futures).get(2, TimeUnit.MINUTES);
+        long duration = System.currentTimeMillis() - start;
 
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        
         // Avoid divide by zero if it's super fast
         double seconds = duration / 1000.0;
         double rate = (seconds > 0) ? (messageCount / seconds) : messageCount;
 
-        System.out.println("✅ LOAD TEST COMPLETE: Sent " + messageCount + " events in " + duration + "ms");
-        System.out.println("⚡ PRODUCER RATE: " + (int)rate + " events/sec");
+        System.out.println("✅ LOAD TEST COMPLETE: Queued " + messageCount + " events in " + queued
+                + "ms, all acknowledged after " + duration + "ms");
+        System.out.println("⚡ PRODUCER RATE (acked): " + (int) rate + " events/sec");
     }
-}
\ No newline at end of file
+}
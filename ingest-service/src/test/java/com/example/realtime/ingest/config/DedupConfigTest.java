@@ -0,0 +1,24 @@
+package com.example.realtime.ingest.config;
+
+import com.example.realtime.ingest.dedup.RecentEventIds;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DedupConfigTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withUserConfiguration(DedupConfig.class)
+            // Converts "5m" and the like for @Value, as SpringApplication does
+            .withInitializer(context -> context.getBeanFactory()
+                    .setConversionService(ApplicationConversionService.getSharedInstance()));
+
+    @Test
+    public void offUnlessAnOperatorOptsIn() {
+        runner.run(context -> assertThat(context).doesNotHaveBean(RecentEventIds.class));
+        runner.withPropertyValues("app.dedup.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(RecentEventIds.class));
+    }
+}
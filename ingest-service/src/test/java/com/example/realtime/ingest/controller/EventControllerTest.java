@@ -0,0 +1,194 @@
+package com.example.realtime.ingest.controller;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.ingest.service.BatchIngestService;
+import com.example.realtime.ingest.service.IngestOverloadedException;
+import com.example.realtime.ingest.service.KafkaProducerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class EventControllerTest {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final KafkaProducerService producerService = mock(KafkaProducerService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setUp() {
+        mockMvc = mockMvc(producerService);
+    }
+
+    private static MockMvc mockMvc(KafkaProducerService producer) {
+        BatchIngestService batchIngestService = new BatchIngestService(producer,
+                Jackson2ObjectMapperBuilder.json().build());
+        return MockMvcBuilders.standaloneSetup(
+                new EventController(producer, batchIngestService, new SimpleMeterRegistry())).build();
+    }
+
+    @Test
+    public void jsonArrayBatchIsSentItemByItem() throws Exception {
+        mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content("""
+                        [{"eventType":"click","userId":"alice","timestamp":"2024-01-01T00:00:00Z"},
+                         {"eventType":"view","userId":"bob"}]"""))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(0))
+                .andExpect(jsonPath("$.throttled").value(false));
+
+        ArgumentCaptor<EventDTO> sent = ArgumentCaptor.forClass(EventDTO.class);
+        verify(producerService, times(2)).sendEvent(sent.capture());
+        assertEquals(List.of("alice", "bob"), sent.getAllValues().stream().map(EventDTO::getUserId).toList());
+        assertEquals("2024-01-01T00:00:00Z", sent.getAllValues().get(0).getTimestamp().toString());
+    }
+
+    @Test
+    public void ndjsonBatchCountsEachBadItem() throws Exception {
+        mockMvc.perform(post("/events/batch").contentType(NDJSON).content("""
+                        {"eventType":"click","userId":"alice"}
+                        {"eventType":"click"}
+                        {"eventType":"click","userId":"bob","timestamp":"not a time"}
+                        {"eventType":"view","userId":"carol"}
+                        """))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(2))
+                // One without a user, one that does not bind
+                .andExpect(jsonPath("$.rejected").value(2))
+                .andExpect(jsonPath("$.throttled").value(false));
+
+        verify(producerService, times(2)).sendEvent(any());
+    }
+
+    @Test
+    public void brokenJsonStopsTheBatchButKeepsWhatWasTaken() throws Exception {
+        mockMvc.perform(post("/events/batch").contentType(NDJSON).content("""
+                        {"eventType":"click","userId":"alice"}
+                        {"eventType":"click" "userId":"bob"}
+                        {"eventType":"view","userId":"carol"}
+                        """))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.rejected").value(1));
+
+        verify(producerService, times(1)).sendEvent(any());
+    }
+
+    @Test
+    public void sheddingCutsTheBatchShortWith429() throws Exception {
+        doNothing()
+                .doThrow(new IngestOverloadedException(IngestOverloadedException.Reason.IN_FLIGHT_LIMIT, "full"))
+                .when(producerService).sendEvent(any());
+
+        mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content("""
+                        [{"eventType":"click","userId":"alice"},
+                         {"eventType":"click","userId":"bob"},
+                         {"eventType":"click","userId":"carol"}]"""))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"))
+                // Only the first item was taken; the client resends from the second one
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.rejected").value(0))
+                .andExpect(jsonPath("$.throttled").value(true));
+
+        verify(producerService, times(2)).sendEvent(any());
+    }
+
+    @Test
+    public void unsupportedContentTypeIsRefused() throws Exception {
+        doThrow(new AssertionError("must not be called")).when(producerService).sendEvent(any());
+
+        mockMvc.perform(post("/events/batch").contentType(MediaType.TEXT_PLAIN).content("{}"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    public void fullInFlightWindowAnswers429UntilAnAckArrives() throws Exception {
+        // Acks are held back until the test completes them
+        List<CompletableFuture<SendResult<String, EventDTO>>> acks = new ArrayList<>();
+        KafkaTemplate<String, EventDTO> template = template();
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            CompletableFuture<SendResult<String, EventDTO>> ack = new CompletableFuture<>();
+            acks.add(ack);
+            return ack;
+        });
+        MockMvc mockMvc = mockMvc(producer(template, 2));
+
+        postEvent(mockMvc, "e1").andExpect(status().isAccepted());
+        postEvent(mockMvc, "e2").andExpect(status().isAccepted());
+        postEvent(mockMvc, "e3")
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"));
+
+        // The batch endpoint sheds the same way
+        mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"eventType\":\"click\",\"userId\":\"alice\"}]"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.accepted").value(0))
+                .andExpect(jsonPath("$.throttled").value(true));
+
+        acks.get(0).complete(mock(SendResult.class));
+        postEvent(mockMvc, "e3").andExpect(status().isAccepted());
+        verify(template, times(3)).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    public void producerThatCannotSendAnswers503() throws Exception {
+        KafkaTemplate<String, EventDTO> template = template();
+        when(template.send(any(ProducerRecord.class))).thenThrow(new KafkaException("buffer full"));
+        MockMvc mockMvc = mockMvc(producer(template, 2));
+
+        postEvent(mockMvc, "e1")
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+        // The failed send gave its permit back
+        postEvent(mockMvc, "e2").andExpect(status().isServiceUnavailable());
+        postEvent(mockMvc, "e3").andExpect(status().isServiceUnavailable());
+    }
+
+    private static ResultActions postEvent(MockMvc mockMvc, String eventId) throws Exception {
+        return mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"eventType\":\"click\",\"userId\":\"alice\",\"eventId\":\"" + eventId + "\"}"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static KafkaTemplate<String, EventDTO> template() {
+        return mock(KafkaTemplate.class);
+    }
+
+    // Real producer service without spool or dedup
+    @SuppressWarnings("unchecked")
+    private static KafkaProducerService producer(KafkaTemplate<String, EventDTO> template, int maxInFlight) {
+        return new KafkaProducerService(template, "events", maxInFlight,
+                mock(ObjectProvider.class), mock(ObjectProvider.class), new SimpleMeterRegistry());
+    }
+}
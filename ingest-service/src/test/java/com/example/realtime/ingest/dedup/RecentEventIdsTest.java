@@ -0,0 +1,71 @@
+package com.example.realtime.ingest.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecentEventIdsTest {
+
+    @Test
+    public void remembersIdsForTheWindowAndForgetsThemAfter() {
+        AtomicLong now = new AtomicLong(1_700_000_000_000L);
+        // 3 generations of 30s each
+        RecentEventIds ids = new RecentEventIds(Duration.ofMinutes(1), 3, 1000, 32, now::get);
+
+        ids.add("user_1", "evt-1");
+        assertTrue(ids.mightContain("user_1", "evt-1"));
+        assertFalse(ids.mightContain("user_2", "evt-1"));
+        assertFalse(ids.mightContain("user_1", "evt-2"));
+
+        now.addAndGet(Duration.ofSeconds(60).toMillis());
+        assertTrue(ids.mightContain("user_1", "evt-1"));
+
+        now.addAndGet(Duration.ofSeconds(30).toMillis());
+        assertFalse(ids.mightContain("user_1", "evt-1"));
+    }
+
+    @Test
+    public void fullGenerationRefusesIdsUntilTheNextOne() {
+        AtomicLong now = new AtomicLong(0);
+        // 3 generations of 1s, 2 ids each
+        RecentEventIds ids = new RecentEventIds(Duration.ofSeconds(2), 3, 2, 32, now::get);
+
+        assertTrue(ids.add("user_1", "evt-1"));
+        assertEquals(0.5, ids.getSaturation());
+        assertTrue(ids.add("user_1", "evt-2"));
+        assertFalse(ids.add("user_1", "evt-3"));
+        assertFalse(ids.mightContain("user_1", "evt-3"));
+        assertEquals(1.0, ids.getSaturation());
+        assertEquals(1, ids.getRefused());
+
+        now.addAndGet(1000);
+        assertEquals(0.0, ids.getSaturation());
+        assertTrue(ids.add("user_1", "evt-3"));
+        assertTrue(ids.mightContain("user_1", "evt-1"));
+    }
+
+    @Test
+    public void falsePositivesStayRareAtTheExpectedRate() {
+        AtomicLong now = new AtomicLong(0);
+        RecentEventIds ids = new RecentEventIds(Duration.ofSeconds(30), 4, 10_000, 32, now::get);
+
+        // Every generation filled to its expected 100k ids
+        for (int i = 0; i < 400_000; i++) {
+            ids.add("user_" + (i % 1000), "evt-" + i);
+            now.addAndGet(i % 10 == 0 ? 1 : 0);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (ids.mightContain("user_" + (i % 1000), "other-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.realtime.ingest.service;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.serde.EventTimeHeader;
+import com.example.realtime.ingest.dedup.RecentEventIds;
+import com.example.realtime.ingest.spool.SegmentSpool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KafkaProducerServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, EventDTO> template = mock(KafkaTemplate.class);
+
+    // Event ids of the records handed to the template
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void duplicateIsAcceptedWithoutSendingItAgain() {
+        acks(CompletableFuture.completedFuture(mock(SendResult.class)));
+        KafkaProducerService service = service(10, new RecentEventIds(Duration.ofMinutes(1), 3, 1000, 32));
+
+        service.sendEvent(event("alice", "e1"));
+        service.sendEvent(event("alice", "e1"));
+        // Same id from another user is another event
+        service.sendEvent(event("bob", "e1"));
+
+        assertEquals(List.of("e1", "e1"), sent);
+        assertEquals(2.0, dedupChecks("unique"));
+        assertEquals(1.0, dedupChecks("duplicate"));
+    }
+
+    @Test
+    public void retryAfterA429IsNotTakenForADuplicate() {
+        CompletableFuture<SendResult<String, EventDTO>> ack = new CompletableFuture<>();
+        acks(ack);
+        KafkaProducerService service = service(1, new RecentEventIds(Duration.ofMinutes(1), 3, 1000, 32));
+
+        service.sendEvent(event("alice", "e1"));
+        IngestOverloadedException full = assertThrows(IngestOverloadedException.class,
+                () -> service.sendEvent(event("alice", "e2")));
+        assertEquals(IngestOverloadedException.Reason.IN_FLIGHT_LIMIT, full.getReason());
+
+        ack.complete(mock(SendResult.class));
+        service.sendEvent(event("alice", "e2"));
+
+        assertEquals(List.of("e1", "e2"), sent);
+    }
+
+    @Test
+    public void retryAfterA503IsNotTakenForADuplicate() {
+        when(template.send(any(ProducerRecord.class)))
+                .thenThrow(new KafkaException("metadata unavailable"))
+                .thenAnswer(invocation -> {
+                    ProducerRecord<String, EventDTO> record = invocation.getArgument(0);
+                    sent.add(record.value().getEventId());
+                    return CompletableFuture.completedFuture(mock(SendResult.class));
+                });
+        KafkaProducerService service = service(10, new RecentEventIds(Duration.ofMinutes(1), 3, 1000, 32));
+
+        IngestOverloadedException down = assertThrows(IngestOverloadedException.class,
+                () -> service.sendEvent(event("alice", "e1")));
+        assertEquals(IngestOverloadedException.Reason.BROKER_UNAVAILABLE, down.getReason());
+        assertEquals(0, service.getInFlight());
+
+        service.sendEvent(event("alice", "e1"));
+
+        assertEquals(List.of("e1"), sent);
+    }
+
+    @Test
+    public void fullFilterStopsRememberingInsteadOfDroppingNewEvents() {
+        acks(CompletableFuture.completedFuture(mock(SendResult.class)));
+        // One id per generation at most
+        KafkaProducerService service = service(10, new RecentEventIds(Duration.ofSeconds(2), 3, 1, 32));
+
+        service.sendEvent(event("alice", "e1"));
+        service.sendEvent(event("alice", "e2"));
+        // e2 was not remembered, so its retry goes through again rather than a new event being lost
+        service.sendEvent(event("alice", "e2"));
+
+        assertEquals(List.of("e1", "e2", "e2"), sent);
+        assertEquals(1.0, meterRegistry.get("ingest.dedup.saturation").gauge().value());
+        assertEquals(2.0, meterRegistry.get("ingest.dedup.refused").functionCounter().count());
+    }
+
+    @Test
+    public void recordCarriesTheClientTimeInAHeader() {
+        EventDTO event = event("alice", "e1");
+
+        ProducerRecord<String, EventDTO> record = KafkaProducerService.toRecord("events", event);
+
+        assertEquals("alice", record.key());
+        // The record timestamp is left to the producer
+        assertNull(record.timestamp());
+        assertEquals(event.getTimestamp().toEpochMilli(), EventTimeHeader.decode(record.headers()));
+    }
+
+    private void acks(CompletableFuture<SendResult<String, EventDTO>> ack) {
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            ProducerRecord<String, EventDTO> record = invocation.getArgument(0);
+            sent.add(record.value().getEventId());
+            return ack;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaProducerService service(int maxInFlight, RecentEventIds recentIds) {
+        ObjectProvider<SegmentSpool> spool = mock(ObjectProvider.class);
+        ObjectProvider<RecentEventIds> ids = mock(ObjectProvider.class);
+        when(ids.getIfAvailable()).thenReturn(recentIds);
+        return new KafkaProducerService(template, "events", maxInFlight, spool, ids, meterRegistry);
+    }
+
+    private double dedupChecks(String result) {
+        return meterRegistry.get("ingest.dedup.checks").tag("result", result).counter().count();
+    }
+
+    private static EventDTO event(String userId, String eventId) {
+        EventDTO event = new EventDTO();
+        event.setUserId(userId);
+        event.setEventId(eventId);
+        event.setEventType("click");
+        event.setTimestamp(Instant.ofEpochMilli(1_700_000_000_000L));
+        return event;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.realtime.ingest.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SegmentSpoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void drainsInAppendOrderAcrossSegments() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 256, 8)) {
+            for (int i = 0; i < 50; i++) {
+                assertTrue(spool.append(bytes("event-" + i)));
+            }
+
+            List<String> drained = drainAll(spool);
+
+            assertEquals(50, drained.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals("event-" + i, drained.get(i));
+            }
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void rewindReplaysTheUncommittedBatch() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 4096, 2)) {
+            spool.append(bytes("a"));
+            spool.append(bytes("b"));
+
+            assertEquals(2, spool.readBatch(10).size());
+            spool.rewind();
+
+            List<byte[]> retry = spool.readBatch(10);
+            assertEquals("a", new String(retry.get(0), StandardCharsets.UTF_8));
+            spool.commit(retry.size());
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsAppendsWhenAllSegmentsAreFull() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 64, 2)) {
+            int appended = 0;
+            while (spool.append(bytes("0123456789")) && appended < 100) {
+                appended++;
+            }
+            assertTrue(appended > 0 && appended < 100);
+            assertFalse(spool.append(bytes("one-more")));
+        }
+    }
+
+    @Test
+    public void replaysOnlyUncommittedRecordsAfterRestart() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 4096, 4)) {
+            for (int i = 0; i < 10; i++) {
+                spool.append(bytes("event-" + i));
+            }
+            spool.commit(spool.readBatch(4).size());
+        }
+
+        try (SegmentSpool reopened = new SegmentSpool(dir, 4096, 4)) {
+            assertEquals(6, reopened.getPending());
+            List<String> drained = drainAll(reopened);
+            assertEquals("event-4", drained.get(0));
+            assertEquals("event-9", drained.get(5));
+        }
+    }
+
+    @Test
+    public void drainedSegmentsAreRecycledInsteadOfPilingUp() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 128, 4)) {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 10; i++) {
+                    assertTrue(spool.append(bytes("round-" + round + "-" + i)));
+                }
+                drainAll(spool);
+            }
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.count() <= 4);
+        }
+    }
+
+    @Test
+    public void onlyKeysWithSpooledRecordsAreHeld() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 4096, 2)) {
+            assertFalse(spool.holds("alice"));
+            spool.append("alice", bytes("a1"));
+            spool.append("alice", bytes("a2"));
+
+            assertTrue(spool.holds("alice"));
+            assertFalse(spool.holds("bob"));
+
+            assertEquals(1, spool.readBatch(1).size());
+            spool.commit(List.of("alice"));
+            assertTrue(spool.holds("alice"));
+            spool.readBatch(10);
+            spool.commit(List.of("alice"));
+            assertFalse(spool.holds("alice"));
+        }
+    }
+
+    @Test
+    public void recoveredRecordsHoldEveryKeyUntilDrained() throws Exception {
+        try (SegmentSpool spool = new SegmentSpool(dir, 4096, 2)) {
+            spool.append("alice", bytes("a1"));
+            spool.sync();
+        }
+
+        try (SegmentSpool reopened = new SegmentSpool(dir, 4096, 2)) {
+            // The keys of records from the previous run are not known
+            assertTrue(reopened.holds("bob"));
+            reopened.append("bob", bytes("b1"));
+
+            reopened.readBatch(10);
+            reopened.commit(List.of("alice"));
+            assertTrue(reopened.holds("bob"));
+            assertFalse(reopened.holds("alice"));
+            reopened.readBatch(10);
+            reopened.commit(List.of("bob"));
+            assertFalse(reopened.holds("bob"));
+        }
+    }
+
+    private static List<String> drainAll(SegmentSpool spool) throws Exception {
+        List<String> out = new ArrayList<>();
+        while (!spool.isEmpty()) {
+            List<byte[]> batch = spool.readBatch(7);
+            for (byte[] record : batch) {
+                out.add(new String(record, StandardCharsets.UTF_8));
+            }
+            spool.commit(batch.size());
+        }
+        return out;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
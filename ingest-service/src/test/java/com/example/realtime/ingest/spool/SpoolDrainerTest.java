@@ -0,0 +1,74 @@
+package com.example.realtime.ingest.spool;
+
+import com.example.realtime.common.codec.EventCodec;
+import com.example.realtime.common.dto.EventDTO;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpoolDrainerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void replaysInOrderAndRetriesAFailedBatch() throws Exception {
+        KafkaTemplate<String, EventDTO> template = mock(KafkaTemplate.class);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            ProducerRecord<String, EventDTO> record = invocation.getArgument(0);
+            sent.add(record.value().getEventId());
+            // The broker rejects the second send of the first attempt
+            return calls.incrementAndGet() == 2
+                    ? CompletableFuture.failedFuture(new IllegalStateException("broker down"))
+                    : CompletableFuture.completedFuture(mock(SendResult.class));
+        });
+
+        try (SegmentSpool spool = new SegmentSpool(dir, 4096, 4)) {
+            for (int i = 0; i < 5; i++) {
+                String userId = i % 2 == 0 ? "alice" : "bob";
+                assertTrue(spool.append(userId, EventCodec.encode(event(userId, "e" + i))));
+            }
+            SpoolDrainer drainer = new SpoolDrainer(spool, template, "events", 3, 1000);
+            drainer.start();
+            try {
+                long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+                while (!spool.isEmpty() && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            } finally {
+                drainer.stop();
+            }
+
+            assertTrue(spool.isEmpty());
+            assertFalse(spool.holds("alice"));
+            // The failed batch is sent again as a whole before anything after it
+            assertEquals(List.of("e0", "e1", "e2", "e0", "e1", "e2", "e3", "e4"), sent);
+        }
+    }
+
+    private static EventDTO event(String userId, String eventId) {
+        EventDTO event = new EventDTO("click", userId, Instant.EPOCH, null);
+        event.setEventId(eventId);
+        return event;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.realtime.loadgen;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.serde.AggregateDeserializer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads events-aggregated directly, to time the ingest + stream processor part of the pipeline
+ * without the gateway.
+ */
+public class AggregateTap implements AutoCloseable {
+
+    private final KafkaConsumer<String, AggregateDTO> consumer;
+    private final String resolution;
+    private final Thread thread;
+    private volatile DeliveryTracker tracker;
+
+    public AggregateTap(String bootstrapServers, String resolution) {
+        this.consumer = new KafkaConsumer<>(Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                ConsumerConfig.GROUP_ID_CONFIG, "loadgen-tap",
+                ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"),
+                new StringDeserializer(), new AggregateDeserializer());
+        this.resolution = resolution;
+        this.thread = new Thread(this::pollLoop, "aggregate-tap");
+        consumer.subscribe(List.of("events-aggregated"));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Where aggregates go from now on; null drops them. */
+    public void setTracker(DeliveryTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    private void pollLoop() {
+        try {
+            while (true) {
+                for (ConsumerRecord<String, AggregateDTO> record : consumer.poll(Duration.ofMillis(100))) {
+                    AggregateDTO aggregate = record.value();
+                    DeliveryTracker current = tracker;
+                    if (current != null && aggregate != null && resolution.equals(aggregate.getResolution())) {
+                        current.onAggregate(aggregate.getMetricId(), aggregate.getWindowStart().toEpochMilli(),
+                                aggregate.getCount(), System.nanoTime());
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // closing
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        consumer.wakeup();
+        thread.join();
+    }
+}
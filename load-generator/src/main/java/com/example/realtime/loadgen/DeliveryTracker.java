@@ -0,0 +1,141 @@
+package com.example.realtime.loadgen;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Matches events to the windowed aggregates that include them, for one stage of the pipeline.
+ *
+ * Aggregates carry a cumulative count per user and window, not event ids. Windows follow the
+ * ingest service's clock, which the client cannot know exactly, so events are registered per user
+ * with their intended send time, and when the latest counts of a user's windows add up to
+ * {@code c} the user's first {@code c} events are complete (a user's events are sent, and so
+ * windowed, in order). Latency is measured from the
+ * intended send time, not from when the request actually went out, so a stalled sender or a
+ * stalled service shows up in the histogram instead of being hidden (coordinated omission).
+ */
+public class DeliveryTracker {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Predicate<String> tracksUser;
+    private final Map<String, UserEvents> users = new ConcurrentHashMap<>();
+    private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong withdrawn = new AtomicLong();
+    private volatile long lastDeliveryNanos;
+
+    /** Only events of users accepted by {@code tracksUser} are tracked. */
+    public DeliveryTracker(Predicate<String> tracksUser) {
+        this.tracksUser = tracksUser;
+    }
+
+    public void register(String userId, long intendedNanos) {
+        if (!tracksUser.test(userId)) {
+            return;
+        }
+        users.computeIfAbsent(userId, k -> new UserEvents()).add(intendedNanos);
+        registered.incrementAndGet();
+    }
+
+    /** Forgets an event the service rejected; it will never show up in an aggregate. */
+    public void withdraw(String userId, long intendedNanos) {
+        UserEvents events = users.get(userId);
+        if (events != null && events.remove(intendedNanos)) {
+            withdrawn.incrementAndGet();
+        }
+    }
+
+    /** Records every event this aggregate newly accounts for. Unknown users are ignored. */
+    public void onAggregate(String userId, long windowStart, long count, long nowNanos) {
+        UserEvents events = users.get(userId);
+        if (events == null) {
+            return;
+        }
+        int matched = events.match(windowStart, count, nowNanos, latency);
+        if (matched > 0) {
+            delivered.addAndGet(matched);
+            lastDeliveryNanos = nowNanos;
+        }
+    }
+
+    public long pending() {
+        return registered.get() - delivered.get() - withdrawn.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getLastDeliveryNanos() {
+        return lastDeliveryNanos;
+    }
+
+    /** Latency in microseconds. */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    // Intended send times of one user's events not yet seen in an aggregate, oldest first, and the
+    // latest count seen per window
+    private static final class UserEvents {
+        private final Map<Long, Long> windowCounts = new HashMap<>();
+        private long[] times = new long[8];
+        private int head;
+        private int tail;
+        private long consumed;
+
+        synchronized void add(long intendedNanos) {
+            if (tail == times.length) {
+                if (head > 0) {
+                    System.arraycopy(times, head, times, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                } else {
+                    times = Arrays.copyOf(times, times.length * 2);
+                }
+            }
+            times[tail++] = intendedNanos;
+        }
+
+        synchronized boolean remove(long intendedNanos) {
+            for (int i = head; i < tail; i++) {
+                if (times[i] == intendedNanos) {
+                    System.arraycopy(times, i + 1, times, i, tail - i - 1);
+                    tail--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int match(long windowStart, long count, long nowNanos, Histogram latency) {
+            windowCounts.merge(windowStart, count, Math::max);
+            long total = 0;
+            for (long windowCount : windowCounts.values()) {
+                total += windowCount;
+            }
+            int matched = 0;
+            while (consumed < total && head < tail) {
+                long micros = TimeUnit.NANOSECONDS.toMicros(nowNanos - times[head++]);
+                latency.recordValue(Math.min(Math.max(micros, 0), HIGHEST_TRACKABLE_MICROS));
+                consumed++;
+                matched++;
+            }
+            if (head == tail) {
+                head = 0;
+                tail = 0;
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.realtime.loadgen;
+
+import com.example.realtime.gateway.WebsocketGatewayApplication;
+import com.example.realtime.ingest.IngestServiceApplication;
+import com.example.realtime.processor.StreamProcessorApplication;
+import com.example.realtime.processor.config.StreamsProperties;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.util.FileSystemUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single-broker Kafka, a Redis and the three services, all in this JVM.
+ *
+ * Every service runs in its own Spring context started from its own application.yml (they all
+ * sit at the classpath root, so each is located through the service's jar), with random HTTP
+ * ports and the connection settings pointed at the embedded infrastructure.
+ */
+public class EmbeddedStack implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedStack.class);
+
+    private final List<ConfigurableApplicationContext> services = new ArrayList<>();
+    private EmbeddedKafkaBroker kafka;
+    private RedisServer redisServer;
+    private Path stateDir;
+    private ConfigurableApplicationContext ingest;
+    private ConfigurableApplicationContext processor;
+    private ConfigurableApplicationContext gateway;
+
+    public static EmbeddedStack start(LoadOptions options) throws IOException {
+        EmbeddedStack stack = new EmbeddedStack();
+        try {
+            stack.startAll(options);
+            return stack;
+        } catch (RuntimeException | IOException e) {
+            stack.close();
+            throw e;
+        }
+    }
+
+    private void startAll(LoadOptions options) throws IOException {
+        // 1. Kafka; everything else the services write is auto-created with the same partition count
+        kafka = new EmbeddedKafkaKraftBroker(1, options.getPartitions(), "events", "events-aggregated");
+        kafka.afterPropertiesSet();
+        String bootstrap = kafka.getBrokersAsString();
+        log.info("Kafka started at {}", bootstrap);
+
+        // 2. Redis
+        String redisHost = "localhost";
+        int redisPort;
+        if (options.getRedis() != null) {
+            String[] hostPort = options.getRedis().split(":");
+            redisHost = hostPort[0];
+            redisPort = Integer.parseInt(hostPort[1]);
+        } else {
+            redisPort = freePort();
+            redisServer = new RedisServer(redisPort);
+            redisServer.start();
+            log.info("Redis started on port {}", redisPort);
+        }
+
+        // 3. Services, upstream first
+        stateDir = Files.createTempDirectory("loadgen-streams");
+        List<String> common = List.of(
+                "--server.port=0",
+                "--spring.kafka.bootstrap-servers=" + bootstrap,
+                "--spring.data.redis.host=" + redisHost,
+                "--spring.data.redis.port=" + redisPort,
+                "--logging.level.root=WARN",
+                // The processor's JDBC dependencies are on every service's classpath here. The sink
+                // is off by default; --processor.app.sink.enabled=true
+                // --processor.spring.autoconfigure.exclude= turns it on against a running Postgres
+                "--spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration",
+                // Separate registries; the global one would mix the three services' meters
+                "--management.metrics.use-global-registry=false");
+
+        ingest = startService(IngestServiceApplication.class, common, options.getIngestArgs());
+        processor = startService(StreamProcessorApplication.class, common, concat(List.of(
+                "--spring.kafka.consumer.bootstrap-servers=" + bootstrap,
+                "--app.streams.bootstrap-servers=" + bootstrap,
+                "--app.streams.properties[state.dir]=" + stateDir,
+                "--app.sink.enabled=false"),
+                options.getProcessorArgs()));
+        gateway = startService(WebsocketGatewayApplication.class, common, concat(List.of(
+                "--spring.kafka.consumer.bootstrap-servers=" + bootstrap,
+                "--app.gateway.node-id=loadgen-gateway"),
+                options.getGatewayArgs()));
+    }
+
+    private ConfigurableApplicationContext startService(Class<?> application, List<String> common, List<String> overrides) {
+        List<String> args = new ArrayList<>();
+        args.add("--spring.config.location=" + configLocation(application));
+        args.addAll(common);
+        args.addAll(overrides);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(application)
+                .logStartupInfo(false)
+                .registerShutdownHook(false)
+                .run(args.toArray(String[]::new));
+        services.add(context);
+        log.info("{} started on port {}", application.getSimpleName(), port(context));
+        return context;
+    }
+
+    public URI getIngestUri() {
+        return URI.create("http://localhost:" + port(ingest) + "/events");
+    }
+
+    public URI getGatewayUri() {
+        return URI.create("ws://localhost:" + port(gateway) + "/ws/events");
+    }
+
+    public String getKafkaBootstrap() {
+        return kafka.getBrokersAsString();
+    }
+
+    public StreamsProperties.Aggregation getAggregation() {
+        return processor.getBean(StreamsProperties.class).getAggregation();
+    }
+
+    /** Records the processor skipped so far, mostly events that arrived after their window closed. */
+    public double getProcessorDroppedRecords() {
+        double dropped = 0;
+        for (Meter meter : processor.getBean(MeterRegistry.class).find("kafka.stream.task.dropped.records.total").meters()) {
+            for (Measurement measurement : meter.measure()) {
+                dropped += measurement.getValue();
+            }
+        }
+        return dropped;
+    }
+
+    @Override
+    public void close() {
+        // Downstream first, so nothing is left consuming from a broker that is gone
+        for (int i = services.size() - 1; i >= 0; i--) {
+            try {
+                services.get(i).close();
+            } catch (RuntimeException e) {
+                log.warn("Failed to stop service", e);
+            }
+        }
+        try {
+            if (redisServer != null) {
+                redisServer.stop();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to stop Redis", e);
+        }
+        if (kafka != null) {
+            kafka.destroy();
+        }
+        if (stateDir != null) {
+            try {
+                FileSystemUtils.deleteRecursively(stateDir);
+            } catch (IOException e) {
+                log.warn("Failed to delete {}", stateDir, e);
+            }
+        }
+    }
+
+    // Every service has an application.yml at its classpath root; pick the one in its own jar
+    private static String configLocation(Class<?> application) {
+        String location = application.getProtectionDomain().getCodeSource().getLocation().toExternalForm();
+        return location.endsWith(".jar") ? "jar:" + location + "!/application.yml" : location + "application.yml";
+    }
+
+    private static int port(ConfigurableApplicationContext context) {
+        return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+}
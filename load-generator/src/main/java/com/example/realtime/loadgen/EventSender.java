@@ -0,0 +1,146 @@
+package com.example.realtime.loadgen;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP driver for the ingest service.
+ *
+ * Request {@code i} is due at {@code start + i / rate} whatever happened to the earlier ones;
+ * requests are sent asynchronously and the sender only waits when {@code maxInFlight} are
+ * outstanding. Every latency (ingest response here, downstream deliveries in the trackers) is
+ * measured from the due time, so time spent waiting to send counts against the system.
+ */
+public class EventSender {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final URI ingestUri;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    public EventSender(URI ingestUri, int maxInFlight) {
+        this.ingestUri = ingestUri;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /** One run of the sender; everything a report needs about the ingest stage. */
+    public static class Result {
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private long sent;
+        private long maxSendLagNanos;
+        private long elapsedNanos;
+
+        public Histogram getLatency() { return latency; }
+        public long getAccepted() { return accepted.get(); }
+        public long getRejected() { return rejected.get(); }
+        public long getFailed() { return failed.get(); }
+        public long getSent() { return sent; }
+        public long getMaxSendLagNanos() { return maxSendLagNanos; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    /**
+     * Sends at {@code rate} events/s for {@code duration} and waits for the last response.
+     * Each event is registered with the trackers before it is sent and withdrawn if rejected.
+     */
+    public Result run(int rate, Duration duration, Workload workload, Random random,
+                      List<DeliveryTracker> trackers) throws InterruptedException {
+        Result result = new Result();
+        long total = rate * duration.toSeconds();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+        long startNanos = System.nanoTime();
+
+        for (long i = 0; i < total; i++) {
+            long intendedNanos = startNanos + (long) (i * intervalNanos);
+            long wait = intendedNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String userId = workload.nextUser(random);
+            // Stamped when it is actually sent, like a client would. Windows follow the ingest
+            // service's clock; this only feeds the gateway's end-to-end latency.
+            EventDTO event = new EventDTO(workload.nextEventType(random), userId, Instant.now(),
+                    Map.of("value", random.nextInt(1000)));
+            HttpRequest request = HttpRequest.newBuilder(ingestUri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(event)))
+                    .build();
+
+            for (DeliveryTracker tracker : trackers) {
+                tracker.register(userId, intendedNanos);
+            }
+            inFlight.acquire();
+            result.maxSendLagNanos = Math.max(result.maxSendLagNanos, System.nanoTime() - intendedNanos);
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                inFlight.release();
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+                result.latency.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+                if (error == null && response.statusCode() / 100 == 2) {
+                    result.accepted.incrementAndGet();
+                    return;
+                }
+                if (error == null) {
+                    result.rejected.incrementAndGet(); // 429/503 load shedding
+                } else {
+                    result.failed.incrementAndGet();
+                }
+                for (DeliveryTracker tracker : trackers) {
+                    tracker.withdraw(userId, intendedNanos);
+                }
+            });
+            result.sent++;
+        }
+
+        // All permits back means every response is in
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    /** Fire-and-forget event, not tracked or measured. */
+    public void sendUntracked(String userId, String eventType) {
+        EventDTO event = new EventDTO(eventType, userId, Instant.now(), Map.of());
+        client.sendAsync(HttpRequest.newBuilder(ingestUri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(event)))
+                .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private byte[] toJson(EventDTO event) {
+        try {
+            return mapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.realtime.loadgen;
+
+import java.util.Random;
+
+/**
+ * Picks an index in {@code [0, size)}; used for user ids and event types.
+ *
+ * Specs: {@code uniform}, {@code zipf:<exponent>} (index 0 is the most frequent) and
+ * {@code hot:<fraction>} (that fraction of picks go to index 0, the rest are uniform).
+ */
+public interface KeyDistribution {
+
+    int next(Random random);
+
+    static KeyDistribution parse(String spec, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Distribution needs at least one key");
+        }
+        String[] parts = spec.split(":", 2);
+        switch (parts[0]) {
+            case "uniform":
+                return random -> random.nextInt(size);
+            case "zipf":
+                return new Zipf(size, parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0);
+            case "hot":
+                return new HotKey(size, parts.length > 1 ? Double.parseDouble(parts[1]) : 0.5);
+            default:
+                throw new IllegalArgumentException("Unknown distribution '" + spec + "' (uniform, zipf:<s>, hot:<fraction>)");
+        }
+    }
+
+    /** P(k) proportional to 1 / (k + 1)^s, sampled by binary search over the precomputed CDF. */
+    final class Zipf implements KeyDistribution {
+        private final double[] cdf;
+
+        Zipf(int size, double exponent) {
+            cdf = new double[size];
+            double sum = 0;
+            for (int k = 0; k < size; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < size; k++) {
+                cdf[k] /= sum;
+            }
+        }
+
+        @Override
+        public int next(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = cdf.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cdf[mid] < u) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    final class HotKey implements KeyDistribution {
+        private final int size;
+        private final double fraction;
+
+        HotKey(int size, double fraction) {
+            if (fraction < 0 || fraction > 1) {
+                throw new IllegalArgumentException("Hot key fraction must be in [0, 1]: " + fraction);
+            }
+            this.size = size;
+            this.fraction = fraction;
+        }
+
+        @Override
+        public int next(Random random) {
+            return size == 1 || random.nextDouble() < fraction ? 0 : 1 + random.nextInt(size - 1);
+        }
+    }
+}
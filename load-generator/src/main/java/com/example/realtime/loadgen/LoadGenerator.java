@@ -0,0 +1,215 @@
+package com.example.realtime.loadgen;
+
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.processor.config.StreamsProperties;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * End-to-end load test: HTTP ingest -> events -> stream processor -> events-aggregated ->
+ * gateway -> WebSocket clients, on an embedded stack (see {@link EmbeddedStack}).
+ *
+ * Each step sends at a fixed rate for a fixed time, then waits for the stragglers and reports,
+ * per stage, the completion rate and latency percentiles from the intended send time. A stage
+ * counts as sustaining a rate when it lost nothing and (with {@code --slo}) kept p99 under it.
+ *
+ * Stages:
+ * <ul>
+ *   <li>ingest: HTTP 2xx responses</li>
+ *   <li>processor: the event is counted in an aggregate read from events-aggregated</li>
+ *   <li>gateway: that aggregate reached a WebSocket client (only users with a session)</li>
+ * </ul>
+ * Downstream latency includes the processor's commit interval and emission interval, as in
+ * production; pass e.g. {@code --processor.app.streams.commit-interval=1s} to study them.
+ */
+public final class LoadGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final Duration DRAIN_POLL = Duration.ofMillis(500);
+    // Filler keys per partition, so every partition gets some with near certainty
+    private static final int FILLER_KEYS_PER_PARTITION = 8;
+
+    private final LoadOptions options;
+    private final EmbeddedStack stack;
+    private final String resolution;
+    private final EventSender sender;
+    private final Random random;
+
+    private LoadGenerator(LoadOptions options, EmbeddedStack stack) {
+        this.options = options;
+        this.stack = stack;
+        StreamsProperties.Aggregation aggregation = stack.getAggregation();
+        this.resolution = aggregation.getResolution();
+        this.sender = new EventSender(stack.getIngestUri(), options.getMaxInFlight());
+        this.random = new Random(options.getSeed());
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        try (EmbeddedStack stack = EmbeddedStack.start(options)) {
+            new LoadGenerator(options, stack).run();
+        }
+    }
+
+    private void run() throws Exception {
+        try (AggregateTap tap = new AggregateTap(stack.getKafkaBootstrap(), resolution)) {
+            if (!options.getWarmup().isZero()) {
+                log.info("Warming up at {} events/s for {}", options.getRates().get(0), options.getWarmup());
+                runStep(tap, "warmup", options.getRates().get(0), options.getWarmup());
+            }
+            List<StepReport> reports = new ArrayList<>();
+            for (int i = 0; i < options.getRates().size(); i++) {
+                int rate = options.getRates().get(i);
+                log.info("Step {}: {} events/s for {}", i + 1, rate, options.getDuration());
+                StepReport report = runStep(tap, "s" + (i + 1), rate, options.getDuration());
+                reports.add(report);
+                report.print();
+            }
+            printSummary(reports);
+        }
+    }
+
+    private StepReport runStep(AggregateTap tap, String name, int rate, Duration duration) throws Exception {
+        // Fresh user ids per step, so aggregates never count events of an earlier step
+        Workload workload = new Workload("lg-" + name + "-u", options);
+        List<String> wsUsers = IntStream.range(0, options.getWsUsers()).mapToObj(workload::userId).toList();
+        Set<String> wsUserSet = Set.copyOf(wsUsers);
+        DeliveryTracker processor = new DeliveryTracker(userId -> true);
+        DeliveryTracker gateway = new DeliveryTracker(wsUserSet::contains);
+
+        tap.setTracker(processor);
+        try (WebSocketClients clients = new WebSocketClients(gateway, resolution)) {
+            clients.connect(stack.getGatewayUri(), wsUsers,
+                    ClientProtocol.valueOf(options.getWsFormat().toUpperCase(Locale.ROOT)), options.getWsBatchMs());
+
+            double droppedBefore = stack.getProcessorDroppedRecords();
+            long startNanos = System.nanoTime();
+            EventSender.Result ingest = sender.run(rate, duration, workload, random,
+                    List.of(processor, gateway));
+
+            // Rate-limited emission runs on stream time, which only moves when records arrive, so
+            // keep a trickle of untracked events going until the last tracked ones come out
+            long deadline = System.nanoTime() + options.getDrainTimeout().toNanos();
+            while ((processor.pending() > 0 || gateway.pending() > 0) && System.nanoTime() < deadline) {
+                for (int i = 0; i < options.getPartitions() * FILLER_KEYS_PER_PARTITION; i++) {
+                    sender.sendUntracked("lg-filler-" + i, options.getEventTypes().get(0));
+                }
+                Thread.sleep(DRAIN_POLL.toMillis());
+            }
+            long lateDropped = Math.round(stack.getProcessorDroppedRecords() - droppedBefore);
+            return new StepReport(name, rate, startNanos, ingest, processor, gateway, clients, lateDropped);
+        } finally {
+            tap.setTracker(null);
+        }
+    }
+
+    private void printSummary(List<StepReport> reports) {
+        System.out.println();
+        System.out.println("Highest sustained rate (events/s)" + (options.getSlo().isZero() ? ""
+                : ", p99 <= " + options.getSlo().toMillis() + " ms") + ":");
+        for (Stage stage : Stage.values()) {
+            int best = 0;
+            for (StepReport report : reports) {
+                if (report.sustained(stage, options.getSlo())) {
+                    best = Math.max(best, report.rate);
+                }
+            }
+            System.out.printf(Locale.ROOT, "  %-10s %s%n", stage.label, best > 0 ? best : "none of the steps");
+        }
+    }
+
+    private enum Stage {
+        INGEST("ingest"), PROCESSOR("processor"), GATEWAY("gateway");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class StepReport {
+        private final String name;
+        private final int rate;
+        private final long startNanos;
+        private final EventSender.Result ingest;
+        private final DeliveryTracker processor;
+        private final DeliveryTracker gateway;
+        private final long frames;
+        private final long closedSessions;
+        private final long lateDropped;
+
+        StepReport(String name, int rate, long startNanos, EventSender.Result ingest,
+                   DeliveryTracker processor, DeliveryTracker gateway, WebSocketClients clients, long lateDropped) {
+            this.name = name;
+            this.rate = rate;
+            this.startNanos = startNanos;
+            this.ingest = ingest;
+            this.processor = processor;
+            this.gateway = gateway;
+            this.frames = clients.getFrames();
+            this.closedSessions = clients.getClosedByServer();
+            this.lateDropped = lateDropped;
+        }
+
+        // Events the processor skipped as too late for their window (grace) are never delivered;
+        // that is its configuration, not a throughput limit, so they do not count against a stage
+        boolean sustained(Stage stage, Duration slo) {
+            boolean complete;
+            Histogram latency;
+            switch (stage) {
+                case INGEST -> {
+                    complete = ingest.getAccepted() == ingest.getSent();
+                    latency = ingest.getLatency();
+                }
+                case PROCESSOR -> {
+                    complete = processor.pending() <= lateDropped;
+                    latency = processor.getLatency();
+                }
+                default -> {
+                    complete = gateway.pending() <= lateDropped && closedSessions == 0;
+                    latency = gateway.getLatency();
+                }
+            }
+            return complete && (slo.isZero() || latency.getValueAtPercentile(99) <= TimeUnit.NANOSECONDS.toMicros(slo.toNanos()));
+        }
+
+        void print() {
+            System.out.println();
+            System.out.printf(Locale.ROOT, "Step %s: target %d events/s, sent %d (max send lag %.1f ms)%n", name, rate,
+                    ingest.getSent(), ingest.getMaxSendLagNanos() / 1e6);
+            System.out.printf(Locale.ROOT, "  %-10s %12s %9s %9s %9s %9s %9s  %s%n",
+                    "stage", "events/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "not completed");
+            row("ingest", ingest.getAccepted(), ingest.getElapsedNanos(), ingest.getLatency(),
+                    ingest.getRejected() + " rejected, " + ingest.getFailed() + " failed");
+            row("processor", processor.getDelivered(), processor.getLastDeliveryNanos() - startNanos,
+                    processor.getLatency(), processor.pending() + " pending (" + lateDropped + " dropped as late)");
+            row("gateway", gateway.getDelivered(), gateway.getLastDeliveryNanos() - startNanos,
+                    gateway.getLatency(), gateway.pending() + " pending, " + frames + " frames, "
+                            + closedSessions + " sessions closed");
+        }
+
+        private static void row(String stage, long completed, long elapsedNanos, Histogram latency, String notes) {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            System.out.printf(Locale.ROOT, "  %-10s %12.0f %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                    stage, completed / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0,
+                    latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getValueAtPercentile(99.9) / 1000.0,
+                    latency.getMaxValue() / 1000.0,
+                    notes);
+        }
+    }
+}
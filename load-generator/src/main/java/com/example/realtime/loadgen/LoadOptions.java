@@ -0,0 +1,122 @@
+package com.example.realtime.loadgen;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line options, all {@code --name=value}.
+ *
+ * <pre>
+ *   --rates=1000,5000      target events/s, one step per rate
+ *   --duration=30s         length of each step
+ *   --warmup=10s           unreported run at the first rate before the steps
+ *   --drain-timeout=60s    how long to wait for the last events of a step to come through
+ *   --users=10000          distinct users per step
+ *   --user-distribution=uniform | zipf:1.1 | hot:0.5
+ *   --event-types=click,view,purchase
+ *   --type-distribution=uniform
+ *   --max-in-flight=10000  outstanding HTTP requests before the sender waits
+ *   --ws-users=100         users (the most active ones first) with a WebSocket session
+ *   --ws-format=json | binary
+ *   --ws-batch-ms=0
+ *   --slo=0s               p99 a stage must stay under to count as sustained (0: no limit)
+ *   --partitions=4         partitions of the events and events-aggregated topics
+ *   --redis=host:port      use this Redis instead of starting one
+ *   --seed=42
+ *   --ingest.*, --processor.*, --gateway.*   passed to that service, e.g.
+ *                          --processor.app.streams.commit-interval=1s
+ * </pre>
+ */
+public class LoadOptions {
+
+    private List<Integer> rates = List.of(1000);
+    private Duration duration = Duration.ofSeconds(30);
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration drainTimeout = Duration.ofSeconds(60);
+    private int users = 10_000;
+    private String userDistribution = "uniform";
+    private List<String> eventTypes = List.of("click", "view", "purchase");
+    private String typeDistribution = "uniform";
+    private int maxInFlight = 10_000;
+    private int wsUsers = 100;
+    private String wsFormat = "json";
+    private int wsBatchMs;
+    private Duration slo = Duration.ZERO;
+    private int partitions = 4;
+    private String redis;
+    private long seed = 42;
+    private final List<String> ingestArgs = new ArrayList<>();
+    private final List<String> processorArgs = new ArrayList<>();
+    private final List<String> gatewayArgs = new ArrayList<>();
+
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got '" + arg + "'");
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            if (name.startsWith("ingest.")) {
+                options.ingestArgs.add("--" + name.substring("ingest.".length()) + "=" + value);
+                continue;
+            }
+            if (name.startsWith("processor.")) {
+                options.processorArgs.add("--" + name.substring("processor.".length()) + "=" + value);
+                continue;
+            }
+            if (name.startsWith("gateway.")) {
+                options.gatewayArgs.add("--" + name.substring("gateway.".length()) + "=" + value);
+                continue;
+            }
+            switch (name) {
+                case "rates" -> options.rates = Arrays.stream(value.split(",")).map(String::trim).map(Integer::valueOf).toList();
+                case "duration" -> options.duration = DurationStyle.detectAndParse(value);
+                case "warmup" -> options.warmup = DurationStyle.detectAndParse(value);
+                case "drain-timeout" -> options.drainTimeout = DurationStyle.detectAndParse(value);
+                case "users" -> options.users = Integer.parseInt(value);
+                case "user-distribution" -> options.userDistribution = value;
+                case "event-types" -> options.eventTypes = Arrays.stream(value.split(",")).map(String::trim).toList();
+                case "type-distribution" -> options.typeDistribution = value;
+                case "max-in-flight" -> options.maxInFlight = Integer.parseInt(value);
+                case "ws-users" -> options.wsUsers = Integer.parseInt(value);
+                case "ws-format" -> options.wsFormat = value;
+                case "ws-batch-ms" -> options.wsBatchMs = Integer.parseInt(value);
+                case "slo" -> options.slo = DurationStyle.detectAndParse(value);
+                case "partitions" -> options.partitions = Integer.parseInt(value);
+                case "redis" -> options.redis = value;
+                case "seed" -> options.seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        // Validate the specs up front rather than after the whole stack has started
+        KeyDistribution.parse(options.userDistribution, options.users);
+        KeyDistribution.parse(options.typeDistribution, options.eventTypes.size());
+        return options;
+    }
+
+    public List<Integer> getRates() { return rates; }
+    public Duration getDuration() { return duration; }
+    public Duration getWarmup() { return warmup; }
+    public Duration getDrainTimeout() { return drainTimeout; }
+    public int getUsers() { return users; }
+    public String getUserDistribution() { return userDistribution; }
+    public List<String> getEventTypes() { return eventTypes; }
+    public String getTypeDistribution() { return typeDistribution; }
+    public int getMaxInFlight() { return maxInFlight; }
+    public int getWsUsers() { return Math.min(wsUsers, users); }
+    public String getWsFormat() { return wsFormat; }
+    public int getWsBatchMs() { return wsBatchMs; }
+    public Duration getSlo() { return slo; }
+    public int getPartitions() { return partitions; }
+    public String getRedis() { return redis; }
+    public long getSeed() { return seed; }
+    public List<String> getIngestArgs() { return ingestArgs; }
+    public List<String> getProcessorArgs() { return processorArgs; }
+    public List<String> getGatewayArgs() { return gatewayArgs; }
+}
@@ -0,0 +1,144 @@
+package com.example.realtime.loadgen;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.codec.BinaryReader;
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.FrameEncoder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One WebSocket session per tracked user, feeding every aggregate frame into a tracker.
+ */
+public class WebSocketClients extends AbstractWebSocketHandler implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketClients.class);
+
+    private static final int MAX_FRAME_BYTES = 4 * 1024 * 1024;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final List<WebSocketSession> sessions = new ArrayList<>();
+    private final DeliveryTracker tracker;
+    private final String resolution;
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong closedByServer = new AtomicLong();
+    private volatile boolean closing;
+
+    public WebSocketClients(DeliveryTracker tracker, String resolution) {
+        this.tracker = tracker;
+        this.resolution = resolution;
+    }
+
+    /** Opens a session for each user and waits until all handshakes are done. */
+    public void connect(URI gatewayUri, List<String> userIds, ClientProtocol protocol, int batchMs) throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(MAX_FRAME_BYTES);
+        container.setDefaultMaxBinaryMessageBufferSize(MAX_FRAME_BYTES);
+        StandardWebSocketClient client = new StandardWebSocketClient(container);
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketProtocol(protocol.getSubprotocol());
+
+        List<CompletableFuture<WebSocketSession>> handshakes = new ArrayList<>();
+        for (String userId : userIds) {
+            URI uri = URI.create(gatewayUri + "?userId=" + userId + (batchMs > 0 ? "&batchMs=" + batchMs : ""));
+            handshakes.add(client.execute(this, headers, uri));
+        }
+        for (CompletableFuture<WebSocketSession> handshake : handshakes) {
+            sessions.add(handshake.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        long now = System.nanoTime();
+        String payload = message.getPayload();
+        if (!payload.startsWith("[")) {
+            return; // a plain notice, not aggregates
+        }
+        frames.incrementAndGet();
+        for (AggregateDTO aggregate : mapper.readValue(payload, AggregateDTO[].class)) {
+            deliver(aggregate, now);
+        }
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        long now = System.nanoTime();
+        ByteBuffer buffer = message.getPayload();
+        byte[] frame = new byte[buffer.remaining()];
+        buffer.get(frame);
+        frames.incrementAndGet();
+
+        // See FrameEncoder for the layout
+        BinaryReader in = new BinaryReader(frame);
+        if ((byte) in.readByte() != FrameEncoder.FRAME_MAGIC || in.readByte() != FrameEncoder.FRAME_VERSION) {
+            throw new IllegalArgumentException("Not an aggregate frame");
+        }
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            int length = in.readVarInt();
+            int offset = in.position();
+            deliver(AggregateCodec.decode(new BinaryReader(frame, offset, length)), now);
+            in = new BinaryReader(frame, offset + length, frame.length - offset - length);
+        }
+    }
+
+    private void deliver(AggregateDTO aggregate, long now) {
+        if (resolution.equals(aggregate.getResolution())) {
+            tracker.onAggregate(aggregate.getMetricId(), aggregate.getWindowStart().toEpochMilli(),
+                    aggregate.getCount(), now);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        if (!closing) {
+            closedByServer.incrementAndGet();
+            log.warn("Gateway closed session {}: {}", session.getUri(), status);
+        }
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public long getClosedByServer() {
+        return closedByServer.get();
+    }
+
+    @Override
+    public void close() {
+        closing = true;
+        for (WebSocketSession session : sessions) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
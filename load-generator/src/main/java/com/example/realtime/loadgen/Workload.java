@@ -0,0 +1,36 @@
+package com.example.realtime.loadgen;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Users and event types of one step. User ids carry a per-step prefix, so counts in
+ * events-aggregated never mix events of two steps.
+ */
+public class Workload {
+
+    private final String userPrefix;
+    private final KeyDistribution users;
+    private final List<String> eventTypes;
+    private final KeyDistribution types;
+
+    public Workload(String userPrefix, LoadOptions options) {
+        this.userPrefix = userPrefix;
+        this.users = KeyDistribution.parse(options.getUserDistribution(), options.getUsers());
+        this.eventTypes = options.getEventTypes();
+        this.types = KeyDistribution.parse(options.getTypeDistribution(), eventTypes.size());
+    }
+
+    /** Index 0 is the most active user under zipf and hot. */
+    public String userId(int index) {
+        return userPrefix + index;
+    }
+
+    public String nextUser(Random random) {
+        return userId(users.next(random));
+    }
+
+    public String nextEventType(Random random) {
+        return eventTypes.get(types.next(random));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.realtime.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeliveryTrackerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void aggregateCountsCompleteTheUsersOldestEvents() {
+        DeliveryTracker tracker = new DeliveryTracker(userId -> true);
+        tracker.register("u1", 0);
+        tracker.register("u1", 10 * MS);
+        tracker.register("u1", 20 * MS);
+        tracker.register("u1", 30 * MS);
+
+        tracker.onAggregate("u1", 0, 2, 100 * MS);
+        tracker.onAggregate("u1", 0, 2, 500 * MS); // re-emitted, nothing new
+        tracker.onAggregate("u2", 0, 5, 500 * MS); // unknown user
+
+        assertEquals(2, tracker.getDelivered());
+        assertEquals(2, tracker.pending());
+        // Measured from the intended send times 0 and 10 ms
+        assertEquals(100, tracker.getLatency().getMaxValue() / 1000, 1);
+        assertEquals(90, tracker.getLatency().getMinValue() / 1000, 1);
+
+        // The next window's count adds to the previous one's
+        tracker.onAggregate("u1", 60_000, 1, 200 * MS);
+        assertEquals(1, tracker.pending());
+        tracker.onAggregate("u1", 0, 3, 200 * MS);
+        assertEquals(0, tracker.pending());
+    }
+
+    @Test
+    public void withdrawnEventsAreNotWaitedFor() {
+        DeliveryTracker tracker = new DeliveryTracker("u1"::equals);
+        tracker.register("u1", 0);
+        tracker.register("u1", 10 * MS);
+        tracker.register("u2", 10 * MS); // not tracked
+
+        tracker.withdraw("u1", 0);
+        tracker.onAggregate("u1", 0, 1, 50 * MS);
+
+        assertEquals(0, tracker.pending());
+        assertEquals(40, tracker.getLatency().getMaxValue() / 1000, 1);
+    }
+}
@@ -2,8 +2,10 @@ package com.example.realtime.processor;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 
-@SpringBootApplication
+// The only database user is the optional aggregate sink, which creates its own DataSource (SinkConfig)
+@SpringBootApplication(exclude = DataSourceAutoConfiguration.class)
 public class StreamProcessorApplication {
     public static void main(String[] args) {
         SpringApplication.run(StreamProcessorApplication.class, args);
@@ -0,0 +1,65 @@
+package com.example.realtime.processor.aggregate;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.dto.DistinctUsersDTO;
+import com.example.realtime.common.dto.TopUsersDTO;
+
+import java.time.Instant;
+
+/**
+ * Turns window state (a count, a {@link WindowStats} or an {@link EventTypeSketch} array) into
+ * the DTOs that go on the output topics and out of the query API.
+ */
+public final class Aggregates {
+    private Aggregates() {}
+
+    public static AggregateDTO fromCount(String userId, long windowStart, long windowEnd, String resolution, long count) {
+        AggregateDTO agg = newAggregate(userId, windowStart, windowEnd, resolution);
+        agg.setCount(count);
+        return agg;
+    }
+
+    public static AggregateDTO fromStats(String userId, long windowStart, long windowEnd, String resolution, byte[] state) {
+        AggregateDTO agg = newAggregate(userId, windowStart, windowEnd, resolution);
+        agg.setCount(WindowStats.count(state));
+        agg.setSum(WindowStats.sum(state));
+        agg.setMax(WindowStats.max(state));
+        agg.setP50(WindowStats.quantile(state, 0.50));
+        agg.setP95(WindowStats.quantile(state, 0.95));
+        agg.setP99(WindowStats.quantile(state, 0.99));
+        return agg;
+    }
+
+    public static DistinctUsersDTO distinctUsers(String eventType, long windowStart, long windowEnd, String resolution,
+                                                 byte[] sketch) {
+        DistinctUsersDTO dto = new DistinctUsersDTO();
+        dto.setEventType(eventType);
+        dto.setResolution(resolution);
+        dto.setWindowStart(Instant.ofEpochMilli(windowStart));
+        dto.setWindowEnd(Instant.ofEpochMilli(windowEnd));
+        dto.setCount(EventTypeSketch.count(sketch));
+        dto.setDistinctUsers(EventTypeSketch.distinctUsers(sketch));
+        return dto;
+    }
+
+    public static TopUsersDTO topUsers(String eventType, long windowStart, long windowEnd, String resolution,
+                                       byte[] sketch) {
+        TopUsersDTO dto = new TopUsersDTO();
+        dto.setEventType(eventType);
+        dto.setResolution(resolution);
+        dto.setWindowStart(Instant.ofEpochMilli(windowStart));
+        dto.setWindowEnd(Instant.ofEpochMilli(windowEnd));
+        dto.setCount(EventTypeSketch.count(sketch));
+        dto.setUsers(EventTypeSketch.topUsers(sketch));
+        return dto;
+    }
+
+    private static AggregateDTO newAggregate(String userId, long windowStart, long windowEnd, String resolution) {
+        AggregateDTO agg = new AggregateDTO();
+        agg.setMetricId(userId);
+        agg.setResolution(resolution);
+        agg.setWindowStart(Instant.ofEpochMilli(windowStart));
+        agg.setWindowEnd(Instant.ofEpochMilli(windowEnd));
+        return agg;
+    }
+}
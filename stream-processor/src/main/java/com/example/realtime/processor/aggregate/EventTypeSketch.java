@@ -0,0 +1,58 @@
+package com.example.realtime.processor.aggregate;
+
+import com.example.realtime.common.dto.TopUsersDTO;
+
+import java.util.List;
+
+/**
+ * Per event type window state: a {@link HyperLogLog} of user ids followed by a
+ * {@link TopKSketch} of the most active users, in one fixed-size {@code byte[]}.
+ * Each user id is hashed once and the hash feeds both sketches.
+ */
+public final class EventTypeSketch {
+    private EventTypeSketch() {}
+
+    private static final int HLL = 0;
+    private static final int TOP_K = HLL + HyperLogLog.SIZE;
+
+    public static byte[] newState(int k) {
+        byte[] state = new byte[TOP_K + TopKSketch.size(k)];
+        TopKSketch.init(state, TOP_K, k);
+        return state;
+    }
+
+    public static byte[] add(byte[] state, String userId) {
+        long hash = hash64(userId);
+        HyperLogLog.add(state, HLL, hash);
+        TopKSketch.add(state, TOP_K, hash, userId);
+        return state;
+    }
+
+    /** Exact number of events added. */
+    public static long count(byte[] state) {
+        return TopKSketch.total(state, TOP_K);
+    }
+
+    public static long distinctUsers(byte[] state) {
+        return HyperLogLog.estimate(state, HLL);
+    }
+
+    public static List<TopUsersDTO.UserCount> topUsers(byte[] state) {
+        return TopKSketch.top(state, TOP_K);
+    }
+
+    // FNV-1a over the chars, then the murmur3 finalizer so every output bit depends on every input bit
+    static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.realtime.processor.aggregate;
+
+/**
+ * HyperLogLog distinct counter stored in a region of a {@code byte[]}.
+ *
+ * {@link #SIZE} one-byte registers (precision 12) give a standard error of about 1.6% at any
+ * cardinality, in 4 KB. Callers pass a well-mixed 64-bit hash of the item, so the same hash
+ * can also feed other sketches (see {@link EventTypeSketch}).
+ */
+public final class HyperLogLog {
+    private HyperLogLog() {}
+
+    public static final int PRECISION = 12;
+    public static final int SIZE = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / SIZE);
+
+    /** Records {@code hash} in the registers starting at {@code base}. */
+    public static void add(byte[] state, int base, long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Position of the first 1-bit in the remaining bits; the guard bit caps it at 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > state[base + index]) {
+            state[base + index] = (byte) rank;
+        }
+    }
+
+    /** Register-wise max of {@code other} into {@code target}. */
+    public static void merge(byte[] target, int targetBase, byte[] other, int otherBase) {
+        for (int i = 0; i < SIZE; i++) {
+            if (other[otherBase + i] > target[targetBase + i]) {
+                target[targetBase + i] = other[otherBase + i];
+            }
+        }
+    }
+
+    public static long estimate(byte[] state, int base) {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < SIZE; i++) {
+            int register = state[base + i];
+            sum += Double.longBitsToDouble((1023L - register) << 52); // 2^-register
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * SIZE * SIZE / sum;
+        // Small-range correction: linear counting is more accurate while registers are still empty
+        if (estimate <= 2.5 * SIZE && zeros > 0) {
+            estimate = SIZE * Math.log((double) SIZE / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
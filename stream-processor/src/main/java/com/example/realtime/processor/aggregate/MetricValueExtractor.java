@@ -0,0 +1,37 @@
+package com.example.realtime.processor.aggregate;
+
+import com.example.realtime.common.dto.EventDTO;
+
+import java.util.Map;
+
+/**
+ * Pulls the numeric value to aggregate out of {@link EventDTO#getMetadata()}.
+ *
+ * If metadata is a map, the configured field is used; if metadata itself is a number, that
+ * number is used. Numeric strings are parsed. Anything else yields NaN, meaning "no value":
+ * the event is still counted but does not affect sum, max or the quantiles.
+ */
+public final class MetricValueExtractor {
+
+    private final String field;
+
+    public MetricValueExtractor(String field) {
+        this.field = field;
+    }
+
+    public double extract(EventDTO event) {
+        Object metadata = event.getMetadata();
+        Object raw = metadata instanceof Map<?, ?> map ? map.get(field) : metadata;
+        if (raw instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (raw instanceof String text) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.realtime.processor.aggregate;
+
+import com.example.realtime.common.dto.TopUsersDTO;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Heavy-hitter sketch: a count-min sketch for per-key estimates plus a min-heap of the
+ * {@code k} keys with the highest estimates, stored in a region of a {@code byte[]}.
+ *
+ * <pre>
+ *   +0   long  total        items added
+ *   +8   int   k            heap capacity
+ *   +12  int   size         keys currently in the heap
+ *   +16  int[DEPTH*WIDTH]   count-min counters
+ *   ...  k slots of SLOT bytes: long hash, long count, short keyLength, key bytes (UTF-8)
+ * </pre>
+ *
+ * Like {@link WindowStats} the region is updated in place; adding an item allocates only when
+ * a new key enters the heap. Estimates never undercount and overcount by at most about
+ * {@code total * e / WIDTH} with high probability. Keys are identified by their 64-bit hash;
+ * keys longer than {@link #MAX_KEY_BYTES} are counted but never enter the heap.
+ */
+public final class TopKSketch {
+    private TopKSketch() {}
+
+    public static final int DEPTH = 4;
+    public static final int WIDTH = 2048;
+    public static final int MAX_KEY_BYTES = 62;
+
+    private static final int TOTAL = 0;
+    private static final int K = 8;
+    private static final int HEAP_SIZE = 12;
+    private static final int COUNTERS = 16;
+    private static final int SLOTS = COUNTERS + DEPTH * WIDTH * Integer.BYTES;
+
+    private static final int SLOT_HASH = 0;
+    private static final int SLOT_COUNT = 8;
+    private static final int SLOT_KEY_LENGTH = 16;
+    private static final int SLOT_KEY = 18;
+    private static final int SLOT = SLOT_KEY + MAX_KEY_BYTES;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    /** Bytes needed for a sketch that keeps the top {@code k} keys. */
+    public static int size(int k) {
+        return SLOTS + k * SLOT;
+    }
+
+    /** Initialises a zeroed region of {@link #size(int)} bytes at {@code base}. */
+    public static void init(byte[] state, int base, int k) {
+        INT.set(state, base + K, k);
+    }
+
+    /** Counts one occurrence of {@code key}, whose 64-bit hash is {@code hash}. */
+    public static void add(byte[] state, int base, long hash, String key) {
+        LONG.set(state, base + TOTAL, (long) LONG.get(state, base + TOTAL) + 1);
+
+        // Kirsch-Mitzenmacher: DEPTH row indexes from the two halves of one hash
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = (h1 + row * h2) & (WIDTH - 1);
+            int offset = base + COUNTERS + (row * WIDTH + column) * Integer.BYTES;
+            int counter = (int) INT.get(state, offset) + 1;
+            INT.set(state, offset, counter);
+            estimate = Math.min(estimate, counter);
+        }
+
+        int k = (int) INT.get(state, base + K);
+        int size = (int) INT.get(state, base + HEAP_SIZE);
+        for (int i = 0; i < size; i++) {
+            int slot = slot(base, i);
+            if ((long) LONG.get(state, slot + SLOT_HASH) == hash) {
+                LONG.set(state, slot + SLOT_COUNT, (long) estimate);
+                siftDown(state, base, i, size);
+                return;
+            }
+        }
+
+        if (size < k) {
+            if (writeSlot(state, slot(base, size), hash, estimate, key)) {
+                INT.set(state, base + HEAP_SIZE, size + 1);
+                siftUp(state, base, size);
+            }
+        } else if (k > 0 && estimate > (long) LONG.get(state, slot(base, 0) + SLOT_COUNT)) {
+            if (writeSlot(state, slot(base, 0), hash, estimate, key)) {
+                siftDown(state, base, 0, size);
+            }
+        }
+    }
+
+    public static long total(byte[] state, int base) {
+        return (long) LONG.get(state, base + TOTAL);
+    }
+
+    /** Keys in the heap, highest estimate first. */
+    public static List<TopUsersDTO.UserCount> top(byte[] state, int base) {
+        int size = (int) INT.get(state, base + HEAP_SIZE);
+        List<TopUsersDTO.UserCount> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int slot = slot(base, i);
+            int length = (short) SHORT.get(state, slot + SLOT_KEY_LENGTH);
+            String key = new String(state, slot + SLOT_KEY, length, StandardCharsets.UTF_8);
+            result.add(new TopUsersDTO.UserCount(key, (long) LONG.get(state, slot + SLOT_COUNT)));
+        }
+        result.sort(Comparator.comparingLong(TopUsersDTO.UserCount::getCount).reversed());
+        return result;
+    }
+
+    private static int slot(int base, int index) {
+        return base + SLOTS + index * SLOT;
+    }
+
+    private static boolean writeSlot(byte[] state, int slot, long hash, long count, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_BYTES) {
+            return false;
+        }
+        LONG.set(state, slot + SLOT_HASH, hash);
+        LONG.set(state, slot + SLOT_COUNT, count);
+        SHORT.set(state, slot + SLOT_KEY_LENGTH, (short) bytes.length);
+        System.arraycopy(bytes, 0, state, slot + SLOT_KEY, bytes.length);
+        return true;
+    }
+
+    private static long count(byte[] state, int base, int index) {
+        return (long) LONG.get(state, slot(base, index) + SLOT_COUNT);
+    }
+
+    private static void siftUp(byte[] state, int base, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (count(state, base, parent) <= count(state, base, index)) {
+                return;
+            }
+            swap(state, slot(base, parent), slot(base, index));
+            index = parent;
+        }
+    }
+
+    private static void siftDown(byte[] state, int base, int index, int size) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && count(state, base, left) < count(state, base, smallest)) {
+                smallest = left;
+            }
+            if (right < size && count(state, base, right) < count(state, base, smallest)) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(state, slot(base, index), slot(base, smallest));
+            index = smallest;
+        }
+    }
+
+    private static void swap(byte[] state, int a, int b) {
+        for (int i = 0; i < SLOT; i++) {
+            byte tmp = state[a + i];
+            state[a + i] = state[b + i];
+            state[b + i] = tmp;
+        }
+    }
+}
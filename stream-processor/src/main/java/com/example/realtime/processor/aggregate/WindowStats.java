@@ -0,0 +1,139 @@
+package com.example.realtime.processor.aggregate;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-size binary window state: count, sum, max and a log-bucketed quantile histogram.
+ *
+ * The state is a plain {@code byte[]} of {@link #SIZE} bytes that is updated in place, so the
+ * Kafka Streams aggregator can return the same array it was given: adding a record allocates
+ * nothing and never goes through Jackson. Fields are read and written through VarHandles.
+ *
+ * <pre>
+ *   0   long   count         records in the window
+ *   8   long   valueCount    records that carried a numeric value
+ *   16  double sum
+ *   24  double max
+ *   32  int[BUCKETS] histogram
+ * </pre>
+ *
+ * The histogram is a fixed-range DDSketch: bucket {@code i} covers
+ * {@code (MIN_VALUE * GAMMA^(i-1), MIN_VALUE * GAMMA^i]}, which gives about 5% relative error on
+ * any quantile between 0.001 and ~4e7. Values at or below {@link #MIN_VALUE} (including zero and
+ * negatives) land in bucket 0, larger values in the last bucket. Two states merge by adding counts.
+ */
+public final class WindowStats {
+    private WindowStats() {}
+
+    public static final int BUCKETS = 256;
+    public static final double GAMMA = 1.1;
+    public static final double MIN_VALUE = 1e-3;
+
+    private static final int COUNT = 0;
+    private static final int VALUE_COUNT = 8;
+    private static final int SUM = 16;
+    private static final int MAX = 24;
+    private static final int HISTOGRAM = 32;
+
+    public static final int SIZE = HISTOGRAM + BUCKETS * Integer.BYTES;
+
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double LOG_MIN = Math.log(MIN_VALUE);
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    public static byte[] newState() {
+        byte[] state = new byte[SIZE];
+        DOUBLE.set(state, MAX, Double.NEGATIVE_INFINITY);
+        return state;
+    }
+
+    /** Counts a record that has no numeric value. */
+    public static byte[] addCount(byte[] state) {
+        LONG.set(state, COUNT, (long) LONG.get(state, COUNT) + 1);
+        return state;
+    }
+
+    /** Counts a record and folds its value into sum, max and the histogram. */
+    public static byte[] add(byte[] state, double value) {
+        LONG.set(state, COUNT, (long) LONG.get(state, COUNT) + 1);
+        LONG.set(state, VALUE_COUNT, (long) LONG.get(state, VALUE_COUNT) + 1);
+        DOUBLE.set(state, SUM, (double) DOUBLE.get(state, SUM) + value);
+        if (value > (double) DOUBLE.get(state, MAX)) {
+            DOUBLE.set(state, MAX, value);
+        }
+        int offset = HISTOGRAM + bucketOf(value) * Integer.BYTES;
+        INT.set(state, offset, (int) INT.get(state, offset) + 1);
+        return state;
+    }
+
+    /** Adds {@code other} into {@code target} (used by rollups) and returns {@code target}. */
+    public static byte[] merge(byte[] target, byte[] other) {
+        LONG.set(target, COUNT, (long) LONG.get(target, COUNT) + (long) LONG.get(other, COUNT));
+        LONG.set(target, VALUE_COUNT, (long) LONG.get(target, VALUE_COUNT) + (long) LONG.get(other, VALUE_COUNT));
+        DOUBLE.set(target, SUM, (double) DOUBLE.get(target, SUM) + (double) DOUBLE.get(other, SUM));
+        if ((double) DOUBLE.get(other, MAX) > (double) DOUBLE.get(target, MAX)) {
+            DOUBLE.set(target, MAX, (double) DOUBLE.get(other, MAX));
+        }
+        for (int offset = HISTOGRAM; offset < SIZE; offset += Integer.BYTES) {
+            INT.set(target, offset, (int) INT.get(target, offset) + (int) INT.get(other, offset));
+        }
+        return target;
+    }
+
+    public static long count(byte[] state) {
+        return (long) LONG.get(state, COUNT);
+    }
+
+    public static long valueCount(byte[] state) {
+        return (long) LONG.get(state, VALUE_COUNT);
+    }
+
+    public static double sum(byte[] state) {
+        return (double) DOUBLE.get(state, SUM);
+    }
+
+    /** Largest value seen, or 0 when the window has no values. */
+    public static double max(byte[] state) {
+        return valueCount(state) == 0 ? 0 : (double) DOUBLE.get(state, MAX);
+    }
+
+    /** Estimated {@code q}-quantile (0..1) of the values, or 0 when there are none. */
+    public static double quantile(byte[] state, double q) {
+        long total = valueCount(state);
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += (int) INT.get(state, HISTOGRAM + i * Integer.BYTES);
+            if (seen >= Math.max(rank, 1)) {
+                // Never report more than the exact max
+                return Math.min(bucketValue(i), max(state));
+            }
+        }
+        return max(state);
+    }
+
+    static int bucketOf(double value) {
+        if (!(value > MIN_VALUE)) {
+            return 0; // also catches NaN
+        }
+        int index = (int) Math.ceil((Math.log(value) - LOG_MIN) / LOG_GAMMA);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /** Representative value of a bucket: the point with equal relative error to both bounds. */
+    static double bucketValue(int index) {
+        if (index == 0) {
+            return MIN_VALUE;
+        }
+        double upper = MIN_VALUE * Math.pow(GAMMA, index);
+        return upper * 2 / (1 + GAMMA);
+    }
+}
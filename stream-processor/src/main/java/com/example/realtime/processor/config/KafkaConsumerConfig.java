@@ -0,0 +1,57 @@
+package com.example.realtime.processor.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.ExponentialBackOff;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class KafkaConsumerConfig {
+
+    // Batch listeners get a whole poll at once and acknowledge it themselves,
+    // so offsets are only committed after the Redis flush for that poll succeeded.
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> kafkaConsumerFactory,
+            @Value("${app.consumer.retry.initial-interval:100ms}") Duration initialRetry,
+            @Value("${app.consumer.retry.max-interval:10s}") Duration maxRetry) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.setCommonErrorHandler(retryingErrorHandler(initialRetry, maxRetry));
+        return factory;
+    }
+
+    // A failed flush is retried (the consumer stays paused) until Redis takes it. The default
+    // handler would give up after ten attempts, skip the batch and lose its deltas; the offset
+    // guard in the flush script makes retrying a batch safe.
+    public static DefaultErrorHandler retryingErrorHandler(Duration initialRetry, Duration maxRetry) {
+        ExponentialBackOff backOff = new ExponentialBackOff(initialRetry.toMillis(), 2.0);
+        backOff.setMaxInterval(maxRetry.toMillis());
+        return new DefaultErrorHandler(backOff);
+    }
+
+    // INCRBY + PUBLISH for every key of a partition's share of a batch in one round trip (see scripts/flush-stats.lua)
+    @SuppressWarnings("rawtypes")
+    @Bean
+    public RedisScript<List> flushStatsScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/flush-stats.lua")));
+        script.setResultType(List.class);
+        return script;
+    }
+}
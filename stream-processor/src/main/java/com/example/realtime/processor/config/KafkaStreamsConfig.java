@@ -2,42 +2,77 @@ package com.example.realtime.processor.config;
 
 import com.example.realtime.common.dto.EventDTO;
 import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.serde.AggregateSerde;
+import com.example.realtime.common.serde.EventSerde;
+import com.example.realtime.common.serde.WireFormat;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.common.serialization.Serde;
-import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.state.HostInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafkaStreams;
 import org.springframework.kafka.config.KafkaStreamsConfiguration;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerde;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
 @EnableKafkaStreams
+@EnableConfigurationProperties(StreamsProperties.class)
 public class KafkaStreamsConfig {
 
-    @Bean(name = "eventJsonSerde")
-    public Serde<EventDTO> eventJsonSerde() {
-        JsonSerde<EventDTO> serde = new JsonSerde<>(EventDTO.class);
-        return serde;
+    // Output format for everything the topology writes; reading accepts JSON and binary either way
+    @Value("${" + WireFormat.PROPERTY + ":json}")
+    private WireFormat serdeFormat;
+
+    @Bean(name = "eventSerde")
+    public Serde<EventDTO> eventSerde() {
+        return new EventSerde(serdeFormat);
+    }
+
+    @Bean(name = "aggregateSerde")
+    public Serde<AggregateDTO> aggregateSerde() {
+        return new AggregateSerde(serdeFormat);
     }
 
-    @Bean(name = "aggregateJsonSerde")
-    public Serde<AggregateDTO> aggregateJsonSerde() {
-        JsonSerde<AggregateDTO> serde = new JsonSerde<>(AggregateDTO.class);
-        return serde;
+    /**
+     * Host and port other instances use to forward interactive queries to this one. Every instance
+     * advertises its own {@code app.query.advertised-host}; left empty, the address this machine
+     * resolves its own name to.
+     */
+    @Bean
+    public HostInfo queryHost(@Value("${app.query.advertised-host:}") String advertisedHost,
+                              @Value("${server.port:8080}") int port) {
+        if (!advertisedHost.isBlank()) {
+            return new HostInfo(advertisedHost, port);
+        }
+        try {
+            return new HostInfo(InetAddress.getLocalHost().getHostAddress(), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Cannot resolve this host's address; set app.query.advertised-host", e);
+        }
     }
 
     @Bean(name = "defaultKafkaStreamsConfig")
-    public KafkaStreamsConfiguration defaultKafkaStreamsConfig() {
+    public KafkaStreamsConfiguration defaultKafkaStreamsConfig(StreamsProperties properties, HostInfo queryHost) {
         Map<String, Object> props = new HashMap<>();
-        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
-        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "stream-processor-streams-app");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, properties.getBootstrapServers());
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, properties.getApplicationId());
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(StreamsConfig.APPLICATION_SERVER_CONFIG, queryHost.host() + ":" + queryHost.port());
+
+        // Threading and state: scale up with threads, out with instances (standbys for failover)
+        props.put(StreamsConfig.NUM_STREAM_THREADS_CONFIG, properties.getNumStreamThreads());
+        props.put(StreamsConfig.NUM_STANDBY_REPLICAS_CONFIG, properties.getNumStandbyReplicas());
+        props.put(StreamsConfig.STATESTORE_CACHE_MAX_BYTES_CONFIG, properties.getCacheMaxBytes());
+        props.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, properties.getCommitInterval().toMillis());
+
+        props.putAll(properties.getProperties());
         return new KafkaStreamsConfiguration(props);
     }
 }
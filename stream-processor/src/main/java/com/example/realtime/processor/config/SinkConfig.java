@@ -0,0 +1,86 @@
+package com.example.realtime.processor.config;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.serde.AggregateDeserializer;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.util.backoff.ExponentialBackOff;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Consumer side of the Postgres aggregate sink, and its DataSource. Off unless
+ * {@code app.sink.enabled=true}: DataSourceAutoConfiguration is excluded (see
+ * StreamProcessorApplication), so without the sink there is no pool and no db health check.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sink.enabled", havingValue = "true")
+public class SinkConfig {
+
+    private static final long MIN_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 10_000;
+
+    // Bound from spring.datasource.*, as the auto-configuration would
+    @Bean
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties sinkDataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource sinkDataSource(DataSourceProperties sinkDataSourceProperties) {
+        return sinkDataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // One poll is one write. The broker holds a fetch until min-batch-bytes are available or
+    // flush-interval has passed, so batches are large under load and still flushed on time when
+    // the topics are quiet. Offsets are committed only after the listener returned, i.e. once
+    // the rows are in Postgres, and a consumer does not poll again while its write is running:
+    // a slow database slows the sink down instead of piling records up in memory.
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, AggregateDTO> sinkKafkaListenerContainerFactory(
+            KafkaProperties kafkaProperties,
+            @Value("${app.sink.batch-size:5000}") int batchSize,
+            @Value("${app.sink.flush-interval:1s}") Duration flushInterval,
+            @Value("${app.sink.min-batch-bytes:1048576}") int minBatchBytes,
+            @Value("${app.sink.writers:2}") int writers) {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties(null);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, AggregateDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchSize);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, minBatchBytes);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, (int) flushInterval.toMillis());
+        // A new sink starts with all the history still retained in the topics
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+        ConcurrentKafkaListenerContainerFactory<String, AggregateDTO> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setBatchListener(true);
+        // Writers split the partitions between them; more writers than partitions just idle
+        factory.setConcurrency(writers);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+
+        // A failed write is retried (the consumer stays paused) until it succeeds; upserts are
+        // idempotent, so retrying a partly written batch is safe
+        ExponentialBackOff backOff = new ExponentialBackOff(MIN_RETRY_MS, 2.0);
+        backOff.setMaxInterval(MAX_RETRY_MS);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(backOff));
+        return factory;
+    }
+}
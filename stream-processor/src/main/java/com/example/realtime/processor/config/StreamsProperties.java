@@ -0,0 +1,224 @@
+package com.example.realtime.processor.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings for the Kafka Streams topology, bound from {@code app.streams.*} in application.yml.
+ */
+@ConfigurationProperties(prefix = "app.streams")
+public class StreamsProperties {
+
+    private String applicationId = "stream-processor-streams-app";
+    private String bootstrapServers = "localhost:9092";
+    // Tasks (one per input partition) are spread over these threads; more threads than
+    // partitions across all instances just idle
+    private int numStreamThreads = 1;
+    // Warm copies of each store on other instances, for fast failover
+    private int numStandbyReplicas = 0;
+    // Record cache shared by all threads; larger values absorb more updates per key before
+    // they reach the store and downstream
+    private long cacheMaxBytes = 10L * 1024 * 1024;
+    // How often offsets are committed and the cache flushed
+    private Duration commitInterval = Duration.ofSeconds(30);
+    // Any other StreamsConfig entries, passed through as-is
+    private Map<String, String> properties = new HashMap<>();
+
+    private Aggregation aggregation = new Aggregation();
+    // Coarser resolutions, each built from the closed windows of the previous entry
+    private List<Rollup> rollups = new ArrayList<>();
+    private ClosedWindows closedWindows = new ClosedWindows();
+    private Sketches sketches = new Sketches();
+
+    public String getApplicationId() { return applicationId; }
+    public void setApplicationId(String applicationId) { this.applicationId = applicationId; }
+    public String getBootstrapServers() { return bootstrapServers; }
+    public void setBootstrapServers(String bootstrapServers) { this.bootstrapServers = bootstrapServers; }
+    public int getNumStreamThreads() { return numStreamThreads; }
+    public void setNumStreamThreads(int numStreamThreads) { this.numStreamThreads = numStreamThreads; }
+    public int getNumStandbyReplicas() { return numStandbyReplicas; }
+    public void setNumStandbyReplicas(int numStandbyReplicas) { this.numStandbyReplicas = numStandbyReplicas; }
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+    public void setCacheMaxBytes(long cacheMaxBytes) { this.cacheMaxBytes = cacheMaxBytes; }
+    public Duration getCommitInterval() { return commitInterval; }
+    public void setCommitInterval(Duration commitInterval) { this.commitInterval = commitInterval; }
+    public Map<String, String> getProperties() { return properties; }
+    public void setProperties(Map<String, String> properties) { this.properties = properties; }
+    public Aggregation getAggregation() { return aggregation; }
+    public void setAggregation(Aggregation aggregation) { this.aggregation = aggregation; }
+    public List<Rollup> getRollups() { return rollups; }
+    public void setRollups(List<Rollup> rollups) { this.rollups = rollups; }
+    public ClosedWindows getClosedWindows() { return closedWindows; }
+    public void setClosedWindows(ClosedWindows closedWindows) { this.closedWindows = closedWindows; }
+    public Sketches getSketches() { return sketches; }
+    public void setSketches(Sketches sketches) { this.sketches = sketches; }
+
+    public enum AggregationMode {
+        // Event count per user per window (the original topology)
+        COUNT,
+        // Count, sum, max and p50/p95/p99 of a numeric metadata field
+        STATS
+    }
+
+    public enum GroupingMode {
+        // groupBy(userId): every event goes through a repartition topic
+        REPARTITION,
+        // Events already keyed by userId (as ingest-service sends them) are grouped in place;
+        // only records with a different key are repartitioned
+        BY_KEY
+    }
+
+    public enum StoreType {
+        // Kafka Streams' default persistent store
+        ROCKSDB,
+        // Kafka Streams' built-in in-memory store (skip-list per window)
+        IN_MEMORY,
+        // PrimitiveWindowStore: open-addressing table per window, whole-window eviction
+        PRIMITIVE
+    }
+
+    public enum EmissionMode {
+        // Every update of a window is forwarded (subject to record caching)
+        ON_UPDATE,
+        // One result per key and window, once the window has closed (size + grace)
+        FINAL,
+        // At most one update per key per interval (measured in stream time)
+        RATE_LIMITED,
+        // The first record of each window, then every K-th record. Turns the record cache off for
+        // the output's window store, since the cache would hide most counts. Base aggregation and
+        // sketches only: rollups grow by whole lower-level windows, not one record at a time.
+        EVERY_K
+    }
+
+    public static class Aggregation {
+        private AggregationMode mode = AggregationMode.COUNT;
+        private GroupingMode grouping = GroupingMode.REPARTITION;
+        // Metadata field holding the value for STATS mode
+        private String valueField = "value";
+        // Base window, published to events-aggregated under this resolution name
+        private String resolution = "1m";
+        private Duration windowSize = Duration.ofMinutes(1);
+        // How long a window accepts out-of-order records after it ends
+        private Duration grace = Duration.ZERO;
+        // How long closed windows stay queryable in the state store
+        private Duration retention = Duration.ofDays(1);
+        private StoreType storeType = StoreType.ROCKSDB;
+        private Emission emission = new Emission();
+
+        public AggregationMode getMode() { return mode; }
+        public void setMode(AggregationMode mode) { this.mode = mode; }
+        public GroupingMode getGrouping() { return grouping; }
+        public void setGrouping(GroupingMode grouping) { this.grouping = grouping; }
+        public String getValueField() { return valueField; }
+        public void setValueField(String valueField) { this.valueField = valueField; }
+        public String getResolution() { return resolution; }
+        public void setResolution(String resolution) { this.resolution = resolution; }
+        public Duration getWindowSize() { return windowSize; }
+        public void setWindowSize(Duration windowSize) { this.windowSize = windowSize; }
+        public Duration getGrace() { return grace; }
+        public void setGrace(Duration grace) { this.grace = grace; }
+        public Duration getRetention() { return retention; }
+        public void setRetention(Duration retention) { this.retention = retention; }
+        public StoreType getStoreType() { return storeType; }
+        public void setStoreType(StoreType storeType) { this.storeType = storeType; }
+        public Emission getEmission() { return emission; }
+        public void setEmission(Emission emission) { this.emission = emission; }
+    }
+
+    /** One rollup level, e.g. 1h from 1m windows or 1d from 1h windows. */
+    public static class Rollup {
+        // Resolution name, also used for the state store ("rollup-<name>")
+        private String name;
+        private Duration windowSize;
+        // Defaults to the window size of the level below when not set
+        private Duration grace;
+        private Duration retention = Duration.ofDays(7);
+        private StoreType storeType = StoreType.ROCKSDB;
+        private String topic;
+        // Any mode but EVERY_K
+        private Emission emission = new Emission();
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public Duration getWindowSize() { return windowSize; }
+        public void setWindowSize(Duration windowSize) { this.windowSize = windowSize; }
+        public Duration getGrace() { return grace; }
+        public void setGrace(Duration grace) { this.grace = grace; }
+        public Duration getRetention() { return retention; }
+        public void setRetention(Duration retention) { this.retention = retention; }
+        public StoreType getStoreType() { return storeType; }
+        public void setStoreType(StoreType storeType) { this.storeType = storeType; }
+        public String getTopic() { return topic; }
+        public void setTopic(String topic) { this.topic = topic; }
+        public Emission getEmission() { return emission; }
+        public void setEmission(Emission emission) { this.emission = emission; }
+    }
+
+    /**
+     * One record per key and closed window, for the base aggregation and every rollup, on a single
+     * topic (the resolution is in the record). Read by the Postgres sink. Off by default: it holds
+     * every open window of the last level in a suppression buffer.
+     */
+    public static class ClosedWindows {
+        private boolean enabled = false;
+        private String topic = "events-aggregated-closed";
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getTopic() { return topic; }
+        public void setTopic(String topic) { this.topic = topic; }
+    }
+
+    /**
+     * Distinct users (HyperLogLog) and top users (count-min + heap) per event type, on the base
+     * window. Off by default: it adds a repartition by event type.
+     */
+    public static class Sketches {
+        private boolean enabled = false;
+        // Users kept per event type and window
+        private int topK = 100;
+        // Each window's sketch is ~45 KB at topK=100, so keep them for less time than the counts
+        private Duration retention = Duration.ofHours(1);
+        private String distinctUsersTopic = "events-distinct-users";
+        private String topUsersTopic = "events-top-users";
+        private Emission emission = new Emission();
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getTopK() { return topK; }
+        public void setTopK(int topK) { this.topK = topK; }
+        public Duration getRetention() { return retention; }
+        public void setRetention(Duration retention) { this.retention = retention; }
+        public String getDistinctUsersTopic() { return distinctUsersTopic; }
+        public void setDistinctUsersTopic(String distinctUsersTopic) { this.distinctUsersTopic = distinctUsersTopic; }
+        public String getTopUsersTopic() { return topUsersTopic; }
+        public void setTopUsersTopic(String topUsersTopic) { this.topUsersTopic = topUsersTopic; }
+        public Emission getEmission() { return emission; }
+        public void setEmission(Emission emission) { this.emission = emission; }
+    }
+
+    /** When an output topic receives a window's result; configured per output. */
+    public static class Emission {
+        private EmissionMode mode = EmissionMode.ON_UPDATE;
+        // RATE_LIMITED: minimum time between two updates of the same key
+        private Duration interval = Duration.ofSeconds(1);
+        // EVERY_K: emit every this many records per key and window
+        private long everyRecords = 1000;
+        // RATE_LIMITED: memory for held-back updates; when full the oldest are emitted early
+        private long maxBufferBytes = 64L * 1024 * 1024;
+
+        public EmissionMode getMode() { return mode; }
+        public void setMode(EmissionMode mode) { this.mode = mode; }
+        public Duration getInterval() { return interval; }
+        public void setInterval(Duration interval) { this.interval = interval; }
+        public long getEveryRecords() { return everyRecords; }
+        public void setEveryRecords(long everyRecords) { this.everyRecords = everyRecords; }
+        public long getMaxBufferBytes() { return maxBufferBytes; }
+        public void setMaxBufferBytes(long maxBufferBytes) { this.maxBufferBytes = maxBufferBytes; }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.realtime.processor.controller;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.processor.query.AggregateQueryService;
+import com.example.realtime.processor.query.QueryUnavailableException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/aggregates")
+public class AggregateQueryController {
+
+    // Seconds a client should wait before retrying while state is unavailable
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final AggregateQueryService queryService;
+
+    @Autowired
+    public AggregateQueryController(AggregateQueryService queryService) {
+        this.queryService = queryService;
+    }
+
+    // e.g. GET /aggregates/alex_doe?resolution=1h&from=2024-01-01T00:00:00Z
+    @GetMapping("/{userId}")
+    public List<AggregateDTO> getAggregates(
+            @PathVariable String userId,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(defaultValue = "false") boolean local) {
+        String res = resolution != null ? resolution : queryService.getDefaultResolution();
+        return queryService.query(userId, res, from, to, local);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    // Rebalancing, restoring or owner unreachable: tell the client to come back shortly
+    @ExceptionHandler(QueryUnavailableException.class)
+    public ResponseEntity<Void> handleUnavailable(QueryUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.realtime.processor.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.streams.processor.api.FixedKeyProcessor;
+import org.apache.kafka.streams.processor.api.FixedKeyProcessorContext;
+import org.apache.kafka.streams.processor.api.FixedKeyProcessorSupplier;
+import org.apache.kafka.streams.processor.api.FixedKeyRecord;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pass-through node at the head of the topology that counts records and records their age
+ * (wall clock minus record timestamp, i.e. how far behind the event the processor is).
+ * Meters are registered once; recording allocates nothing.
+ */
+public class RecordMetricsProcessor<K, V> implements FixedKeyProcessorSupplier<K, V, V> {
+
+    private final Counter records;
+    private final Timer recordAge;
+
+    public RecordMetricsProcessor(MeterRegistry meterRegistry, String source) {
+        this.records = Counter.builder("processor.records")
+                .description("Records read by the topology")
+                .tag("source", source)
+                .register(meterRegistry);
+        this.recordAge = Timer.builder("processor.record.age")
+                .description("Wall clock minus record timestamp when a record enters the topology")
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+    }
+
+    @Override
+    public FixedKeyProcessor<K, V, V> get() {
+        return new FixedKeyProcessor<>() {
+            private FixedKeyProcessorContext<K, V> context;
+
+            @Override
+            public void init(FixedKeyProcessorContext<K, V> context) {
+                this.context = context;
+            }
+
+            @Override
+            public void process(FixedKeyRecord<K, V> record) {
+                records.increment();
+                // Negative ages (producer clocks ahead of ours) are dropped by the timer
+                recordAge.record(System.currentTimeMillis() - record.timestamp(), TimeUnit.MILLISECONDS);
+                context.forward(record);
+            }
+        };
+    }
+}
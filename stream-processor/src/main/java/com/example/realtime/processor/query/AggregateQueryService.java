@@ -0,0 +1,192 @@
+package com.example.realtime.processor.query;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.processor.aggregate.Aggregates;
+import com.example.realtime.processor.config.StreamsProperties;
+import com.example.realtime.processor.service.StreamsTopologyService;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads window aggregates straight out of the Kafka Streams state stores (interactive queries).
+ *
+ * A key lives in exactly one instance's store, so every query first asks Kafka Streams which host
+ * owns the key's partition. Local keys are read from the store; remote ones are forwarded once to
+ * the owner's {@code /aggregates} endpoint with {@code local=true}. Results go through a small LRU
+ * cache so hot keys are served without touching the store.
+ */
+@Service
+public class AggregateQueryService {
+
+    private static final ParameterizedTypeReference<List<AggregateDTO>> AGGREGATE_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private final StreamsBuilderFactoryBean factoryBean;
+    private final StreamsProperties properties;
+    private final RestClient restClient;
+    private final HostInfo self;
+    private final QueryCache<QueryKey, List<AggregateDTO>> cache;
+    private final Serializer<String> keySerializer = Serdes.String().serializer();
+
+    // Resolution name -> store holding it
+    private final Map<String, Level> levels = new HashMap<>();
+
+    @Autowired
+    public AggregateQueryService(StreamsBuilderFactoryBean factoryBean,
+                                 StreamsProperties properties,
+                                 RestClient.Builder restClientBuilder,
+                                 HostInfo queryHost,
+                                 @Value("${app.query.cache.max-entries:10000}") int cacheEntries,
+                                 @Value("${app.query.cache.ttl:1s}") Duration cacheTtl) {
+        this.factoryBean = factoryBean;
+        this.properties = properties;
+        this.restClient = restClientBuilder.build();
+        this.self = queryHost;
+        this.cache = new QueryCache<>(cacheEntries, cacheTtl);
+
+        StreamsProperties.Aggregation aggregation = properties.getAggregation();
+        String baseStore = aggregation.getMode() == StreamsProperties.AggregationMode.STATS
+                ? StreamsTopologyService.STATS_STORE
+                : StreamsTopologyService.COUNT_STORE;
+        levels.put(aggregation.getResolution(), new Level(baseStore, aggregation.getWindowSize()));
+        for (StreamsProperties.Rollup rollup : properties.getRollups()) {
+            levels.put(rollup.getName(),
+                    new Level(StreamsTopologyService.ROLLUP_STORE_PREFIX + rollup.getName(), rollup.getWindowSize()));
+        }
+    }
+
+    /** Resolution used when a query does not name one. */
+    public String getDefaultResolution() {
+        return properties.getAggregation().getResolution();
+    }
+
+    /**
+     * Windows of {@code userId} at {@code resolution} that overlap {@code [from, to]}, oldest first,
+     * including one that starts before {@code from} and runs into it.
+     * {@code from} defaults to 60 windows before {@code to}, {@code to} to now.
+     *
+     * @param localOnly read this instance's store without routing (used for forwarded queries)
+     */
+    public List<AggregateDTO> query(String userId, String resolution, Instant from, Instant to, boolean localOnly) {
+        Level level = levels.get(resolution);
+        if (level == null) {
+            throw new IllegalArgumentException("Unknown resolution '" + resolution + "', expected one of " + levels.keySet());
+        }
+
+        // Turn the range into one of window starts: windows are aligned to the epoch, so the ones
+        // overlapping [from, to] start between floor(from) and floor(to). Repeated "last N minutes"
+        // queries for a hot key then map to the same cache entry until the next window opens.
+        long size = level.windowSize.toMillis();
+        long toRaw = to != null ? to.toEpochMilli() : System.currentTimeMillis();
+        long fromRaw = from != null ? from.toEpochMilli() : toRaw - 60 * size;
+        if (fromRaw > toRaw) {
+            throw new IllegalArgumentException("'from' must not be after 'to'");
+        }
+        long toMs = floor(toRaw, size);
+        long fromMs = floor(fromRaw, size);
+
+        QueryKey cacheKey = new QueryKey(userId, resolution, fromMs, toMs);
+        List<AggregateDTO> cached = cache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        KafkaStreams streams = kafkaStreams();
+        List<AggregateDTO> result;
+        if (localOnly) {
+            result = readLocal(streams, level, userId, resolution, fromMs, toMs);
+        } else {
+            KeyQueryMetadata metadata = streams.queryMetadataForKey(level.store, userId, keySerializer);
+            if (metadata == null || KeyQueryMetadata.NOT_AVAILABLE.equals(metadata)) {
+                throw new QueryUnavailableException("No owner for key " + userId + " (rebalancing?)");
+            }
+            result = self.equals(metadata.activeHost())
+                    ? readLocal(streams, level, userId, resolution, fromMs, toMs)
+                    : readRemote(metadata.activeHost(), userId, resolution, fromMs, toMs);
+        }
+
+        cache.put(cacheKey, result);
+        return result;
+    }
+
+    public QueryCache<QueryKey, List<AggregateDTO>> getCache() {
+        return cache;
+    }
+
+    // Window starts [fromMs, toMs] are fetched as they are
+    private List<AggregateDTO> readLocal(KafkaStreams streams, Level level, String userId, String resolution,
+                                         long fromMs, long toMs) {
+        List<AggregateDTO> result = new ArrayList<>();
+        boolean stats = properties.getAggregation().getMode() == StreamsProperties.AggregationMode.STATS;
+        long size = level.windowSize.toMillis();
+        try {
+            ReadOnlyWindowStore<String, Object> store = streams.store(
+                    StoreQueryParameters.fromNameAndType(level.store, QueryableStoreTypes.<String, Object>windowStore()));
+            try (WindowStoreIterator<Object> it = store.fetch(userId, Instant.ofEpochMilli(fromMs), Instant.ofEpochMilli(toMs))) {
+                while (it.hasNext()) {
+                    KeyValue<Long, Object> window = it.next();
+                    long start = window.key;
+                    result.add(stats
+                            ? Aggregates.fromStats(userId, start, start + size, resolution, (byte[]) window.value)
+                            : Aggregates.fromCount(userId, start, start + size, resolution, (Long) window.value));
+                }
+            }
+        } catch (InvalidStateStoreException e) {
+            throw new QueryUnavailableException("Store " + level.store + " is not queryable yet", e);
+        }
+        return result;
+    }
+
+    private List<AggregateDTO> readRemote(HostInfo owner, String userId, String resolution, long fromMs, long toMs) {
+        try {
+            return restClient.get()
+                    .uri("http://{host}:{port}/aggregates/{userId}?resolution={resolution}&from={from}&to={to}&local=true",
+                            owner.host(), owner.port(), userId, resolution,
+                            Instant.ofEpochMilli(fromMs), Instant.ofEpochMilli(toMs))
+                    .retrieve()
+                    .body(AGGREGATE_LIST);
+        } catch (RestClientException e) {
+            throw new QueryUnavailableException("Owner " + owner + " of key " + userId + " did not answer", e);
+        }
+    }
+
+    private KafkaStreams kafkaStreams() {
+        KafkaStreams streams = factoryBean.getKafkaStreams();
+        if (streams == null || !streams.state().isRunningOrRebalancing()) {
+            throw new QueryUnavailableException("Kafka Streams is not running");
+        }
+        return streams;
+    }
+
+    private static long floor(long epochMs, long windowMs) {
+        return epochMs - Math.floorMod(epochMs, windowMs);
+    }
+
+    private record Level(String store, Duration windowSize) {}
+
+    /** Cache key; compared field by field, so no user id can collide with another query. */
+    public record QueryKey(String userId, String resolution, long fromMs, long toMs) {}
+}
@@ -0,0 +1,100 @@
+package com.example.realtime.processor.query;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Small LRU cache in front of the interactive queries.
+ *
+ * At most {@code maxEntries} results are kept; the least recently read one is evicted first, so
+ * the hottest keys stay resident. Entries also expire after {@code ttl}, because a range that
+ * includes the current window keeps changing.
+ */
+public class QueryCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public QueryCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    QueryCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        // Access order: get() moves an entry to the tail, eviction takes the head
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > QueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** Cached value, or null when absent or expired. */
+    public V get(K key) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && clock.getAsLong() - entry.storedAt < ttlNanos) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            entries.put(key, new Entry<>(value, clock.getAsLong()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    private static final class Entry<V> {
+        final V value;
+        final long storedAt;
+
+        Entry(V value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+}
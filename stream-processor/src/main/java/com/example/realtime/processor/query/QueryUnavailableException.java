@@ -0,0 +1,17 @@
+package com.example.realtime.processor.query;
+
+/**
+ * The state needed for a query is not readable right now: Kafka Streams is not running, a
+ * rebalance is in progress, the store is still restoring, or the owning instance did not answer.
+ * The caller should retry shortly.
+ */
+public class QueryUnavailableException extends RuntimeException {
+
+    public QueryUnavailableException(String message) {
+        super(message);
+    }
+
+    public QueryUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
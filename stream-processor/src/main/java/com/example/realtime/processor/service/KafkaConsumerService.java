@@ -1,14 +1,28 @@
 package com.example.realtime.processor.service;
 
 import com.example.realtime.common.dto.EventDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 @Service
 public class KafkaConsumerService {
 
@@ -20,30 +34,130 @@ public class KafkaConsumerService {
     // 2. The Topic to publish to (injected from RedisConfig)
     private final ChannelTopic topic;
 
+    // 3. The Script: INCRBY + PUBLISH for a partition's share of a batch in one round trip
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> flushStatsScript;
+
+    // 4. Metrics: one script round trip per flush
+    private final Timer flushLatency;
+
     // Constructor Injection
     @Autowired
-    public KafkaConsumerService(StringRedisTemplate redisTemplate, ChannelTopic topic) {
+    @SuppressWarnings("rawtypes")
+    public KafkaConsumerService(StringRedisTemplate redisTemplate, ChannelTopic topic, RedisScript<List> flushStatsScript,
+                                MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
         this.topic = topic;
+        this.flushStatsScript = flushStatsScript;
+        this.flushLatency = Timer.builder("processor.redis.flush")
+                .description("Time to run the stats flush script in Redis")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    // Record-at-a-time mode, kept for comparison: one script call per event.
+    // Only one of the two listeners runs, selected by app.consumer.batch-enabled.
+    @KafkaListener(id = "stats-record-listener", topics = "${app.kafka.topic}", groupId = "realtime-analytics-group",
+            autoStartup = "#{!${app.consumer.batch-enabled:true}}")
+    public void consumeEvents(ConsumerRecord<String, EventDTO> record) {
+        if (record.value() == null) {
+            return; // ErrorHandlingDeserializer hands us null for unreadable records
+        }
+        flushPartition(List.of(record));
+    }
+
+    // Batch mode: fold the whole poll into per-key deltas, flush, then commit offsets.
+    @KafkaListener(id = "stats-batch-listener", topics = "${app.kafka.topic}", groupId = "realtime-analytics-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${app.consumer.batch-enabled:true}")
+    public void consumeEventBatch(List<ConsumerRecord<String, EventDTO>> records, Acknowledgment ack) {
+        // 1. Split by partition: each partition has its own offset guard
+        Map<TopicPartition, List<ConsumerRecord<String, EventDTO>>> byPartition = new LinkedHashMap<>();
+        for (ConsumerRecord<String, EventDTO> record : records) {
+            byPartition.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), k -> new ArrayList<>())
+                    .add(record);
+        }
+
+        // 2. Flush each partition; if this throws, the batch is not acknowledged and is retried
+        // until it succeeds (see KafkaConsumerConfig), and the partitions already flushed are
+        // skipped by their offset guard
+        int keys = 0;
+        for (List<ConsumerRecord<String, EventDTO>> partition : byPartition.values()) {
+            keys += flushPartition(partition);
+        }
+
+        // 3. Only now commit the offsets
+        ack.acknowledge();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Flushed {} events as {} key updates", records.size(), keys);
+        }
     }
 
-    @KafkaListener(topics = "${app.kafka.topic}", groupId = "realtime-analytics-group")
-    public void consumeEvents(EventDTO event) {
-        logger.info("Consumed event: userId={}, type={}", event.getUserId(), event.getEventType());
+    // Applies the records of one partition, in offset order, exactly once: the script refuses
+    // deltas that start at or before the partition's last applied offset, and then returns that
+    // offset so only the records past it are folded again. A script runs without other commands
+    // in between, but Redis does not roll one back: if it fails halfway (e.g. INCRBY on a key
+    // holding a non-number) the earlier increments stay while the offset does not move, and the
+    // redelivered batch counts them twice. Returns the number of keys updated.
+    private int flushPartition(List<ConsumerRecord<String, EventDTO>> records) {
+        ConsumerRecord<String, EventDTO> first = records.get(0);
+        String guardKey = guardKey(first.topic(), first.partition());
+        long last = records.get(records.size() - 1).offset();
+        long after = first.offset() - 1;
+        while (true) {
+            Map<String, long[]> deltas = fold(records, after);
+            if (deltas.isEmpty()) {
+                return 0;
+            }
+            long stored = flush(guardKey, after + 1, last, deltas);
+            if (stored <= after) {
+                return deltas.size();
+            }
+            // Redelivered after a flush whose offsets were not committed: keep the records past it
+            after = stored;
+        }
+    }
 
-        // 2. Define the Key
-        String key = "stats:" + event.getUserId() + ":" + event.getEventType();
+    // Pre-aggregate: N events for the same user/type past offset 'after' become one delta
+    private static Map<String, long[]> fold(List<ConsumerRecord<String, EventDTO>> records, long after) {
+        Map<String, long[]> deltas = new HashMap<>();
+        for (ConsumerRecord<String, EventDTO> record : records) {
+            if (record.offset() <= after || record.value() == null) {
+                continue; // ErrorHandlingDeserializer hands us null for unreadable records
+            }
+            deltas.computeIfAbsent(statsKey(record.value()), k -> new long[1])[0]++;
+        }
+        return deltas;
+    }
 
-        // 3. The Logic: Increment counter in Redis
-        redisTemplate.opsForValue().increment(key);
+    // Returns the offset the partition's guard held before the call
+    private long flush(String guardKey, long firstOffset, long lastOffset, Map<String, long[]> deltas) {
+        List<String> keys = new ArrayList<>(deltas.size() + 1);
+        keys.add(guardKey);
+        Object[] args = new Object[deltas.size() + 3];
+        args[0] = topic.getTopic();
+        args[1] = Long.toString(firstOffset);
+        args[2] = Long.toString(lastOffset);
+        int i = 3;
+        for (Map.Entry<String, long[]> entry : deltas.entrySet()) {
+            keys.add(entry.getKey());
+            args[i++] = Long.toString(entry.getValue()[0]);
+        }
+        long start = System.nanoTime();
+        List<?> result = redisTemplate.execute(flushStatsScript, keys, args);
+        flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return ((Number) result.get(0)).longValue();
+    }
 
-        // Optional: Print the new count to verify it works
-        String newCount = redisTemplate.opsForValue().get(key);
-        logger.info("Updated Redis Key: {} -> Count: {}", key, newCount);
+    // Last offset applied per partition, kept apart from the counters so their keys stay
+    // stats:<userId>:<eventType> whatever the partition layout
+    private static String guardKey(String topic, int partition) {
+        return "stats-offset:" + topic + "-" + partition;
+    }
 
-        // CHANGE: Publish to Redis pub/sub channel so Gateway instances can receive it
-        String messageToSend = event.toString(); // TODO: replace with JSON serialization if needed
-        redisTemplate.convertAndSend(topic.getTopic(), messageToSend);
-        logger.info("Published event to Redis topic {}", topic.getTopic());
+    private static String statsKey(EventDTO event) {
+        return "stats:" + event.getUserId() + ":" + event.getEventType();
     }
-}
\ No newline at end of file
+}
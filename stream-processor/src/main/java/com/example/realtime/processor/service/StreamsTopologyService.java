@@ -1,12 +1,27 @@
 package com.example.realtime.processor.service;
 
 import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.dto.DistinctUsersDTO;
 import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.dto.TopUsersDTO;
+import com.example.realtime.common.serde.JsonSerde;
+import com.example.realtime.processor.aggregate.Aggregates;
+import com.example.realtime.processor.aggregate.EventTypeSketch;
+import com.example.realtime.processor.aggregate.MetricValueExtractor;
+import com.example.realtime.processor.aggregate.WindowStats;
+import com.example.realtime.processor.config.StreamsProperties;
+import com.example.realtime.processor.metrics.RecordMetricsProcessor;
+import com.example.realtime.processor.store.PrimitiveWindowBytesStoreSupplier;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.kstream.*;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.kstream.Materialized;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.common.utils.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,72 +30,298 @@ import org.springframework.stereotype.Component;
 import jakarta.annotation.PostConstruct;
 import org.apache.kafka.streams.KeyValue;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.ToLongFunction;
 
 @Component
 public class StreamsTopologyService {
 
     private static final Logger log = LoggerFactory.getLogger(StreamsTopologyService.class);
 
+    // Queryable window stores (see AggregateQueryService)
+    public static final String COUNT_STORE = "event-counts";
+    public static final String STATS_STORE = "event-stats";
+    public static final String ROLLUP_STORE_PREFIX = "rollup-";
+    public static final String SKETCH_STORE = "event-type-sketches";
+
     @Autowired
     private StreamsBuilder streamsBuilder;
 
     @Autowired
-    private Serde<EventDTO> eventJsonSerde;
+    private Serde<EventDTO> eventSerde;
+
+    @Autowired
+    private Serde<AggregateDTO> aggregateSerde;
 
     @Autowired
-    private Serde<AggregateDTO> aggregateJsonSerde;
+    private StreamsProperties properties;
 
-    // Benchmarking fields
-    private final AtomicLong totalProcessed = new AtomicLong(0);
-    private final long startTime = System.currentTimeMillis();
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @PostConstruct
     public void buildTopology() {
         KStream<String, EventDTO> events = streamsBuilder.stream(
                 "events",
-                Consumed.with(Serdes.String(), eventJsonSerde)
+                Consumed.with(Serdes.String(), eventSerde)
         );
 
-        TimeWindows windows = TimeWindows.ofSizeWithNoGrace(Duration.ofMinutes(1));
-
-        KTable<Windowed<String>, Long> counts = events
-                // --- SPEEDOMETER START ---
-                .peek((key, value) -> {
-                    long currentCount = totalProcessed.incrementAndGet();
-                    // Log progress every 10,000 events
-                    if (currentCount % 10000 == 0) {
-                        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
-                        if (elapsedSeconds > 0) {
-                            long eventsPerSec = currentCount / elapsedSeconds;
-                            long eventsPerMin = eventsPerSec * 60;
-                            log.info("🚀 THROUGHPUT: Processed {} events in {}s. Rate: {} events/sec (~{} events/min)",
-                                    currentCount, elapsedSeconds, eventsPerSec, eventsPerMin);
-                        }
-                    }
-                })
-                // --- SPEEDOMETER END ---
-                .groupBy((key, value) -> value.getUserId(), Grouped.with(Serdes.String(), eventJsonSerde))
+        StreamsProperties.Aggregation aggregation = properties.getAggregation();
+        TimeWindows windows = TimeWindows.ofSizeAndGrace(aggregation.getWindowSize(), aggregation.getGrace());
+
+        // Record count and age per record; lag and per-record latency come from the Kafka Streams
+        // metrics bound by Spring Boot (records-lag-max, process-latency-*)
+        KStream<String, EventDTO> counted = events
+                .processValues(new RecordMetricsProcessor<>(meterRegistry, "events"), Named.as("events-metrics"));
+
+        KGroupedStream<String, EventDTO> grouped = aggregation.getGrouping() == StreamsProperties.GroupingMode.BY_KEY
+                ? keyedByUser(counted).groupByKey(Grouped.with(Serdes.String(), eventSerde))
+                : counted.groupBy((key, value) -> value.getUserId(), Grouped.with(Serdes.String(), eventSerde));
+        TimeWindowedKStream<String, EventDTO> windowed = grouped.windowedBy(windows);
+
+        if (aggregation.getMode() == StreamsProperties.AggregationMode.STATS) {
+            buildOutputs(statsTable(windowed), Serdes.ByteArray(),
+                    WindowStats::newState, WindowStats::merge, WindowStats::count,
+                    StreamsTopologyService::toAggregate);
+        } else {
+            buildOutputs(countTable(windowed), Serdes.Long(),
+                    () -> 0L, Long::sum, count -> count,
+                    StreamsTopologyService::countToAggregate);
+        }
+
+        if (properties.getSketches().isEnabled()) {
+            buildSketches(counted, windows);
+        }
+
+        log.info("Streams topology for events -> events-aggregated registered ({} mode, {} rollups, sketches {}).",
+                aggregation.getMode(), properties.getRollups().size(),
+                properties.getSketches().isEnabled() ? "on" : "off");
+    }
+
+    // Events whose key already is their userId stay on their partition; the rest are re-keyed
+    // through one repartition topic and merged back. Both land in the same task for a given
+    // user because the repartition topic is partitioned like 'events' (same key, same
+    // default partitioner, same partition count).
+    private KStream<String, EventDTO> keyedByUser(KStream<String, EventDTO> events) {
+        Map<String, KStream<String, EventDTO>> branches = events
+                .split(Named.as("grouping-"))
+                .branch((key, event) -> key != null && key.equals(event.getUserId()), Branched.as("keyed"))
+                .defaultBranch(Branched.as("rekey"));
+
+        KStream<String, EventDTO> rekeyed = branches.get("grouping-rekey")
+                .selectKey((key, event) -> event.getUserId())
+                .repartition(Repartitioned.<String, EventDTO>as("rekey-by-user")
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(eventSerde));
+
+        return branches.get("grouping-keyed").merge(rekeyed);
+    }
+
+    // COUNT mode: events per user per window
+    private KTable<Windowed<String>, Long> countTable(TimeWindowedKStream<String, EventDTO> windowed) {
+        StreamsProperties.Aggregation aggregation = properties.getAggregation();
+        return windowed.count(StreamsTopologyService.<Long>windowStore(COUNT_STORE, aggregation.getStoreType(),
+                        aggregation.getRetention(), aggregation.getWindowSize(), aggregation.getEmission())
+                .withKeySerde(Serdes.String())
+                .withValueSerde(Serdes.Long()));
+    }
+
+    // STATS mode: count, sum, max and percentiles of a metadata value.
+    // The window state is a fixed-size byte[] (see WindowStats) updated in place, so the
+    // aggregator neither allocates nor runs a JSON serde per record.
+    private KTable<Windowed<String>, byte[]> statsTable(TimeWindowedKStream<String, EventDTO> windowed) {
+        StreamsProperties.Aggregation aggregation = properties.getAggregation();
+        MetricValueExtractor extractor = new MetricValueExtractor(aggregation.getValueField());
+
+        return windowed.aggregate(
+                WindowStats::newState,
+                (userId, event, state) -> {
+                    double value = extractor.extract(event);
+                    return Double.isNaN(value) ? WindowStats.addCount(state) : WindowStats.add(state, value);
+                },
+                StreamsTopologyService.<byte[]>windowStore(STATS_STORE, aggregation.getStoreType(),
+                                aggregation.getRetention(), aggregation.getWindowSize(), aggregation.getEmission())
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.ByteArray()));
+    }
+
+    // Writes the base table to events-aggregated, then derives each configured rollup from the
+    // *closed* windows of the level below it (1m -> 1h -> 1d): a rollup only ever sees one record
+    // per key per lower-level window, never the raw events. The same closed windows go to the
+    // closed-windows topic when it is enabled.
+    private <V> void buildOutputs(KTable<Windowed<String>, V> base, Serde<V> valueSerde,
+                                  Initializer<V> initializer, BinaryOperator<V> merge,
+                                  ToLongFunction<V> countOf, AggregateMapper<V> toAggregate) {
+        StreamsProperties.Aggregation aggregation = properties.getAggregation();
+        emitTo(base, aggregation.getEmission(), countOf, toAggregate, aggregation.getResolution(), "events-aggregated");
+
+        KTable<Windowed<String>, V> previous = base;
+        Duration previousSize = aggregation.getWindowSize();
+        String previousResolution = aggregation.getResolution();
+        for (StreamsProperties.Rollup rollup : properties.getRollups()) {
+            Duration size = rollup.getWindowSize();
+            if (size.toMillis() % previousSize.toMillis() != 0) {
+                throw new IllegalStateException("Rollup " + rollup.getName() + " (" + size
+                        + ") is not a multiple of the level below it (" + previousSize + ")");
+            }
+            // A rollup grows by whole lower-level windows at a time, so its count skips past most
+            // multiples of K and EVERY_K would fire at arbitrary points or never
+            if (rollup.getEmission().getMode() == StreamsProperties.EmissionMode.EVERY_K) {
+                throw new IllegalStateException("Rollup " + rollup.getName()
+                        + " cannot use EVERY_K emission; use ON_UPDATE, RATE_LIMITED or FINAL");
+            }
+            // Closed lower-level windows arrive roughly in time order; by default allow one
+            // lower-level window of lateness for interleaving across upstream tasks.
+            Duration grace = rollup.getGrace() != null ? rollup.getGrace() : previousSize;
+
+            KStream<Windowed<String>, V> closed = closedWindows(previous);
+            publishClosed(closed, toAggregate, previousResolution);
+
+            KTable<Windowed<String>, V> next = closed
+                    // The key is still the userId, so this repartition carries one small record
+                    // per key per lower-level window.
+                    .selectKey((windowedKey, value) -> windowedKey.key())
+                    .groupByKey(Grouped.with("rollup-" + rollup.getName(), Serdes.String(), valueSerde))
+                    .windowedBy(TimeWindows.ofSizeAndGrace(size, grace))
+                    .aggregate(initializer,
+                            (userId, value, acc) -> merge.apply(acc, value),
+                            StreamsTopologyService.<V>windowStore(ROLLUP_STORE_PREFIX + rollup.getName(),
+                                            rollup.getStoreType(), rollup.getRetention(), size, rollup.getEmission())
+                                    .withKeySerde(Serdes.String())
+                                    .withValueSerde(valueSerde));
+
+            emitTo(next, rollup.getEmission(), countOf, toAggregate, rollup.getName(), rollup.getTopic());
+            previous = next;
+            previousSize = size;
+            previousResolution = rollup.getName();
+        }
+        // Nothing is built on the last level, so its windows are only held back for this topic
+        if (properties.getClosedWindows().isEnabled()) {
+            publishClosed(closedWindows(previous), toAggregate, previousResolution);
+        }
+    }
+
+    private static <V> KStream<Windowed<String>, V> closedWindows(KTable<Windowed<String>, V> table) {
+        return table.suppress(Suppressed.untilWindowCloses(Suppressed.BufferConfig.unbounded())).toStream();
+    }
+
+    private <V> void publishClosed(KStream<Windowed<String>, V> closed, AggregateMapper<V> toAggregate,
+                                   String resolution) {
+        if (properties.getClosedWindows().isEnabled()) {
+            closed.map((windowedKey, value) -> KeyValue.pair(windowedKey.key(), toAggregate.apply(windowedKey, value, resolution)))
+                    .to(properties.getClosedWindows().getTopic(), Produced.with(Serdes.String(), aggregateSerde));
+        }
+    }
+
+    // Window store of the configured type; all three are fronted by the same caching and
+    // changelog layers, so they can be swapped without changing the topology.
+    static <V> Materialized<String, V, WindowStore<Bytes, byte[]>> windowStore(String name,
+                                                                            StreamsProperties.StoreType type,
+                                                                            Duration retention,
+                                                                            Duration windowSize,
+                                                                            StreamsProperties.Emission emission) {
+        Materialized<String, V, WindowStore<Bytes, byte[]>> materialized;
+        switch (type) {
+            case IN_MEMORY:
+                materialized = Materialized.as(Stores.inMemoryWindowStore(name, retention, windowSize, false));
+                break;
+            case PRIMITIVE:
+                materialized = Materialized.as(new PrimitiveWindowBytesStoreSupplier(name, retention, windowSize));
+                break;
+            case ROCKSDB:
+            default:
+                materialized = Materialized.<String, V, WindowStore<Bytes, byte[]>>as(name).withRetention(retention);
+        }
+        return withEmissionCaching(materialized, emission);
+    }
+
+    // EVERY_K picks updates by their count, so it has to see every one of them: the record cache
+    // would forward only the latest value per key at each commit or eviction, skipping the
+    // multiples of K at random.
+    private static <V, S extends StateStore> Materialized<String, V, S> withEmissionCaching(
+            Materialized<String, V, S> materialized, StreamsProperties.Emission emission) {
+        return emission.getMode() == StreamsProperties.EmissionMode.EVERY_K
+                ? materialized.withCachingDisabled()
+                : materialized;
+    }
+
+    // Distinct users and top users per event type. Keyed by eventType, so exact per-user state is
+    // never kept: each window holds one fixed-size EventTypeSketch per event type.
+    private void buildSketches(KStream<String, EventDTO> events, TimeWindows windows) {
+        StreamsProperties.Sketches sketches = properties.getSketches();
+        String resolution = properties.getAggregation().getResolution();
+        int topK = sketches.getTopK();
+
+        KTable<Windowed<String>, byte[]> table = events
+                .filter((key, event) -> event.getEventType() != null && event.getUserId() != null)
+                .groupBy((key, event) -> event.getEventType(), Grouped.with("event-type", Serdes.String(), eventSerde))
                 .windowedBy(windows)
-                .count(Materialized.with(Serdes.String(), Serdes.Long()));
-
-        KStream<String, AggregateDTO> aggregatedStream = counts
-                .toStream()
-                .map((windowedKey, count) -> {
-                    String userId = windowedKey.key();
-                    long windowStartMs = windowedKey.window().start();
-                    long windowEndMs = windowedKey.window().end();
-                    AggregateDTO agg = new AggregateDTO();
-                    agg.setMetricId(userId);
-                    agg.setWindowStart(Instant.ofEpochMilli(windowStartMs));
-                    agg.setWindowEnd(Instant.ofEpochMilli(windowEndMs));
-                    agg.setCount(count);
-                    return KeyValue.pair(userId, agg);
+                .aggregate(
+                        () -> EventTypeSketch.newState(topK),
+                        (eventType, event, state) -> EventTypeSketch.add(state, event.getUserId()),
+                        withEmissionCaching(Materialized.<String, byte[], WindowStore<Bytes, byte[]>>as(SKETCH_STORE)
+                                .withKeySerde(Serdes.String())
+                                .withValueSerde(Serdes.ByteArray())
+                                .withRetention(sketches.getRetention()), sketches.getEmission()));
+
+        KStream<Windowed<String>, byte[]> emitted = emit(table, sketches.getEmission(), EventTypeSketch::count);
+        emitted.map((windowedKey, sketch) -> KeyValue.pair(windowedKey.key(), Aggregates.distinctUsers(windowedKey.key(),
+                        windowedKey.window().start(), windowedKey.window().end(), resolution, sketch)))
+                .to(sketches.getDistinctUsersTopic(), Produced.with(Serdes.String(), new JsonSerde<>(DistinctUsersDTO.class)));
+        emitted.map((windowedKey, sketch) -> KeyValue.pair(windowedKey.key(), Aggregates.topUsers(windowedKey.key(),
+                        windowedKey.window().start(), windowedKey.window().end(), resolution, sketch)))
+                .to(sketches.getTopUsersTopic(), Produced.with(Serdes.String(), new JsonSerde<>(TopUsersDTO.class)));
+    }
+
+    private <V> void emitTo(KTable<Windowed<String>, V> table, StreamsProperties.Emission emission,
+                            ToLongFunction<V> countOf, AggregateMapper<V> toAggregate,
+                            String resolution, String topic) {
+        emit(table, emission, countOf)
+                .map((windowedKey, value) -> KeyValue.pair(windowedKey.key(), toAggregate.apply(windowedKey, value, resolution)))
+                .to(topic, Produced.with(Serdes.String(), aggregateSerde));
+    }
+
+    // Applies the configured emission strategy to a windowed table. countOf reads the record
+    // count out of a table value; it is only needed for EVERY_K.
+    static <V> KStream<Windowed<String>, V> emit(KTable<Windowed<String>, V> table,
+                                                  StreamsProperties.Emission emission,
+                                                  ToLongFunction<V> countOf) {
+        switch (emission.getMode()) {
+            case FINAL:
+                // Unbounded on purpose: dropping or emitting early would break "one final result"
+                return table.suppress(Suppressed.untilWindowCloses(Suppressed.BufferConfig.unbounded())).toStream();
+            case RATE_LIMITED:
+                return table.suppress(Suppressed.untilTimeLimit(emission.getInterval(),
+                                Suppressed.BufferConfig.maxBytes(emission.getMaxBufferBytes()).emitEarlyWhenFull()))
+                        .toStream();
+            case EVERY_K:
+                long k = Math.max(1, emission.getEveryRecords());
+                return table.toStream().filter((key, value) -> {
+                    if (value == null) {
+                        return false;
+                    }
+                    long count = countOf.applyAsLong(value);
+                    return count == 1 || count % k == 0;
                 });
+            case ON_UPDATE:
+            default:
+                return table.toStream();
+        }
+    }
 
-        aggregatedStream.to("events-aggregated", Produced.with(Serdes.String(), aggregateJsonSerde));
+    @FunctionalInterface
+    interface AggregateMapper<V> {
+        AggregateDTO apply(Windowed<String> windowedKey, V value, String resolution);
+    }
+
+    static AggregateDTO countToAggregate(Windowed<String> windowedKey, Long count, String resolution) {
+        return Aggregates.fromCount(windowedKey.key(), windowedKey.window().start(), windowedKey.window().end(),
+                resolution, count);
+    }
 
-        log.info("Streams topology for events -> events-aggregated registered.");
+    static AggregateDTO toAggregate(Windowed<String> windowedKey, byte[] state, String resolution) {
+        return Aggregates.fromStats(windowedKey.key(), windowedKey.window().start(), windowedKey.window().end(),
+                resolution, state);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package com.example.realtime.processor.sink;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Multi-row upserts into {@code aggregate_windows}, keyed by (metric_id, resolution, window_start).
+ *
+ * A row is only overwritten by an aggregate with at least the same count. Counts only grow within
+ * a window, so replaying old records, or records arriving out of order, never moves a row back:
+ * writes are idempotent and the row ends up holding the window's final value.
+ */
+@Repository
+@ConditionalOnProperty(name = "app.sink.enabled", havingValue = "true")
+public class AggregateRepository {
+
+    private static final String COLUMNS = "metric_id, resolution, window_start, window_end, count, sum, max, p50, p95, p99";
+    private static final int PARAMS_PER_ROW = 10;
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int rowsPerStatement;
+    private final String fullStatement;
+    private volatile boolean schemaReady;
+
+    @Autowired
+    public AggregateRepository(JdbcTemplate jdbcTemplate,
+                               @Value("${app.sink.rows-per-statement:1000}") int rowsPerStatement) {
+        // Postgres allows at most 65535 bind parameters per statement
+        if (rowsPerStatement < 1 || rowsPerStatement * PARAMS_PER_ROW > 65_535) {
+            throw new IllegalArgumentException("app.sink.rows-per-statement must be in [1, " + 65_535 / PARAMS_PER_ROW + "]");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.rowsPerStatement = rowsPerStatement;
+        this.fullStatement = upsertSql(rowsPerStatement);
+    }
+
+    /**
+     * Writes the rows in statements of up to {@code rows-per-statement} rows. No row may appear
+     * twice (Postgres refuses to update the same row twice in one statement). Each statement
+     * commits on its own; after a failure the caller retries the whole batch.
+     */
+    public void upsert(List<AggregateDTO> rows) {
+        ensureSchema();
+        for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+            List<AggregateDTO> chunk = rows.subList(from, Math.min(from + rowsPerStatement, rows.size()));
+            String sql = chunk.size() == rowsPerStatement ? fullStatement : upsertSql(chunk.size());
+            jdbcTemplate.update(sql, parameters(chunk));
+        }
+    }
+
+    // Created on first use rather than at startup, so the processor starts without Postgres
+    private void ensureSchema() {
+        if (!schemaReady) {
+            new ResourceDatabasePopulator(new ClassPathResource("db/aggregate-windows.sql"))
+                    .execute(jdbcTemplate.getDataSource());
+            schemaReady = true;
+        }
+    }
+
+    static String upsertSql(int rows) {
+        StringBuilder sql = new StringBuilder(128 + rows * (ROW.length() + 1))
+                .append("INSERT INTO aggregate_windows (").append(COLUMNS).append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ROW);
+        }
+        return sql.append(" ON CONFLICT (metric_id, resolution, window_start) DO UPDATE SET"
+                        + " window_end = EXCLUDED.window_end, count = EXCLUDED.count, sum = EXCLUDED.sum,"
+                        + " max = EXCLUDED.max, p50 = EXCLUDED.p50, p95 = EXCLUDED.p95, p99 = EXCLUDED.p99,"
+                        + " updated_at = now()"
+                        + " WHERE aggregate_windows.count <= EXCLUDED.count")
+                .toString();
+    }
+
+    private static Object[] parameters(List<AggregateDTO> rows) {
+        Object[] params = new Object[rows.size() * PARAMS_PER_ROW];
+        int i = 0;
+        for (AggregateDTO row : rows) {
+            params[i++] = row.getMetricId();
+            params[i++] = row.getResolution();
+            params[i++] = OffsetDateTime.ofInstant(row.getWindowStart(), ZoneOffset.UTC);
+            params[i++] = OffsetDateTime.ofInstant(row.getWindowEnd(), ZoneOffset.UTC);
+            params[i++] = row.getCount();
+            params[i++] = row.getSum();
+            params[i++] = row.getMax();
+            params[i++] = row.getP50();
+            params[i++] = row.getP95();
+            params[i++] = row.getP99();
+        }
+        return params;
+    }
+}
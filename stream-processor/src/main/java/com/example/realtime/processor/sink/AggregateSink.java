@@ -0,0 +1,86 @@
+package com.example.realtime.processor.sink;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists aggregates to Postgres so history outlives the window stores' retention.
+ *
+ * Reads the closed-windows topic (app.streams.closed-windows), which carries one final aggregate
+ * per key, resolution and closed window, and upserts each poll in one go (see
+ * {@link AggregateRepository}). In-progress updates never reach the database. Batching, flushing
+ * and backpressure come from the listener container, see SinkConfig.
+ */
+@Service
+@ConditionalOnProperty(name = "app.sink.enabled", havingValue = "true")
+public class AggregateSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregateSink.class);
+
+    private final AggregateRepository repository;
+    private final Timer flushLatency;
+    private final Counter rowsWritten;
+
+    @Autowired
+    public AggregateSink(AggregateRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.flushLatency = Timer.builder("processor.sink.flush")
+                .description("Time to upsert one batch of aggregates into Postgres")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry);
+        this.rowsWritten = Counter.builder("processor.sink.rows")
+                .description("Aggregate rows upserted into Postgres")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(id = "aggregate-sink", topics = "#{'${app.sink.topics}'.split(',')}", groupId = "aggregate-sink-group",
+            containerFactory = "sinkKafkaListenerContainerFactory")
+    public void consumeAggregateBatch(List<AggregateDTO> aggregates) {
+        List<AggregateDTO> rows = latestPerWindow(aggregates);
+        if (rows.isEmpty()) {
+            return;
+        }
+        // If this throws, the container retries the whole batch before committing any offset
+        long start = System.nanoTime();
+        repository.upsert(rows);
+        flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        rowsWritten.increment(rows.size());
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Upserted {} aggregates as {} rows", aggregates.size(), rows.size());
+        }
+    }
+
+    // One row per metric, resolution and window: the aggregate with the highest count, which is
+    // the most recent one of that window (a window appears twice only when replayed, or when the
+    // sink is pointed at an update topic). Unreadable records (null) and incomplete ones are skipped.
+    static List<AggregateDTO> latestPerWindow(List<AggregateDTO> aggregates) {
+        Map<String, AggregateDTO> latest = new HashMap<>();
+        for (AggregateDTO aggregate : aggregates) {
+            if (aggregate == null || aggregate.getMetricId() == null || aggregate.getResolution() == null
+                    || aggregate.getWindowStart() == null || aggregate.getWindowEnd() == null) {
+                continue;
+            }
+            String key = aggregate.getMetricId() + '|' + aggregate.getResolution() + '|'
+                    + aggregate.getWindowStart().toEpochMilli();
+            latest.merge(key, aggregate, (current, next) -> next.getCount() >= current.getCount() ? next : current);
+        }
+        return new ArrayList<>(latest.values());
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.realtime.processor.store;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.time.Duration;
+
+/** Supplies {@link PrimitiveWindowStore}s; pass it to {@code Materialized.as(...)}. */
+public class PrimitiveWindowBytesStoreSupplier implements WindowBytesStoreSupplier {
+
+    private final String name;
+    private final long retentionPeriod;
+    private final long windowSize;
+
+    public PrimitiveWindowBytesStoreSupplier(String name, Duration retentionPeriod, Duration windowSize) {
+        if (retentionPeriod.compareTo(windowSize) < 0) {
+            throw new IllegalArgumentException("Retention of store " + name + " must not be shorter than its window size");
+        }
+        this.name = name;
+        this.retentionPeriod = retentionPeriod.toMillis();
+        this.windowSize = windowSize.toMillis();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public WindowStore<Bytes, byte[]> get() {
+        return new PrimitiveWindowStore(name, retentionPeriod, windowSize);
+    }
+
+    @Override
+    public String metricsScope() {
+        return "primitive-window";
+    }
+
+    @Override
+    public long segmentIntervalMs() {
+        // One segment per window
+        return windowSize;
+    }
+
+    @Override
+    public long windowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public boolean retainDuplicates() {
+        return false;
+    }
+
+    @Override
+    public long retentionPeriod() {
+        return retentionPeriod;
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.realtime.processor.store;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.processor.StateStoreContext;
+import org.apache.kafka.streams.query.Position;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory window store for tumbling windows: one {@link WindowSegment} hash table per
+ * window start, held in a sorted map.
+ *
+ * Compared with the RocksDB store there is no JNI call, memtable or compaction per update, and
+ * expiring a window drops its whole segment at once instead of deleting keys one by one.
+ * Durability comes from the changelog topic that Kafka Streams writes in front of this store;
+ * on startup the store is rebuilt from it through the registered restore callback.
+ *
+ * Writes come from the stream thread and reads may also come from interactive queries, so
+ * access is guarded by a read/write lock. Iterators work on a snapshot taken under the lock.
+ */
+public class PrimitiveWindowStore implements WindowStore<Bytes, byte[]> {
+
+    private static final Logger log = LoggerFactory.getLogger(PrimitiveWindowStore.class);
+
+    // Changelog keys are [key][8-byte window start][4-byte sequence number]
+    private static final int CHANGELOG_SUFFIX = Long.BYTES + Integer.BYTES;
+
+    private final String name;
+    private final long retentionPeriod;
+    private final long windowSize;
+
+    private final NavigableMap<Long, WindowSegment> segments = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Position position = Position.emptyPosition();
+
+    private StateStoreContext context;
+    private long observedStreamTime = Long.MIN_VALUE;
+    private long expiredRecords;
+    private volatile boolean open;
+
+    public PrimitiveWindowStore(String name, long retentionPeriod, long windowSize) {
+        this.name = name;
+        this.retentionPeriod = retentionPeriod;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Deprecated
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        context.register(root, this::restore);
+        open = true;
+    }
+
+    @Override
+    public void init(StateStoreContext context, StateStore root) {
+        this.context = context;
+        context.register(root, this::restore);
+        open = true;
+    }
+
+    @Override
+    public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+        lock.writeLock().lock();
+        try {
+            putInternal(key, value, windowStartTimestamp);
+            if (context != null) {
+                context.recordMetadata().ifPresent(m -> position.withComponent(m.topic(), m.partition(), m.offset()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void restore(byte[] changelogKey, byte[] value) {
+        int keyLength = changelogKey.length - CHANGELOG_SUFFIX;
+        long windowStart = ByteBuffer.wrap(changelogKey, keyLength, Long.BYTES).getLong();
+        Bytes key = Bytes.wrap(Arrays.copyOf(changelogKey, keyLength));
+
+        lock.writeLock().lock();
+        try {
+            putInternal(key, value, windowStart);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putInternal(Bytes key, byte[] value, long windowStart) {
+        if (windowStart > observedStreamTime) {
+            observedStreamTime = windowStart;
+            // Whole windows fall out of retention together
+            segments.headMap(observedStreamTime - retentionPeriod, true).clear();
+        }
+        if (windowStart <= observedStreamTime - retentionPeriod) {
+            if (++expiredRecords % 1000 == 1) {
+                log.warn("Store {}: skipped {} writes to expired windows", name, expiredRecords);
+            }
+            return;
+        }
+
+        WindowSegment segment = segments.get(windowStart);
+        if (segment == null) {
+            if (value == null) {
+                return;
+            }
+            segment = new WindowSegment();
+            segments.put(windowStart, segment);
+        }
+        segment.put(key, value);
+    }
+
+    @Override
+    public byte[] fetch(Bytes key, long windowStartTimestamp) {
+        lock.readLock().lock();
+        try {
+            WindowSegment segment = segments.get(windowStartTimestamp);
+            return segment == null ? null : segment.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+        return fetchKey(key, timeFrom, timeTo, false);
+    }
+
+    @Override
+    public WindowStoreIterator<byte[]> backwardFetch(Bytes key, long timeFrom, long timeTo) {
+        return fetchKey(key, timeFrom, timeTo, true);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes keyFrom, Bytes keyTo, long timeFrom, long timeTo) {
+        return fetchRange(keyFrom, keyTo, timeFrom, timeTo, false);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> backwardFetch(Bytes keyFrom, Bytes keyTo, long timeFrom, long timeTo) {
+        return fetchRange(keyFrom, keyTo, timeFrom, timeTo, true);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+        return fetchRange(null, null, timeFrom, timeTo, false);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> backwardFetchAll(long timeFrom, long timeTo) {
+        return fetchRange(null, null, timeFrom, timeTo, true);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+        return fetchRange(null, null, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> backwardAll() {
+        return fetchRange(null, null, Long.MIN_VALUE, Long.MAX_VALUE, true);
+    }
+
+    private WindowStoreIterator<byte[]> fetchKey(Bytes key, long timeFrom, long timeTo, boolean backward) {
+        List<KeyValue<Long, byte[]>> result = new ArrayList<>();
+        if (timeFrom <= timeTo) {
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<Long, WindowSegment> entry : window(timeFrom, timeTo, backward).entrySet()) {
+                    byte[] value = entry.getValue().get(key);
+                    if (value != null) {
+                        result.add(KeyValue.pair(entry.getKey(), value));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return new SnapshotWindowIterator(result);
+    }
+
+    private KeyValueIterator<Windowed<Bytes>, byte[]> fetchRange(Bytes keyFrom, Bytes keyTo,
+                                                               long timeFrom, long timeTo, boolean backward) {
+        List<KeyValue<Windowed<Bytes>, byte[]>> result = new ArrayList<>();
+        if (timeFrom <= timeTo && (keyFrom == null || keyTo == null || keyFrom.compareTo(keyTo) <= 0)) {
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<Long, WindowSegment> entry : window(timeFrom, timeTo, backward).entrySet()) {
+                    long start = entry.getKey();
+                    TimeWindow window = new TimeWindow(start, start + windowSize);
+                    List<KeyValue<Bytes, byte[]>> entries = entry.getValue().range(keyFrom, keyTo);
+                    for (int i = 0; i < entries.size(); i++) {
+                        KeyValue<Bytes, byte[]> kv = entries.get(backward ? entries.size() - 1 - i : i);
+                        result.add(KeyValue.pair(new Windowed<>(kv.key, window), kv.value));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return new SnapshotIterator<>(result);
+    }
+
+    private NavigableMap<Long, WindowSegment> window(long timeFrom, long timeTo, boolean backward) {
+        NavigableMap<Long, WindowSegment> window = segments.subMap(timeFrom, true, timeTo, true);
+        return backward ? window.descendingMap() : window;
+    }
+
+    @Override
+    public void flush() {
+        // Nothing to do: durability comes from the changelog
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            segments.clear();
+            open = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean persistent() {
+        return false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Position getPosition() {
+        return position;
+    }
+
+    private static class SnapshotIterator<K> implements KeyValueIterator<K, byte[]> {
+        private final List<KeyValue<K, byte[]>> entries;
+        private int next;
+
+        SnapshotIterator(List<KeyValue<K, byte[]>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < entries.size();
+        }
+
+        @Override
+        public KeyValue<K, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return entries.get(next++);
+        }
+
+        @Override
+        public K peekNextKey() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return entries.get(next).key;
+        }
+
+        @Override
+        public void close() {
+            // Snapshot, nothing to release
+        }
+    }
+
+    private static final class SnapshotWindowIterator extends SnapshotIterator<Long> implements WindowStoreIterator<byte[]> {
+        SnapshotWindowIterator(List<KeyValue<Long, byte[]>> entries) {
+            super(entries);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.realtime.processor.store;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keys and values of one window: an open-addressing table (linear probing) over parallel int
+ * arrays, pointing into two flat byte slabs that hold the keys and values back to back. A lookup
+ * is a masked index, an int compare and, on a hash match, one byte-range compare; a window of
+ * any size costs a handful of arrays rather than two objects per entry.
+ *
+ * A value rewritten with the same length is overwritten in place; any other is appended and its
+ * old bytes become garbage, reclaimed when the value slab would otherwise grow. Deleting a key
+ * only marks its value; the slot and key bytes are reclaimed when the table grows, and the whole
+ * segment is dropped when its window expires. Reads copy out of the slabs, so callers never see
+ * bytes that a later write moves or overwrites.
+ *
+ * Not thread-safe; {@link PrimitiveWindowStore} guards it.
+ */
+final class WindowSegment {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_SLAB = 4096;
+
+    // Per slot; keyLengths is -1 for a free slot, valueLengths -1 for a deleted key
+    private int[] hashes;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private int[] valueOffsets;
+    private int[] valueLengths;
+    // Occupied slots, including deleted keys
+    private int used;
+
+    private byte[] keySlab = new byte[INITIAL_SLAB];
+    private int keyEnd;
+    private byte[] valueSlab = new byte[INITIAL_SLAB];
+    private int valueEnd;
+    // Bytes of values that were replaced or deleted
+    private int valueGarbage;
+
+    WindowSegment() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    byte[] get(Bytes key) {
+        int i = find(key.get(), hash(key));
+        if (i < 0 || valueLengths[i] < 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(valueSlab, valueOffsets[i], valueOffsets[i] + valueLengths[i]);
+    }
+
+    /** Sets or (with a null value) deletes the value of {@code key}. */
+    void put(Bytes key, byte[] value) {
+        byte[] keyBytes = key.get();
+        int hash = hash(key);
+        int mask = hashes.length - 1;
+        int i = hash & mask;
+        for (; keyLengths[i] >= 0; i = (i + 1) & mask) {
+            if (hashes[i] == hash && keyEquals(i, keyBytes)) {
+                setValue(i, value);
+                return;
+            }
+        }
+        if (value == null) {
+            return;
+        }
+        ensureKeyRoom(keyBytes.length);
+        System.arraycopy(keyBytes, 0, keySlab, keyEnd, keyBytes.length);
+        hashes[i] = hash;
+        keyOffsets[i] = keyEnd;
+        keyLengths[i] = keyBytes.length;
+        keyEnd += keyBytes.length;
+        valueLengths[i] = -1;
+        setValue(i, value);
+        // Keep the load factor at or below 1/2 so probe chains stay short
+        if (++used * 2 > hashes.length) {
+            rehash();
+        }
+    }
+
+    /** Live entries with {@code keyFrom <= key <= keyTo} (null bounds are open), in key order. */
+    List<KeyValue<Bytes, byte[]>> range(Bytes keyFrom, Bytes keyTo) {
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            if (keyLengths[i] >= 0 && valueLengths[i] >= 0
+                    && (keyFrom == null || compareKey(i, keyFrom.get()) >= 0)
+                    && (keyTo == null || compareKey(i, keyTo.get()) <= 0)) {
+                slots.add(i);
+            }
+        }
+        // Unsigned lexicographic, as Bytes.compareTo
+        slots.sort((a, b) -> Arrays.compareUnsigned(keySlab, keyOffsets[a], keyOffsets[a] + keyLengths[a],
+                keySlab, keyOffsets[b], keyOffsets[b] + keyLengths[b]));
+        List<KeyValue<Bytes, byte[]>> result = new ArrayList<>(slots.size());
+        for (int i : slots) {
+            result.add(KeyValue.pair(
+                    Bytes.wrap(Arrays.copyOfRange(keySlab, keyOffsets[i], keyOffsets[i] + keyLengths[i])),
+                    Arrays.copyOfRange(valueSlab, valueOffsets[i], valueOffsets[i] + valueLengths[i])));
+        }
+        return result;
+    }
+
+    private int find(byte[] key, int hash) {
+        int mask = hashes.length - 1;
+        for (int i = hash & mask; keyLengths[i] >= 0; i = (i + 1) & mask) {
+            if (hashes[i] == hash && keyEquals(i, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void setValue(int i, byte[] value) {
+        int old = valueLengths[i];
+        if (value == null) {
+            if (old >= 0) {
+                valueGarbage += old;
+                valueLengths[i] = -1;
+            }
+            return;
+        }
+        if (old == value.length) {
+            System.arraycopy(value, 0, valueSlab, valueOffsets[i], value.length);
+            return;
+        }
+        if (old >= 0) {
+            // Out of the live bytes before the slab is compacted, so the old value is not copied
+            valueGarbage += old;
+            valueLengths[i] = -1;
+        }
+        ensureValueRoom(value.length);
+        System.arraycopy(value, 0, valueSlab, valueEnd, value.length);
+        valueOffsets[i] = valueEnd;
+        valueLengths[i] = value.length;
+        valueEnd += value.length;
+    }
+
+    private void ensureKeyRoom(int length) {
+        if (keyEnd + length > keySlab.length) {
+            keySlab = Arrays.copyOf(keySlab, grow(keySlab.length, keyEnd + length));
+        }
+    }
+
+    // Compacts instead of growing when at least half of the slab is garbage
+    private void ensureValueRoom(int length) {
+        if (valueEnd + length <= valueSlab.length) {
+            return;
+        }
+        int live = valueEnd - valueGarbage;
+        if (valueGarbage * 2 >= valueEnd) {
+            compactValues(grow(INITIAL_SLAB, live + length));
+        } else {
+            valueSlab = Arrays.copyOf(valueSlab, grow(valueSlab.length, valueEnd + length));
+        }
+    }
+
+    private void compactValues(int capacity) {
+        byte[] slab = new byte[capacity];
+        int end = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (keyLengths[i] >= 0 && valueLengths[i] >= 0) {
+                System.arraycopy(valueSlab, valueOffsets[i], slab, end, valueLengths[i]);
+                valueOffsets[i] = end;
+                end += valueLengths[i];
+            }
+        }
+        valueSlab = slab;
+        valueEnd = end;
+        valueGarbage = 0;
+    }
+
+    private void rehash() {
+        int[] oldHashes = hashes;
+        int[] oldKeyOffsets = keyOffsets;
+        int[] oldKeyLengths = keyLengths;
+        int[] oldValueOffsets = valueOffsets;
+        int[] oldValueLengths = valueLengths;
+        byte[] oldKeySlab = keySlab;
+        byte[] oldValueSlab = valueSlab;
+
+        int live = 0;
+        int liveKeyBytes = 0;
+        for (int j = 0; j < oldHashes.length; j++) {
+            if (oldKeyLengths[j] >= 0 && oldValueLengths[j] >= 0) {
+                live++;
+                liveKeyBytes += oldKeyLengths[j];
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < live * 4) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        // Deleted keys and replaced values are left behind
+        keySlab = new byte[grow(INITIAL_SLAB, liveKeyBytes)];
+        keyEnd = 0;
+        valueSlab = new byte[grow(INITIAL_SLAB, valueEnd - valueGarbage)];
+        valueEnd = 0;
+        valueGarbage = 0;
+
+        int mask = capacity - 1;
+        for (int j = 0; j < oldHashes.length; j++) {
+            if (oldKeyLengths[j] < 0 || oldValueLengths[j] < 0) {
+                continue;
+            }
+            int i = oldHashes[j] & mask;
+            while (keyLengths[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = oldHashes[j];
+            System.arraycopy(oldKeySlab, oldKeyOffsets[j], keySlab, keyEnd, oldKeyLengths[j]);
+            keyOffsets[i] = keyEnd;
+            keyLengths[i] = oldKeyLengths[j];
+            keyEnd += oldKeyLengths[j];
+            System.arraycopy(oldValueSlab, oldValueOffsets[j], valueSlab, valueEnd, oldValueLengths[j]);
+            valueOffsets[i] = valueEnd;
+            valueLengths[i] = oldValueLengths[j];
+            valueEnd += oldValueLengths[j];
+            used++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        valueOffsets = new int[capacity];
+        valueLengths = new int[capacity];
+        Arrays.fill(keyLengths, -1);
+        used = 0;
+    }
+
+    private boolean keyEquals(int i, byte[] key) {
+        return Arrays.equals(keySlab, keyOffsets[i], keyOffsets[i] + keyLengths[i], key, 0, key.length);
+    }
+
+    private int compareKey(int i, byte[] key) {
+        return Arrays.compareUnsigned(keySlab, keyOffsets[i], keyOffsets[i] + keyLengths[i], key, 0, key.length);
+    }
+
+    // Doubles from, at least, the initial slab size until needed fits
+    private static int grow(int from, int needed) {
+        int capacity = Math.max(from, INITIAL_SLAB);
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(Bytes key) {
+        // Bytes caches its hashCode; spread it so low bits depend on all of it
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,15 @@
+-- One row per metric, resolution and window; AggregateRepository upserts into it
+CREATE TABLE IF NOT EXISTS aggregate_windows (
+    metric_id    TEXT             NOT NULL,
+    resolution   TEXT             NOT NULL,
+    window_start TIMESTAMPTZ      NOT NULL,
+    window_end   TIMESTAMPTZ      NOT NULL,
+    count        BIGINT           NOT NULL,
+    sum          DOUBLE PRECISION NOT NULL,
+    max          DOUBLE PRECISION NOT NULL,
+    p50          DOUBLE PRECISION NOT NULL,
+    p95          DOUBLE PRECISION NOT NULL,
+    p99          DOUBLE PRECISION NOT NULL,
+    updated_at   TIMESTAMPTZ      NOT NULL DEFAULT now(),
+    PRIMARY KEY (metric_id, resolution, window_start)
+);
@@ -0,0 +1,27 @@
+-- Applies one partition's share of a batch: pre-aggregated counter deltas, then one update per key.
+-- KEYS[1]   = stats-offset:<topic>-<partition>, the last offset applied for the partition
+-- KEYS[i]   = stats:<userId>:<eventType>, for i >= 2
+-- ARGV[1]   = pub/sub channel
+-- ARGV[2]   = first offset the deltas cover
+-- ARGV[3]   = last offset the deltas cover
+-- ARGV[i+2] = delta for KEYS[i]
+-- The keys span hash slots, so the script needs a single Redis node (not Redis Cluster).
+-- Deltas starting at or before the stored offset were (at least partly) applied already and are
+-- refused; the caller then re-folds the records past the stored offset and calls again.
+-- Each message is {"key": ..., "delta": ..., "count": ...}.
+-- Returns the stored offset before the call (-1 if none), then the new counter values in KEYS order.
+local applied = tonumber(redis.call('GET', KEYS[1]) or '-1')
+if applied >= tonumber(ARGV[2]) then
+    return {applied}
+end
+local channel = ARGV[1]
+local result = {applied}
+for i = 2, #KEYS do
+    local key = KEYS[i]
+    local delta = tonumber(ARGV[i + 2])
+    local count = redis.call('INCRBY', key, delta)
+    result[i] = count
+    redis.call('PUBLISH', channel, cjson.encode({key = key, delta = delta, count = count}))
+end
+redis.call('SET', KEYS[1], ARGV[3])
+return result
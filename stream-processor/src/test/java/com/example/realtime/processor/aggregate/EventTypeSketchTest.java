@@ -0,0 +1,58 @@
+package com.example.realtime.processor.aggregate;
+
+import com.example.realtime.common.dto.TopUsersDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventTypeSketchTest {
+
+    @Test
+    public void distinctUsersIsWithinFivePercent() {
+        for (int users : new int[] {10, 1_000, 100_000}) {
+            byte[] state = EventTypeSketch.newState(10);
+            for (int i = 0; i < users; i++) {
+                // Every user twice: duplicates must not be counted
+                EventTypeSketch.add(state, "user_" + i);
+                EventTypeSketch.add(state, "user_" + i);
+            }
+
+            long estimate = EventTypeSketch.distinctUsers(state);
+            assertTrue(Math.abs(estimate - users) <= Math.max(1, users * 0.05), users + " users, estimate " + estimate);
+            assertEquals(2L * users, EventTypeSketch.count(state));
+        }
+    }
+
+    @Test
+    public void topUsersFindsHeavyHittersAmongNoise() {
+        byte[] state = EventTypeSketch.newState(3);
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 50; i++) {
+                EventTypeSketch.add(state, "noise_" + (round * 50 + i));
+            }
+            for (int j = 0; j < 3; j++) EventTypeSketch.add(state, "hot_a");
+            for (int j = 0; j < 2; j++) EventTypeSketch.add(state, "hot_b");
+            EventTypeSketch.add(state, "hot_c");
+        }
+
+        List<TopUsersDTO.UserCount> top = EventTypeSketch.topUsers(state);
+
+        assertEquals(List.of("hot_a", "hot_b", "hot_c"), top.stream().map(TopUsersDTO.UserCount::getUserId).toList());
+        // Count-min never undercounts
+        assertTrue(top.get(0).getCount() >= 600);
+    }
+
+    @Test
+    public void oversizedKeysAreCountedButNotRanked() {
+        byte[] state = EventTypeSketch.newState(2);
+        String longId = "x".repeat(TopKSketch.MAX_KEY_BYTES + 1);
+        EventTypeSketch.add(state, longId);
+        EventTypeSketch.add(state, "short");
+
+        assertEquals(2, EventTypeSketch.count(state));
+        assertEquals(List.of("short"), EventTypeSketch.topUsers(state).stream().map(TopUsersDTO.UserCount::getUserId).toList());
+    }
+}
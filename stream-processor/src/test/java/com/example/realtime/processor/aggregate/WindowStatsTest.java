@@ -0,0 +1,72 @@
+package com.example.realtime.processor.aggregate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class WindowStatsTest {
+
+    @Test
+    public void tracksCountSumAndMax() {
+        byte[] state = WindowStats.newState();
+        WindowStats.add(state, 2.0);
+        WindowStats.add(state, 10.0);
+        WindowStats.addCount(state);
+
+        assertEquals(3, WindowStats.count(state));
+        assertEquals(2, WindowStats.valueCount(state));
+        assertEquals(12.0, WindowStats.sum(state));
+        assertEquals(10.0, WindowStats.max(state));
+    }
+
+    @Test
+    public void updatesInPlace() {
+        byte[] state = WindowStats.newState();
+        assertSame(state, WindowStats.add(state, 1.0));
+        assertSame(state, WindowStats.addCount(state));
+        assertEquals(WindowStats.SIZE, state.length);
+    }
+
+    @Test
+    public void quantilesAreWithinRelativeErrorOfExactValues() {
+        byte[] state = WindowStats.newState();
+        for (int i = 1; i <= 10_000; i++) {
+            WindowStats.add(state, i);
+        }
+
+        assertEquals(5_000, WindowStats.quantile(state, 0.50), 5_000 * 0.05);
+        assertEquals(9_500, WindowStats.quantile(state, 0.95), 9_500 * 0.05);
+        assertEquals(9_900, WindowStats.quantile(state, 0.99), 9_900 * 0.05);
+    }
+
+    @Test
+    public void mergeMatchesAddingEverythingToOneState() {
+        Random random = new Random(42);
+        byte[] left = WindowStats.newState();
+        byte[] right = WindowStats.newState();
+        byte[] all = WindowStats.newState();
+        for (int i = 0; i < 5_000; i++) {
+            double value = Math.exp(random.nextGaussian() * 2);
+            WindowStats.add(i % 2 == 0 ? left : right, value);
+            WindowStats.add(all, value);
+        }
+
+        WindowStats.merge(left, right);
+
+        assertEquals(WindowStats.count(all), WindowStats.count(left));
+        assertEquals(WindowStats.sum(all), WindowStats.sum(left), 1e-6);
+        assertEquals(WindowStats.max(all), WindowStats.max(left));
+        assertEquals(WindowStats.quantile(all, 0.99), WindowStats.quantile(left, 0.99));
+    }
+
+    @Test
+    public void emptyWindowReportsZeroes() {
+        byte[] state = WindowStats.addCount(WindowStats.newState());
+
+        assertEquals(0, WindowStats.max(state));
+        assertEquals(0, WindowStats.quantile(state, 0.5));
+    }
+}
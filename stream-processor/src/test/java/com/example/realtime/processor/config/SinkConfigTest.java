@@ -0,0 +1,49 @@
+package com.example.realtime.processor.config;
+
+import org.junit.jupiter.api.Test;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.actuate.autoconfigure.health.HealthContributorAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.jdbc.DataSourceHealthContributorAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SinkConfigTest {
+
+    // As in the application: DataSourceAutoConfiguration excluded, the rest of the JDBC and health setup on
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(JdbcTemplateAutoConfiguration.class,
+                    HealthContributorAutoConfiguration.class, DataSourceHealthContributorAutoConfiguration.class))
+            .withUserConfiguration(SinkConfig.class)
+            // Converts "1s" and the like for @Value, as SpringApplication does
+            .withInitializer(context -> context.getBeanFactory()
+                    .setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withBean(KafkaProperties.class)
+            .withPropertyValues("spring.datasource.url=jdbc:postgresql://localhost:5432/realtime",
+                    "spring.datasource.hikari.maximum-pool-size=4");
+
+    @Test
+    public void noDataSourceOrDbHealthCheckWithoutTheSink() {
+        runner.withPropertyValues("app.sink.enabled=false").run(context -> {
+            assertThat(context).doesNotHaveBean(DataSource.class);
+            assertThat(context).doesNotHaveBean("dbHealthContributor");
+        });
+    }
+
+    @Test
+    public void sinkBringsItsDataSource() {
+        runner.withPropertyValues("app.sink.enabled=true").run(context -> {
+            assertThat(context).hasSingleBean(DataSource.class);
+            assertThat(context).hasSingleBean(JdbcTemplate.class);
+            assertThat(context).hasBean("dbHealthContributor");
+            assertThat(context.getBean(HikariDataSource.class).getMaximumPoolSize()).isEqualTo(4);
+        });
+    }
+}
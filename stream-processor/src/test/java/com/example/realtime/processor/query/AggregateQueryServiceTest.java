@@ -0,0 +1,143 @@
+package com.example.realtime.processor.query;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.processor.config.StreamsProperties;
+import com.example.realtime.processor.service.StreamsTopologyService;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class AggregateQueryServiceTest {
+
+    private static final HostInfo SELF = new HostInfo("10.0.0.1", 8081);
+    private static final HostInfo OTHER = new HostInfo("10.0.0.2", 8081);
+
+    private final KafkaStreams streams = mock(KafkaStreams.class);
+    @SuppressWarnings("unchecked")
+    private final ReadOnlyWindowStore<String, Object> store = mock(ReadOnlyWindowStore.class);
+
+    private AggregateQueryService service;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    public void setUp() {
+        StreamsBuilderFactoryBean factoryBean = mock(StreamsBuilderFactoryBean.class);
+        when(factoryBean.getKafkaStreams()).thenReturn(streams);
+        when(streams.state()).thenReturn(KafkaStreams.State.RUNNING);
+        when(streams.store(any(StoreQueryParameters.class))).thenReturn(store);
+
+        RestClient.Builder builder = RestClient.builder();
+        server = MockRestServiceServer.bindTo(builder).build();
+        service = new AggregateQueryService(factoryBean, new StreamsProperties(), builder, SELF,
+                100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void localKeyIncludesTheWindowRunningIntoFrom() {
+        owner("alice", SELF);
+        when(store.fetch(eq("alice"), eq(Instant.ofEpochMilli(60_000)), eq(Instant.ofEpochMilli(180_000))))
+                .thenReturn(windows(KeyValue.pair(60_000L, 4L), KeyValue.pair(120_000L, 2L)));
+
+        // from falls in the middle of the window starting at 60s
+        List<AggregateDTO> result = service.query("alice", "1m",
+                Instant.ofEpochMilli(90_000), Instant.ofEpochMilli(200_000), false);
+
+        assertEquals(2, result.size());
+        assertEquals(Instant.ofEpochMilli(60_000), result.get(0).getWindowStart());
+        assertEquals(Instant.ofEpochMilli(120_000), result.get(0).getWindowEnd());
+        assertEquals(4, result.get(0).getCount());
+        assertEquals(2, result.get(1).getCount());
+    }
+
+    @Test
+    public void remoteKeyIsForwardedOnceToItsOwner() {
+        owner("a|b", OTHER);
+        server.expect(ExpectedCount.once(), requestTo("http://10.0.0.2:8081/aggregates/a%7Cb?resolution=1m"
+                        + "&from=1970-01-01T00%3A01%3A00Z&to=1970-01-01T00%3A03%3A00Z&local=true"))
+                .andRespond(withSuccess("[{\"metricId\":\"a|b\",\"count\":5}]", MediaType.APPLICATION_JSON));
+
+        List<AggregateDTO> first = service.query("a|b", "1m", Instant.ofEpochMilli(90_000), Instant.ofEpochMilli(200_000), false);
+        // Same windows: served from the cache
+        List<AggregateDTO> second = service.query("a|b", "1m", Instant.ofEpochMilli(60_000), Instant.ofEpochMilli(180_000), false);
+
+        server.verify();
+        assertEquals(5, first.get(0).getCount());
+        assertEquals(first, second);
+        verify(streams, never()).store(any(StoreQueryParameters.class));
+    }
+
+    @Test
+    public void forwardedQueryIsReadLocallyWithoutRouting() {
+        when(store.fetch(eq("alice"), any(Instant.class), any(Instant.class)))
+                .thenReturn(windows(KeyValue.pair(60_000L, 1L)));
+
+        List<AggregateDTO> result = service.query("alice", "1m",
+                Instant.ofEpochMilli(60_000), Instant.ofEpochMilli(60_000), true);
+
+        assertEquals(1, result.size());
+        verify(streams, never()).queryMetadataForKey(any(), any(), any(Serializer.class));
+    }
+
+    @Test
+    public void cacheKeysOfDifferentUsersNeverCollide() {
+        owner("a|1m", SELF);
+        owner("a", SELF);
+        when(store.fetch(eq("a|1m"), any(Instant.class), any(Instant.class))).thenReturn(windows(KeyValue.pair(0L, 1L)));
+        when(store.fetch(eq("a"), any(Instant.class), any(Instant.class))).thenReturn(windows(KeyValue.pair(0L, 2L)));
+
+        assertEquals(1, service.query("a|1m", "1m", Instant.EPOCH, Instant.EPOCH, false).get(0).getCount());
+        assertEquals(2, service.query("a", "1m", Instant.EPOCH, Instant.EPOCH, false).get(0).getCount());
+    }
+
+    @Test
+    public void rejectsReversedRangesWithinOneWindow() {
+        assertThrows(IllegalArgumentException.class, () -> service.query("alice", "1m",
+                Instant.ofEpochMilli(50_000), Instant.ofEpochMilli(10_000), false));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void owner(String userId, HostInfo host) {
+        when(streams.queryMetadataForKey(eq(StreamsTopologyService.COUNT_STORE), eq(userId), any(Serializer.class)))
+                .thenReturn(new KeyQueryMetadata(host, Set.of(), 0));
+    }
+
+    @SafeVarargs
+    private static WindowStoreIterator<Object> windows(KeyValue<Long, Object>... windows) {
+        Iterator<KeyValue<Long, Object>> it = List.of(windows).iterator();
+        return new WindowStoreIterator<>() {
+            @Override public boolean hasNext() { return it.hasNext(); }
+            @Override public KeyValue<Long, Object> next() { return it.next(); }
+            @Override public Long peekNextKey() { throw new UnsupportedOperationException(); }
+            @Override public void close() {}
+        };
+    }
+}
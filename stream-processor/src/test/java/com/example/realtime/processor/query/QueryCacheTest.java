@@ -0,0 +1,41 @@
+package com.example.realtime.processor.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class QueryCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyReadEntry() {
+        QueryCache<String, String> cache = new QueryCache<>(2, Duration.ofMinutes(1));
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() {
+        AtomicLong now = new AtomicLong();
+        QueryCache<String, String> cache = new QueryCache<>(10, Duration.ofSeconds(1), now::get);
+        cache.put("a", "A");
+
+        now.addAndGet(Duration.ofMillis(999).toNanos());
+        assertEquals("A", cache.get("a"));
+        now.addAndGet(Duration.ofMillis(1).toNanos());
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
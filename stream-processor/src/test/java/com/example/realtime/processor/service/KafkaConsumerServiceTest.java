@@ -0,0 +1,171 @@
+package com.example.realtime.processor.service;
+
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.processor.config.KafkaConsumerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KafkaConsumerServiceTest {
+
+    private static final String ALICE_CLICKS = "stats:alice:click";
+
+    // Stands in for Redis running scripts/flush-stats.lua
+    private final Map<String, Long> redis = new HashMap<>();
+    private final List<List<String>> calls = new ArrayList<>();
+    private int failingCalls;
+
+    private final KafkaConsumerService service = service();
+
+    @Test
+    public void foldsABatchIntoOneScriptCallPerPartition() {
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        service.consumeEventBatch(List.of(
+                record(0, 0, "alice", "click"),
+                record(1, 0, "bob", "click"),
+                record(0, 1, "alice", "click"),
+                record(0, 2, null, null),
+                record(0, 3, "alice", "view")), ack);
+
+        assertEquals(2, calls.size());
+        assertEquals(List.of("stats-offset:events-0", ALICE_CLICKS, "stats:alice:view"),
+                calls.get(0).stream().sorted().toList());
+        assertEquals(2L, redis.get(ALICE_CLICKS));
+        assertEquals(1L, redis.get("stats:alice:view"));
+        assertEquals(1L, redis.get("stats:bob:click"));
+        assertEquals(3L, redis.get("stats-offset:events-0"));
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    public void redeliveredRecordsAreCountedOnce() {
+        service.consumeEventBatch(List.of(record(0, 0, "alice", "click"), record(0, 1, "alice", "click")),
+                mock(Acknowledgment.class));
+
+        // Offsets were not committed: the next poll starts over and goes further
+        service.consumeEventBatch(List.of(
+                record(0, 0, "alice", "click"),
+                record(0, 1, "alice", "click"),
+                record(0, 2, "alice", "click")), mock(Acknowledgment.class));
+        service.consumeEventBatch(List.of(record(0, 2, "alice", "click")), mock(Acknowledgment.class));
+
+        assertEquals(3L, redis.get(ALICE_CLICKS));
+        assertEquals(2L, redis.get("stats-offset:events-0"));
+    }
+
+    @Test
+    public void countersDoNotDependOnThePartition() {
+        // Same user on another partition, e.g. after partitions were added
+        service.consumeEventBatch(List.of(record(0, 0, "alice", "click"), record(1, 0, "alice", "click")),
+                mock(Acknowledgment.class));
+
+        assertEquals(2L, redis.get(ALICE_CLICKS));
+        assertEquals(0L, redis.get("stats-offset:events-0"));
+        assertEquals(0L, redis.get("stats-offset:events-1"));
+    }
+
+    @Test
+    public void failedFlushIsNotAcknowledged() {
+        Acknowledgment ack = mock(Acknowledgment.class);
+        failingCalls = 1;
+
+        assertThrows(IllegalStateException.class,
+                () -> service.consumeEventBatch(List.of(record(0, 0, "alice", "click")), ack));
+
+        verify(ack, never()).acknowledge();
+        service.consumeEventBatch(List.of(record(0, 0, "alice", "click")), ack);
+        assertEquals(1L, redis.get(ALICE_CLICKS));
+    }
+
+    @Test
+    public void failingFlushIsRetriedUntilRedisIsBack() {
+        Acknowledgment ack = mock(Acknowledgment.class);
+        List<ConsumerRecord<String, EventDTO>> batch = List.of(record(0, 0, "alice", "click"));
+        // Longer than the ten attempts after which the default handler skips a batch
+        failingCalls = 20;
+        Exception thrown = new ListenerExecutionFailedException("flush failed",
+                assertThrows(IllegalStateException.class, () -> service.consumeEventBatch(batch, ack)));
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.poll(any(Duration.class))).thenReturn(ConsumerRecords.empty());
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(container.isRunning()).thenReturn(true);
+
+        KafkaConsumerConfig.retryingErrorHandler(Duration.ofMillis(1), Duration.ofMillis(1)).handleBatch(thrown,
+                new ConsumerRecords<>(Map.of(new TopicPartition("events", 0), batch)), consumer, container,
+                () -> service.consumeEventBatch(batch, ack));
+
+        assertEquals(0, failingCalls);
+        assertEquals(1L, redis.get(ALICE_CLICKS));
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    public void recordModeSkipsUnreadableRecords() {
+        service.consumeEvents(record(0, 0, null, null));
+        service.consumeEvents(record(0, 1, "alice", "click"));
+        service.consumeEvents(record(0, 1, "alice", "click"));
+
+        // No call for the null value; the repeat is refused by the offset guard
+        assertEquals(2, calls.size());
+        assertEquals(1L, redis.get(ALICE_CLICKS));
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private KafkaConsumerService service() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        RedisScript<List> script = mock(RedisScript.class);
+        doAnswer(invocation -> {
+            if (failingCalls > 0) {
+                failingCalls--;
+                throw new IllegalStateException("Redis unavailable");
+            }
+            List<String> keys = invocation.getArgument(1);
+            Object[] args = Arrays.copyOfRange(invocation.getArguments(), 2, invocation.getArguments().length);
+            calls.add(keys);
+            long applied = redis.getOrDefault(keys.get(0), -1L);
+            List<Long> result = new ArrayList<>(List.of(applied));
+            if (applied >= Long.parseLong((String) args[1])) {
+                return result;
+            }
+            for (int i = 1; i < keys.size(); i++) {
+                result.add(redis.merge(keys.get(i), Long.parseLong((String) args[i + 2]), Long::sum));
+            }
+            redis.put(keys.get(0), Long.parseLong((String) args[2]));
+            return result;
+        }).when(template).execute(any(RedisScript.class), anyList(), any(Object[].class));
+        return new KafkaConsumerService(template, new ChannelTopic("live-updates"), script, new SimpleMeterRegistry());
+    }
+
+    private static ConsumerRecord<String, EventDTO> record(int partition, long offset, String userId, String eventType) {
+        EventDTO event = userId == null ? null : new EventDTO(eventType, userId, Instant.EPOCH, null);
+        return new ConsumerRecord<>("events", partition, offset, userId, event);
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.realtime.processor.service;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.common.dto.DistinctUsersDTO;
+import com.example.realtime.common.dto.EventDTO;
+import com.example.realtime.common.dto.TopUsersDTO;
+import com.example.realtime.common.serde.AggregateSerde;
+import com.example.realtime.common.serde.EventSerde;
+import com.example.realtime.common.serde.JsonSerde;
+import com.example.realtime.processor.config.StreamsProperties;
+import com.example.realtime.common.serde.EventTimeHeader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.internals.WrappedStateStore;
+import org.apache.kafka.streams.test.TestRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamsTopologyServiceTest {
+
+    private static final Instant T0 = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    public void onUpdateEmitsEveryChange() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.ON_UPDATE);
+
+        List<AggregateDTO> out = run(props, 5);
+
+        assertEquals(5, out.size());
+        assertEquals(5, out.get(4).getCount());
+    }
+
+    @Test
+    public void finalEmitsOncePerWindowAfterItCloses() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+
+        List<AggregateDTO> out = run(props, 5);
+
+        assertEquals(1, out.size());
+        assertEquals(5, out.get(0).getCount());
+        assertEquals(T0, out.get(0).getWindowStart());
+    }
+
+    @Test
+    public void everyKEmitsFirstAndEveryKthRecord() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.EVERY_K);
+        props.getAggregation().getEmission().setEveryRecords(2);
+
+        List<AggregateDTO> out = run(props, 5);
+
+        assertEquals(List.of(1L, 2L, 4L), out.stream().map(AggregateDTO::getCount).toList());
+    }
+
+    @Test
+    public void everyKIsExactWithTheProductionRecordCache() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.EVERY_K);
+        props.getAggregation().getEmission().setEveryRecords(3);
+
+        // As in application.yml: 10 MB of cache, committed every 30 s
+        List<AggregateDTO> out = run(props, 7, 10L * 1024 * 1024);
+
+        assertEquals(List.of(1L, 3L, 6L), out.stream().map(AggregateDTO::getCount).toList());
+
+        // The test driver commits after every record, which flushes the cache each time; a real
+        // stream thread would not, so the store itself must not be cached
+        try (TopologyTestDriver driver = driver(props, 10L * 1024 * 1024)) {
+            assertFalse(isCached(driver.getTimestampedWindowStore(StreamsTopologyService.COUNT_STORE)));
+        }
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.ON_UPDATE);
+        try (TopologyTestDriver driver = driver(props, 10L * 1024 * 1024)) {
+            assertTrue(isCached(driver.getTimestampedWindowStore(StreamsTopologyService.COUNT_STORE)));
+        }
+    }
+
+    @Test
+    public void closedWindowsTopicGetsOneRecordPerWindowAtEveryResolution() {
+        StreamsProperties props = new StreamsProperties();
+        // The live topics keep sending every update
+        props.getClosedWindows().setEnabled(true);
+        StreamsProperties.Rollup hourly = new StreamsProperties.Rollup();
+        hourly.setName("1h");
+        hourly.setWindowSize(Duration.ofHours(1));
+        hourly.setTopic("events-aggregated-1h");
+        props.getRollups().add(hourly);
+
+        try (TopologyTestDriver driver = driver(props)) {
+            TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+            TestOutputTopic<String, AggregateDTO> closed = outputTopic(driver, "events-aggregated-closed");
+            for (int second : new int[]{1, 2, 3, 301, 302}) {
+                send(events, "alice", T0.plusSeconds(second));
+            }
+            send(events, "bob", T0.plusSeconds(7200));
+            send(events, "bob", T0.plusSeconds(7400));
+
+            List<AggregateDTO> alice = forUser(closed.readValuesToList(), "alice");
+
+            assertEquals(List.of("1m:3", "1m:2", "1h:5"), alice.stream()
+                    .map(aggregate -> aggregate.getResolution() + ":" + aggregate.getCount()).toList());
+        }
+    }
+
+    @Test
+    public void everyKIsRefusedOnTheHourlyRollup() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.EVERY_K);
+        StreamsProperties.Rollup hourly = new StreamsProperties.Rollup();
+        hourly.setName("1h");
+        hourly.setWindowSize(Duration.ofHours(1));
+        hourly.setTopic("events-aggregated-1h");
+        hourly.getEmission().setMode(StreamsProperties.EmissionMode.EVERY_K);
+        hourly.getEmission().setEveryRecords(2);
+        props.getRollups().add(hourly);
+
+        // Three events a minute would take the hourly count 3, 6, 9...: K=2 would fire at random
+        IllegalStateException refused = assertThrows(IllegalStateException.class, () -> driver(props));
+        assertTrue(refused.getMessage().contains("1h"));
+    }
+
+    @Test
+    public void statsModeAggregatesMetadataValues() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().setMode(StreamsProperties.AggregationMode.STATS);
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+
+        List<AggregateDTO> out = run(props, 4);
+
+        AggregateDTO agg = out.get(0);
+        assertEquals(4, agg.getCount());
+        assertEquals(1 + 2 + 3 + 4, agg.getSum(), 1e-9);
+        assertEquals(4, agg.getMax(), 1e-9);
+    }
+
+    @Test
+    public void hourlyRollupIsBuiltFromClosedMinuteWindows() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+        StreamsProperties.Rollup hourly = new StreamsProperties.Rollup();
+        hourly.setName("1h");
+        hourly.setWindowSize(Duration.ofHours(1));
+        hourly.setTopic("events-aggregated-1h");
+        hourly.getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+        props.getRollups().add(hourly);
+
+        try (TopologyTestDriver driver = driver(props)) {
+            TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+            TestOutputTopic<String, AggregateDTO> minutes = outputTopic(driver, "events-aggregated");
+            TestOutputTopic<String, AggregateDTO> hours = outputTopic(driver, "events-aggregated-1h");
+
+            // 3 events in minute 0, 2 in minute 5, 1 in minute 59
+            for (int second : new int[]{1, 2, 3, 301, 302, 3541}) {
+                send(events, "alice", T0.plusSeconds(second));
+            }
+            // Move stream time far enough for the minute windows and then the hour window to close
+            send(events, "bob", T0.plusSeconds(7200));
+            send(events, "bob", T0.plusSeconds(7400));
+
+            List<AggregateDTO> aliceMinutes = forUser(minutes.readValuesToList(), "alice");
+            List<AggregateDTO> aliceHours = forUser(hours.readValuesToList(), "alice");
+
+            assertEquals(List.of(3L, 2L, 1L), aliceMinutes.stream().map(AggregateDTO::getCount).toList());
+            assertEquals("1m", aliceMinutes.get(0).getResolution());
+            assertEquals(1, aliceHours.size());
+            assertEquals(6, aliceHours.get(0).getCount());
+            assertEquals("1h", aliceHours.get(0).getResolution());
+            assertEquals(T0, aliceHours.get(0).getWindowStart());
+            assertEquals(T0.plus(Duration.ofHours(1)), aliceHours.get(0).getWindowEnd());
+        }
+    }
+
+    @Test
+    public void sketchesPublishDistinctAndTopUsersPerEventType() {
+        StreamsProperties props = new StreamsProperties();
+        props.getSketches().setEnabled(true);
+        props.getSketches().setTopK(2);
+        props.getSketches().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+
+        try (TopologyTestDriver driver = driver(props)) {
+            TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+            for (String user : List.of("alice", "bob", "alice", "carol", "alice", "bob")) {
+                send(events, user, T0.plusSeconds(1));
+            }
+            send(events, "dave", T0.plusSeconds(120));
+
+            DistinctUsersDTO distinct = driver.createOutputTopic(props.getSketches().getDistinctUsersTopic(),
+                    Serdes.String().deserializer(), new JsonSerde<>(DistinctUsersDTO.class).deserializer()).readValue();
+            TopUsersDTO top = driver.createOutputTopic(props.getSketches().getTopUsersTopic(),
+                    Serdes.String().deserializer(), new JsonSerde<>(TopUsersDTO.class).deserializer()).readValue();
+
+            assertEquals("click", distinct.getEventType());
+            assertEquals(6, distinct.getCount());
+            assertEquals(3, distinct.getDistinctUsers());
+            assertEquals(List.of("alice", "bob"), top.getUsers().stream().map(TopUsersDTO.UserCount::getUserId).toList());
+            assertEquals(3, top.getUsers().get(0).getCount());
+        }
+    }
+
+    @Test
+    public void byKeyGroupingCountsKeyedAndRekeyedEventsTogether() {
+        StreamsProperties props = new StreamsProperties();
+        props.getAggregation().setGrouping(StreamsProperties.GroupingMode.BY_KEY);
+        props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+
+        try (TopologyTestDriver driver = driver(props)) {
+            TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+            TestOutputTopic<String, AggregateDTO> aggregates = outputTopic(driver, "events-aggregated");
+
+            send(events, "alice", T0.plusSeconds(1));
+            // A producer that does not key by userId
+            Instant ts = T0.plusSeconds(2);
+            events.pipeInput("some-other-key", new EventDTO("click", "alice", ts, null), ts);
+            events.pipeInput(null, new EventDTO("click", "alice", ts, null), ts);
+            send(events, "bob", T0.plusSeconds(180));
+
+            List<AggregateDTO> out = forUser(aggregates.readValuesToList(), "alice");
+            assertEquals(1, out.size());
+            assertEquals(3, out.get(0).getCount());
+        }
+    }
+
+    @Test
+    public void everyStoreTypeProducesTheSameRollups() {
+        for (StreamsProperties.StoreType storeType : StreamsProperties.StoreType.values()) {
+            StreamsProperties props = new StreamsProperties();
+            props.getAggregation().setStoreType(storeType);
+            props.getAggregation().getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+            StreamsProperties.Rollup hourly = new StreamsProperties.Rollup();
+            hourly.setName("1h");
+            hourly.setWindowSize(Duration.ofHours(1));
+            hourly.setStoreType(storeType);
+            hourly.setTopic("events-aggregated-1h");
+            hourly.getEmission().setMode(StreamsProperties.EmissionMode.FINAL);
+            props.getRollups().add(hourly);
+
+            try (TopologyTestDriver driver = driver(props)) {
+                TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+                TestOutputTopic<String, AggregateDTO> hourlyOut = outputTopic(driver, "events-aggregated-1h");
+                for (int minute = 0; minute < 3; minute++) {
+                    send(events, "alice", T0.plusSeconds(minute * 60L + 1));
+                    send(events, "alice", T0.plusSeconds(minute * 60L + 2));
+                }
+                send(events, "bob", T0.plus(Duration.ofHours(3)));
+                send(events, "bob", T0.plus(Duration.ofHours(4)));
+
+                List<AggregateDTO> out = forUser(hourlyOut.readValuesToList(), "alice");
+                assertEquals(1, out.size(), storeType.name());
+                assertEquals(6, out.get(0).getCount(), storeType.name());
+            }
+        }
+    }
+
+    @Test
+    public void clientEventTimeHeaderReachesTheAggregate() {
+        for (StreamsProperties.EmissionMode mode : StreamsProperties.EmissionMode.values()) {
+            StreamsProperties props = new StreamsProperties();
+            props.getAggregation().getEmission().setMode(mode);
+            props.getAggregation().getEmission().setEveryRecords(1);
+
+            try (TopologyTestDriver driver = driver(props)) {
+                TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+                TestOutputTopic<String, AggregateDTO> aggregates = outputTopic(driver, "events-aggregated");
+                for (int i = 1; i <= 2; i++) {
+                    Headers headers = new RecordHeaders();
+                    headers.add(EventTimeHeader.NAME, EventTimeHeader.encode(1_000L * i));
+                    events.pipeInput(new TestRecord<>("alice", new EventDTO("click", "alice", null, null), headers,
+                            T0.plusSeconds(i)));
+                }
+                send(events, "bob", T0.plusSeconds(180));
+
+                TestRecord<String, AggregateDTO> last = null;
+                for (TestRecord<String, AggregateDTO> record : aggregates.readRecordsToList()) {
+                    if ("alice".equals(record.key())) {
+                        last = record;
+                    }
+                }
+                // Headers of the latest event in the window, whatever the emission strategy
+                assertEquals(2_000L, EventTimeHeader.decode(last.headers()), mode.name());
+            }
+        }
+    }
+
+    // Sends n events for one user inside the first minute, then one event two minutes later
+    // (for another user) so that stream time moves past the end of the first window.
+    private static List<AggregateDTO> run(StreamsProperties props, int n) {
+        return run(props, n, 0);
+    }
+
+    private static List<AggregateDTO> run(StreamsProperties props, int n, long cacheMaxBytes) {
+        try (TopologyTestDriver driver = driver(props, cacheMaxBytes)) {
+            TestInputTopic<String, EventDTO> events = eventsTopic(driver);
+            TestOutputTopic<String, AggregateDTO> aggregates = outputTopic(driver, "events-aggregated");
+
+            for (int i = 1; i <= n; i++) {
+                Instant ts = T0.plusSeconds(i);
+                events.pipeInput("alice", new EventDTO("click", "alice", ts, Map.of("value", i)), ts);
+            }
+            send(events, "bob", T0.plusSeconds(180));
+
+            return forUser(aggregates.readValuesToList(), "alice");
+        }
+    }
+
+    private static TopologyTestDriver driver(StreamsProperties props) {
+        return driver(props, 0);
+    }
+
+    private static TopologyTestDriver driver(StreamsProperties props, long cacheMaxBytes) {
+        StreamsBuilder builder = new StreamsBuilder();
+        StreamsTopologyService service = new StreamsTopologyService();
+        ReflectionTestUtils.setField(service, "streamsBuilder", builder);
+        ReflectionTestUtils.setField(service, "eventSerde", new EventSerde());
+        ReflectionTestUtils.setField(service, "aggregateSerde", new AggregateSerde());
+        ReflectionTestUtils.setField(service, "properties", props);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        service.buildTopology();
+
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "topology-test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        config.put(StreamsConfig.STATESTORE_CACHE_MAX_BYTES_CONFIG, cacheMaxBytes);
+        config.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, cacheMaxBytes > 0 ? 30_000 : 0);
+        return new TopologyTestDriver(builder.build(), config);
+    }
+
+    // Whether a caching layer sits anywhere in the store's wrapper chain
+    private static boolean isCached(StateStore store) {
+        while (store instanceof WrappedStateStore<?, ?, ?> wrapped) {
+            if (wrapped.getClass().getSimpleName().startsWith("Caching")) {
+                return true;
+            }
+            store = wrapped.wrapped();
+        }
+        return false;
+    }
+
+    private static TestInputTopic<String, EventDTO> eventsTopic(TopologyTestDriver driver) {
+        return driver.createInputTopic("events", Serdes.String().serializer(), new EventSerde().serializer());
+    }
+
+    private static TestOutputTopic<String, AggregateDTO> outputTopic(TopologyTestDriver driver, String topic) {
+        return driver.createOutputTopic(topic, Serdes.String().deserializer(), new AggregateSerde().deserializer());
+    }
+
+    private static void send(TestInputTopic<String, EventDTO> events, String userId, Instant ts) {
+        events.pipeInput(userId, new EventDTO("click", userId, ts, null), ts);
+    }
+
+    private static List<AggregateDTO> forUser(List<AggregateDTO> aggregates, String userId) {
+        return aggregates.stream().filter(agg -> userId.equals(agg.getMetricId())).toList();
+    }
+}
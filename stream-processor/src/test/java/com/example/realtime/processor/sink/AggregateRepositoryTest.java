@@ -0,0 +1,99 @@
+package com.example.realtime.processor.sink;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Runs the upserts against a real Postgres, started in-process
+public class AggregateRepositoryTest {
+
+    private static EmbeddedPostgres postgres;
+    private static JdbcTemplate jdbcTemplate;
+
+    private AggregateRepository repository;
+
+    @BeforeAll
+    public static void startPostgres() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws Exception {
+        postgres.close();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS aggregate_windows");
+        // Two rows per statement, so a batch of five takes three statements
+        repository = new AggregateRepository(jdbcTemplate, 2);
+    }
+
+    @Test
+    public void writesEveryRowAcrossStatements() {
+        List<AggregateDTO> rows = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rows.add(aggregate("u" + i, "1m", 0, i + 1));
+        }
+
+        repository.upsert(rows);
+
+        assertEquals(5, jdbcTemplate.queryForObject("SELECT count(*) FROM aggregate_windows", Long.class));
+        assertEquals(15, jdbcTemplate.queryForObject("SELECT sum(count) FROM aggregate_windows", Long.class));
+    }
+
+    @Test
+    public void replaysAndOlderValuesNeverMoveARowBack() {
+        repository.upsert(List.of(aggregate("u1", "1m", 0, 5), aggregate("u1", "1h", 0, 5)));
+        repository.upsert(List.of(aggregate("u1", "1m", 0, 9)));
+
+        // Older value arriving late, then the whole first batch replayed after a restart
+        repository.upsert(List.of(aggregate("u1", "1m", 0, 7)));
+        repository.upsert(List.of(aggregate("u1", "1m", 0, 5), aggregate("u1", "1h", 0, 5)));
+
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT count, sum, window_end FROM aggregate_windows WHERE metric_id = 'u1' AND resolution = '1m'");
+        assertEquals(9L, row.get("count"));
+        assertEquals(90.0, row.get("sum"));
+        assertEquals(5, jdbcTemplate.queryForObject(
+                "SELECT count FROM aggregate_windows WHERE metric_id = 'u1' AND resolution = '1h'", Long.class));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT count(*) FROM aggregate_windows", Long.class));
+    }
+
+    @Test
+    public void equalCountsStillUpdateTheRow() {
+        AggregateDTO first = aggregate("u1", "1m", 0, 3);
+        AggregateDTO same = aggregate("u1", "1m", 0, 3);
+        same.setMax(99);
+
+        repository.upsert(List.of(first));
+        repository.upsert(List.of(same));
+
+        assertEquals(99.0, jdbcTemplate.queryForObject(
+                "SELECT max FROM aggregate_windows WHERE metric_id = 'u1'", Double.class));
+    }
+
+    private static AggregateDTO aggregate(String metricId, String resolution, long start, long count) {
+        AggregateDTO aggregate = new AggregateDTO();
+        aggregate.setMetricId(metricId);
+        aggregate.setResolution(resolution);
+        aggregate.setWindowStart(Instant.ofEpochMilli(start));
+        aggregate.setWindowEnd(Instant.ofEpochMilli(start + 60_000));
+        aggregate.setCount(count);
+        aggregate.setSum(count * 10.0);
+        aggregate.setMax(count);
+        return aggregate;
+    }
+}
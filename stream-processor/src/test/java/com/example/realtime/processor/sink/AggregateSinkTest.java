@@ -0,0 +1,50 @@
+package com.example.realtime.processor.sink;
+
+import com.example.realtime.common.dto.AggregateDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AggregateSinkTest {
+
+    @Test
+    public void keepsTheHighestCountPerWindow() {
+        List<AggregateDTO> rows = AggregateSink.latestPerWindow(Arrays.asList(
+                aggregate("u1", "1m", 0, 5),
+                aggregate("u1", "1m", 0, 7),
+                aggregate("u1", "1m", 0, 6), // older update replayed after a newer one
+                aggregate("u1", "1h", 0, 7), // same start, other resolution
+                aggregate("u1", "1m", 60_000, 1),
+                null));                      // unreadable record
+
+        assertEquals(3, rows.size());
+        AggregateDTO base = rows.stream()
+                .filter(row -> row.getResolution().equals("1m") && row.getWindowStart().toEpochMilli() == 0)
+                .findFirst().orElseThrow();
+        assertEquals(7, base.getCount());
+    }
+
+    @Test
+    public void upsertNeverMovesARowBack() {
+        String sql = AggregateRepository.upsertSql(2);
+
+        assertEquals(20, sql.chars().filter(c -> c == '?').count());
+        assertTrue(sql.contains("ON CONFLICT (metric_id, resolution, window_start)"));
+        assertTrue(sql.endsWith("WHERE aggregate_windows.count <= EXCLUDED.count"));
+    }
+
+    private static AggregateDTO aggregate(String metricId, String resolution, long start, long count) {
+        AggregateDTO aggregate = new AggregateDTO();
+        aggregate.setMetricId(metricId);
+        aggregate.setResolution(resolution);
+        aggregate.setWindowStart(Instant.ofEpochMilli(start));
+        aggregate.setWindowEnd(Instant.ofEpochMilli(start + 60_000));
+        aggregate.setCount(count);
+        return aggregate;
+    }
+}
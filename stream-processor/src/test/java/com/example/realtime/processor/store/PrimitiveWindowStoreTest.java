@@ -0,0 +1,111 @@
+package com.example.realtime.processor.store;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.StateRestoreCallback;
+import org.apache.kafka.streams.processor.StateStoreContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrimitiveWindowStoreTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void putFetchAndDeleteAcrossWindows() {
+        PrimitiveWindowStore store = new PrimitiveWindowStore("test", 10 * MINUTE, MINUTE);
+        // Enough keys to force several rehashes of one window
+        for (int i = 0; i < 1000; i++) {
+            store.put(key("user_" + i), value(i), 0);
+        }
+        store.put(key("user_1"), value(100), MINUTE);
+        store.put(key("user_2"), null, 0);
+
+        assertArrayEquals(value(999), store.fetch(key("user_999"), 0));
+        assertNull(store.fetch(key("user_2"), 0));
+        assertNull(store.fetch(key("unknown"), 0));
+
+        try (WindowStoreIterator<byte[]> it = store.fetch(key("user_1"), 0, MINUTE)) {
+            assertEquals(0L, it.next().key);
+            assertEquals(MINUTE, it.next().key);
+        }
+        try (WindowStoreIterator<byte[]> it = store.backwardFetch(key("user_1"), 0, MINUTE)) {
+            assertArrayEquals(value(100), it.next().value);
+        }
+        assertEquals(List.of("user_10", "user_100", "user_101"), keys(store.fetch(key("user_10"), key("user_101"), 0, 0)));
+        assertEquals(1000, keys(store.fetchAll(0, MINUTE)).size());
+    }
+
+    @Test
+    public void expiredWindowsAreDroppedWhole() {
+        PrimitiveWindowStore store = new PrimitiveWindowStore("test", 2 * MINUTE, MINUTE);
+        store.put(key("a"), value(1), 0);
+        store.put(key("b"), value(2), MINUTE);
+        store.put(key("a"), value(3), 2 * MINUTE);
+
+        assertNull(store.fetch(key("a"), 0));
+        assertArrayEquals(value(2), store.fetch(key("b"), MINUTE));
+
+        // Writes to an expired window are ignored
+        store.put(key("a"), value(4), 0);
+        assertNull(store.fetch(key("a"), 0));
+    }
+
+    @Test
+    public void restoresFromChangelogRecords() {
+        PrimitiveWindowStore store = new PrimitiveWindowStore("test", 10 * MINUTE, MINUTE);
+        StateStoreContext context = mock(StateStoreContext.class);
+        when(context.recordMetadata()).thenReturn(Optional.empty());
+        store.init(context, store);
+
+        ArgumentCaptor<StateRestoreCallback> callback = ArgumentCaptor.forClass(StateRestoreCallback.class);
+        verify(context).register(any(), callback.capture());
+        callback.getValue().restore(changelogKey("alice", MINUTE), value(7));
+        callback.getValue().restore(changelogKey("bob", MINUTE), value(8));
+        callback.getValue().restore(changelogKey("bob", MINUTE), null);
+
+        assertArrayEquals(value(7), store.fetch(key("alice"), MINUTE));
+        assertNull(store.fetch(key("bob"), MINUTE));
+    }
+
+    private static Bytes key(String key) {
+        return Bytes.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] value(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+
+    private static byte[] changelogKey(String key, long windowStart) {
+        byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(raw.length + Long.BYTES + Integer.BYTES).put(raw).putLong(windowStart).putInt(0).array();
+    }
+
+    private static List<String> keys(KeyValueIterator<Windowed<Bytes>, byte[]> it) {
+        List<String> keys = new ArrayList<>();
+        try (it) {
+            while (it.hasNext()) {
+                KeyValue<Windowed<Bytes>, byte[]> next = it.next();
+                keys.add(new String(next.key.key().get(), StandardCharsets.UTF_8));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.realtime.processor.store;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WindowSegmentTest {
+
+    @Test
+    public void valuesSurviveRewritesDeletesAndGrowth() {
+        WindowSegment segment = new WindowSegment();
+        // Enough keys to rehash several times, values of changing length to compact the value slab
+        for (int round = 0; round < 5; round++) {
+            for (int k = 0; k < 1000; k++) {
+                segment.put(key(k), value(k, round));
+            }
+        }
+        for (int k = 0; k < 1000; k += 2) {
+            segment.put(key(k), null);
+        }
+        for (int k = 0; k < 1000; k++) {
+            segment.put(key(1000 + k), value(k, 0));
+        }
+
+        for (int k = 0; k < 1000; k++) {
+            if (k % 2 == 0) {
+                assertNull(segment.get(key(k)));
+            } else {
+                assertArrayEquals(value(k, 4), segment.get(key(k)));
+            }
+            assertArrayEquals(value(k, 0), segment.get(key(1000 + k)));
+        }
+    }
+
+    @Test
+    public void rangeIsInUnsignedKeyOrderAndCopiesOut() {
+        WindowSegment segment = new WindowSegment();
+        segment.put(Bytes.wrap(new byte[]{(byte) 0x80}), new byte[]{3});
+        segment.put(Bytes.wrap(new byte[]{0x01}), new byte[]{1});
+        segment.put(Bytes.wrap(new byte[]{0x01, 0x00}), new byte[]{2});
+        segment.put(Bytes.wrap(new byte[]{0x7f}), new byte[]{9});
+        segment.put(Bytes.wrap(new byte[]{0x7f}), null);
+
+        List<KeyValue<Bytes, byte[]>> all = segment.range(null, null);
+        assertEquals(List.of(Bytes.wrap(new byte[]{0x01}), Bytes.wrap(new byte[]{0x01, 0x00}),
+                Bytes.wrap(new byte[]{(byte) 0x80})), all.stream().map(kv -> kv.key).toList());
+        assertEquals(List.of(Bytes.wrap(new byte[]{0x01, 0x00})),
+                segment.range(Bytes.wrap(new byte[]{0x01, 0x00}), Bytes.wrap(new byte[]{0x7f})).stream()
+                        .map(kv -> kv.key).toList());
+
+        // A later in-place rewrite does not reach values already handed out
+        segment.put(Bytes.wrap(new byte[]{0x01}), new byte[]{5});
+        assertArrayEquals(new byte[]{1}, all.get(0).value);
+    }
+
+    private static Bytes key(int k) {
+        return Bytes.wrap(("user-" + k).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Length changes with the round, so rewrites mostly append
+    private static byte[] value(int k, int round) {
+        return ("{\"count\":" + k + ",\"round\":\"" + "x".repeat(round) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.realtime.gateway.cluster;
+
+import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.SessionRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers updates to whichever gateway node holds the user's sessions.
+ *
+ * Every node consumes a share of the aggregates topic. An update is queued locally, which also
+ * keeps it for replay here; for every other node listed in the {@link PresenceDirectory} it is
+ * published on that node's own channel ({@code live-updates:{nodeId}}), so other nodes only see
+ * updates for users they hold, and only the resolutions their sessions there subscribe to.
+ * Without a directory (cluster routing off) only local sessions are served. A poll's updates are routed together, so presence is looked up once for all its users.
+ *
+ * With a {@link ReplayStore}, what this node records for replay is mirrored to Redis, and
+ * sessions connecting here replay from there: the user's partition may be consumed elsewhere.
+ */
+@Service
+public class ClusterRouter implements MessageListener, SessionRegistry.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRouter.class);
+
+    private static final String CHANNEL_PREFIX = "live-updates:";
+
+    private final EventWebSocketHandler webSocketHandler;
+    private final ObjectMapper objectMapper;
+    private final StringRedisTemplate redisTemplate;
+    private final PresenceDirectory presence;
+    private final ReplayStore replayStore;
+
+    private final Counter forwarded;
+    private final Counter received;
+    private final Counter filtered;
+
+    public ClusterRouter(EventWebSocketHandler webSocketHandler, ObjectMapper objectMapper,
+                         StringRedisTemplate redisTemplate, ObjectProvider<PresenceDirectory> presence,
+                         ObjectProvider<ReplayStore> replayStore, MeterRegistry meterRegistry) {
+        this.webSocketHandler = webSocketHandler;
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.presence = presence.getIfAvailable();
+        this.replayStore = replayStore.getIfAvailable();
+        this.forwarded = Counter.builder("gateway.cluster.forwarded")
+                .description("Updates published to another gateway node")
+                .register(meterRegistry);
+        this.received = Counter.builder("gateway.cluster.received")
+                .description("Updates received from another gateway node")
+                .register(meterRegistry);
+        this.filtered = Counter.builder("gateway.cluster.filtered")
+                .description("Updates not forwarded to a node because none of its sessions subscribe to them")
+                .register(meterRegistry);
+        if (this.presence != null) {
+            webSocketHandler.setSessionListener(this);
+        }
+        if (this.replayStore != null) {
+            webSocketHandler.setSharedReplay(this.replayStore);
+        }
+    }
+
+    public static String nodeChannel(String nodeId) {
+        return CHANNEL_PREFIX + nodeId;
+    }
+
+    /** Queues an update locally and/or forwards it to the nodes holding the user's sessions. */
+    public void route(String userId, String coalesceKey, Update update) {
+        route(List.of(new Delivery(userId, coalesceKey, update)));
+    }
+
+    /** Routes a poll's updates, looking up the nodes of all their users at once. */
+    public void route(List<Delivery> deliveries) {
+        int[] slots = new int[deliveries.size()];
+        for (int i = 0; i < slots.length; i++) {
+            Delivery delivery = deliveries.get(i);
+            // Also fills this node's replay buffer when the user is not connected here
+            slots[i] = webSocketHandler.enqueue(delivery.userId(), delivery.coalesceKey(), delivery.update());
+        }
+        if (presence == null || deliveries.isEmpty()) {
+            return;
+        }
+
+        // Encoded at most once, for the replay store and every node the update goes to
+        String[] encoded = new String[slots.length];
+        if (replayStore != null) {
+            save(deliveries, slots, encoded);
+        }
+
+        Map<String, Map<String, Integer>> nodes;
+        try {
+            nodes = presence.nodesOf(deliveries.stream().map(Delivery::userId).toList());
+        } catch (Exception e) {
+            // Local sessions were served; other nodes miss this poll
+            logger.warn("Presence lookup failed, updates not forwarded: {}", e.getMessage());
+            return;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            Delivery delivery = deliveries.get(i);
+            try {
+                forward(delivery, nodes.getOrDefault(delivery.userId(), Map.of()), encoded, i);
+            } catch (Exception e) {
+                logger.error("Error forwarding update for user {}", delivery.userId(), e);
+            }
+        }
+    }
+
+    // Each node gets only the resolutions its sessions subscribe to, and nothing if none of them
+    private void forward(Delivery delivery, Map<String, Integer> nodes, String[] encoded, int i) throws Exception {
+        // Nodes mostly share a subscription: the last narrowed update and its encoding are reused
+        Update lastNarrowed = null;
+        String lastEncoded = null;
+        for (Map.Entry<String, Integer> node : nodes.entrySet()) {
+            if (node.getKey().equals(presence.getNodeId())) {
+                continue;
+            }
+            Update narrowed = delivery.update().forResolutions(node.getValue());
+            if (narrowed == null) {
+                filtered.increment();
+                continue;
+            }
+            String message;
+            if (narrowed == delivery.update()) {
+                if (encoded[i] == null) {
+                    encoded[i] = encode(delivery.userId(), delivery.coalesceKey(), narrowed);
+                }
+                message = encoded[i];
+            } else {
+                if (narrowed != lastNarrowed) {
+                    // Same key suffix as the sessions' own narrowed copies, see EventWebSocketHandler#enqueue
+                    String key = delivery.coalesceKey() == null ? null
+                            : delivery.coalesceKey() + '|' + narrowed.getResolutions();
+                    lastEncoded = encode(delivery.userId(), key, narrowed);
+                    lastNarrowed = narrowed;
+                }
+                message = lastEncoded;
+            }
+            redisTemplate.convertAndSend(nodeChannel(node.getKey()), message);
+            forwarded.increment();
+        }
+    }
+
+    /**
+     * Whether any session of the user, on this node or another, subscribes to a resolution bit;
+     * lets a caller skip encoding an aggregate nobody would get.
+     */
+    public boolean isSubscribed(String userId, int resolutionBit) {
+        if ((webSocketHandler.resolutionsOf(userId) & resolutionBit) != 0) {
+            return true;
+        }
+        if (presence == null) {
+            return false;
+        }
+        try {
+            for (int resolutions : presence.nodesOf(userId).values()) {
+                if ((resolutions & resolutionBit) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (Exception e) {
+            // Cannot tell: let the update through
+            logger.debug("Presence lookup failed: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    // Mirrors what this node just recorded for replay, one pipeline per poll
+    private void save(List<Delivery> deliveries, int[] slots, String[] encoded) {
+        List<ReplayStore.Slot> recorded = new ArrayList<>();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] < 0) {
+                continue;
+            }
+            try {
+                Delivery delivery = deliveries.get(i);
+                encoded[i] = encode(delivery.userId(), delivery.coalesceKey(), delivery.update());
+                recorded.add(new ReplayStore.Slot(deliveries.get(i).userId(), slots[i], encoded[i]));
+            } catch (Exception e) {
+                logger.error("Error encoding update for user {}", deliveries.get(i).userId(), e);
+            }
+        }
+        try {
+            replayStore.save(recorded);
+        } catch (Exception e) {
+            // Sessions connecting elsewhere replay older values until the next poll of these users
+            logger.warn("Could not save {} updates for replay: {}", recorded.size(), e.getMessage());
+        }
+    }
+
+    private String encode(String userId, String coalesceKey, Update update) throws Exception {
+        return objectMapper.writeValueAsString(toMessage(userId, coalesceKey, update));
+    }
+
+    // Updates forwarded to this node by the others
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            NodeMessage forwarded = objectMapper.readValue(message.getBody(), NodeMessage.class);
+            received.increment();
+            // Kept for replay here too, as a fallback when the replay store cannot be read
+            webSocketHandler.enqueue(forwarded.getUserId(), forwarded.getCoalesceKey(), toUpdate(forwarded));
+        } catch (Exception e) {
+            logger.error("Error handling forwarded update", e);
+        }
+    }
+
+    private static NodeMessage toMessage(String userId, String coalesceKey, Update update) {
+        if (update.isText()) {
+            return new NodeMessage(userId, coalesceKey, update.getEventTimestamp(), null, null, update.getText());
+        }
+        // Forwarded as they arrived; the receiving node converts and filters for its own clients
+        List<byte[]> aggregates = new ArrayList<>(update.getAggregates().length);
+        List<Integer> resolutions = new ArrayList<>(update.getAggregates().length);
+        for (AggregatePayload aggregate : update.getAggregates()) {
+            aggregates.add(aggregate.raw());
+            resolutions.add(aggregate.getResolution());
+        }
+        return new NodeMessage(userId, coalesceKey, update.getEventTimestamp(), aggregates, resolutions, null);
+    }
+
+    static Update toUpdate(NodeMessage message) {
+        if (message.getText() != null) {
+            return Update.ofText(message.getText(), message.getEventTimestamp());
+        }
+        List<byte[]> values = message.getAggregates();
+        List<Integer> resolutions = message.getResolutions();
+        AggregatePayload[] aggregates = new AggregatePayload[values.size()];
+        for (int i = 0; i < aggregates.length; i++) {
+            aggregates[i] = AggregatePayload.of(values.get(i),
+                    resolutions != null ? resolutions.get(i) : AggregatePayload.ANY_RESOLUTION);
+        }
+        return Update.ofAggregates(aggregates, message.getEventTimestamp());
+    }
+
+    @Override
+    public void userConnected(String userId) {
+        try {
+            presence.add(userId, webSocketHandler.resolutionsOf(userId));
+        } catch (Exception e) {
+            // The next heartbeat adds the user again
+            logger.warn("Could not register presence of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void userDisconnected(String userId) {
+        try {
+            presence.remove(userId);
+        } catch (Exception e) {
+            // The entry expires after the presence TTL
+            logger.warn("Could not remove presence of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void resolutionsChanged(String userId, int resolutions) {
+        try {
+            presence.add(userId, resolutions);
+        } catch (Exception e) {
+            // The next heartbeat writes them
+            logger.warn("Could not update subscriptions of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    // Keeps this node's presence entries from expiring; must run well within app.gateway.cluster.presence-ttl
+    @Scheduled(fixedDelayString = "${app.gateway.cluster.heartbeat-ms:10000}")
+    public void heartbeat() {
+        if (presence == null) {
+            return;
+        }
+        try {
+            Map<String, Integer> resolutions = new HashMap<>();
+            for (String userId : webSocketHandler.localUsers()) {
+                resolutions.put(userId, webSocketHandler.resolutionsOf(userId));
+            }
+            presence.refresh(resolutions);
+        } catch (Exception e) {
+            logger.warn("Presence heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    /** One update for one user, as routed by {@link #route(List)}. */
+    public record Delivery(String userId, String coalesceKey, Update update) {}
+}
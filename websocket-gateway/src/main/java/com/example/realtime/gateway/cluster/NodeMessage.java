@@ -0,0 +1,48 @@
+package com.example.realtime.gateway.cluster;
+
+import java.util.List;
+
+/**
+ * An update forwarded to the gateway node that holds the user's sessions: either aggregates,
+ * each in the format it arrived in (JSON or binary, base64 on the wire) with its resolution
+ * index, or a text notice.
+ */
+public class NodeMessage {
+    private String userId;
+    private String coalesceKey;
+    private long eventTimestamp;
+    private List<byte[]> aggregates;
+    // Parallel to aggregates; missing when sent by a node that predates subscriptions
+    private List<Integer> resolutions;
+    private String text;
+
+    public NodeMessage() {}
+
+    public NodeMessage(String userId, String coalesceKey, long eventTimestamp, List<byte[]> aggregates,
+                       List<Integer> resolutions, String text) {
+        this.userId = userId;
+        this.coalesceKey = coalesceKey;
+        this.eventTimestamp = eventTimestamp;
+        this.aggregates = aggregates;
+        this.resolutions = resolutions;
+        this.text = text;
+    }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getCoalesceKey() { return coalesceKey; }
+    public void setCoalesceKey(String coalesceKey) { this.coalesceKey = coalesceKey; }
+
+    public long getEventTimestamp() { return eventTimestamp; }
+    public void setEventTimestamp(long eventTimestamp) { this.eventTimestamp = eventTimestamp; }
+
+    public List<byte[]> getAggregates() { return aggregates; }
+    public void setAggregates(List<byte[]> aggregates) { this.aggregates = aggregates; }
+
+    public List<Integer> getResolutions() { return resolutions; }
+    public void setResolutions(List<Integer> resolutions) { this.resolutions = resolutions; }
+
+    public String getText() { return text; }
+    public void setText(String text) { this.text = text; }
+}
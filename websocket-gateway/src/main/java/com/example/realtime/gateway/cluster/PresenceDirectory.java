@@ -0,0 +1,190 @@
+package com.example.realtime.gateway.cluster;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Which gateway nodes hold sessions of a user, kept in Redis as one sorted set per user:
+ * {@code presence:{userId} -> {nodeId scored by its expiry, ...}}.
+ *
+ * Each node's entry expires {@code ttl} after that node last refreshed it, so a node that dies
+ * drops out of the directory on its own even while other nodes keep the user's key alive:
+ * lookups only read entries whose expiry is still ahead, and refreshes prune the rest. The key
+ * itself expires too, once no node refreshes it. Expiries are taken from the node clocks, which
+ * only need to agree to well within {@code ttl}.
+ *
+ * Next to it, {@code presence-resolutions:{userId} -> {nodeId -> resolution bits, ...}} holds what
+ * the user's sessions on each node subscribe to, so other nodes forward only that. It is written
+ * with every refresh and expires with the sorted set; entries of nodes no longer in the sorted set
+ * are ignored.
+ *
+ * Lookups are batched, one pipeline per poll for all users it lacks, and cached locally for
+ * {@code cacheTtl} in an LRU map of at most {@code cacheMaxEntries} users; a user who connects to
+ * a new node may miss updates routed through other nodes for that long.
+ */
+public class PresenceDirectory {
+
+    private static final String KEY_PREFIX = "presence:";
+    private static final String RESOLUTIONS_PREFIX = "presence-resolutions:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final String nodeId;
+    private final long ttlSeconds;
+    private final long cacheTtlNanos;
+    private final int cacheMaxEntries;
+    private final LongSupplier clock;
+
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final LinkedHashMap<String, Cached> cache;
+
+    public PresenceDirectory(StringRedisTemplate redisTemplate, String nodeId, Duration ttl, Duration cacheTtl,
+                             int cacheMaxEntries) {
+        this(redisTemplate, nodeId, ttl, cacheTtl, cacheMaxEntries, System::currentTimeMillis);
+    }
+
+    PresenceDirectory(StringRedisTemplate redisTemplate, String nodeId, Duration ttl, Duration cacheTtl,
+                      int cacheMaxEntries, LongSupplier clock) {
+        this.redisTemplate = redisTemplate;
+        this.nodeId = nodeId;
+        this.ttlSeconds = Math.max(1, ttl.toSeconds());
+        this.cacheTtlNanos = cacheTtl.toNanos();
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.clock = clock;
+        // Access order: a hit moves an entry to the tail, eviction takes the head
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > PresenceDirectory.this.cacheMaxEntries;
+            }
+        };
+    }
+
+    /** Marks this node as holding sessions of {@code userId}, subscribed to {@code resolutions}. */
+    public void add(String userId, int resolutions) {
+        refresh(Map.of(userId, resolutions));
+    }
+
+    /** This node no longer holds sessions of {@code userId}. */
+    public void remove(String userId) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            redis.zRem(KEY_PREFIX + userId, nodeId);
+            redis.hDel(RESOLUTIONS_PREFIX + userId, nodeId);
+            return null;
+        });
+    }
+
+    /**
+     * Re-adds this node for every given user with a new expiry and the resolutions its sessions
+     * subscribe to, and drops the entries of nodes that stopped refreshing theirs, in one pipeline.
+     */
+    public void refresh(Map<String, Integer> resolutionsByUser) {
+        if (resolutionsByUser.isEmpty()) {
+            return;
+        }
+        long now = clock.getAsLong();
+        double expiry = now + ttlSeconds * 1000;
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // StringRedisTemplate hands callbacks a StringRedisConnection
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            resolutionsByUser.forEach((userId, resolutions) -> {
+                redis.zAdd(KEY_PREFIX + userId, expiry, nodeId);
+                redis.zRemRangeByScore(KEY_PREFIX + userId, Double.NEGATIVE_INFINITY, now);
+                redis.expire(KEY_PREFIX + userId, ttlSeconds);
+                redis.hSet(RESOLUTIONS_PREFIX + userId, nodeId, Integer.toString(resolutions));
+                redis.expire(RESOLUTIONS_PREFIX + userId, ttlSeconds);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Nodes holding sessions of {@code userId}, possibly including this one, with the resolution
+     * bits those sessions subscribe to.
+     */
+    public Map<String, Integer> nodesOf(String userId) {
+        return nodesOf(List.of(userId)).get(userId);
+    }
+
+    /**
+     * {@link #nodesOf(String)} for each of {@code userIds}. Users not in the cache are looked up
+     * in one pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Integer>> nodesOf(Collection<String> userIds) {
+        Map<String, Map<String, Integer>> nodes = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        long now = System.nanoTime();
+        cacheLock.lock();
+        try {
+            for (String userId : new LinkedHashSet<>(userIds)) {
+                Cached cached = cache.get(userId);
+                if (cached != null && now - cached.loadedAt < cacheTtlNanos) {
+                    nodes.put(userId, cached.nodes);
+                } else {
+                    missing.add(userId);
+                }
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+        if (missing.isEmpty()) {
+            return nodes;
+        }
+
+        // Expired entries of dead nodes may still be there until the next refresh prunes them
+        double min = clock.getAsLong();
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (String userId : missing) {
+                redis.zRangeByScore(KEY_PREFIX + userId, min, Double.POSITIVE_INFINITY);
+                redis.hGetAll(RESOLUTIONS_PREFIX + userId);
+            }
+            return null;
+        });
+        cacheLock.lock();
+        try {
+            for (int i = 0; i < missing.size(); i++) {
+                Map<String, Integer> userNodes = toNodes((Set<String>) results.get(2 * i),
+                        (Map<String, String>) results.get(2 * i + 1));
+                nodes.put(missing.get(i), userNodes);
+                cache.put(missing.get(i), new Cached(userNodes, now));
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+        return nodes;
+    }
+
+    // A node that wrote no resolutions (one predating subscriptions) gets everything
+    private static Map<String, Integer> toNodes(Set<String> live, Map<String, String> resolutions) {
+        if (live == null || live.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Integer> nodes = new HashMap<>();
+        for (String node : live) {
+            String bits = resolutions != null ? resolutions.get(node) : null;
+            nodes.put(node, bits != null ? Integer.parseInt(bits) : -1);
+        }
+        return Map.copyOf(nodes);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private record Cached(Map<String, Integer> nodes, long loadedAt) {}
+}
@@ -0,0 +1,93 @@
+package com.example.realtime.gateway.cluster;
+
+import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.SessionOutbox;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replay buffers shared through Redis, so a user connecting to any node gets the latest
+ * aggregates, not only one who happens to connect to the node consuming their partition.
+ *
+ * That node mirrors the user's replay ring into one hash per user:
+ * {@code replay:{userId} -> {slot -> NodeMessage JSON, ...}}. A ring slot is a field, so the hash
+ * never holds more updates than the ring; the writes of a poll go out in one pipeline. The hash
+ * expires {@code ttl} after its last write.
+ */
+public class ReplayStore implements EventWebSocketHandler.ReplaySource {
+
+    private static final String KEY_PREFIX = "replay:";
+
+    private static final Comparator<NodeMessage> OLDEST_FIRST = Comparator.comparingLong(NodeMessage::getEventTimestamp);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final long ttlSeconds;
+
+    public ReplayStore(StringRedisTemplate redisTemplate, ObjectMapper objectMapper, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.ttlSeconds = Math.max(1, ttl.toSeconds());
+    }
+
+    /** Writes the updates recorded in a poll, each to its user's ring slot, in one pipeline. */
+    public void save(Collection<Slot> slots) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            Set<String> users = new HashSet<>();
+            for (Slot slot : slots) {
+                redis.hSet(KEY_PREFIX + slot.userId(), Integer.toString(slot.slot()), slot.message());
+                users.add(slot.userId());
+            }
+            for (String userId : users) {
+                redis.expire(KEY_PREFIX + userId, ttlSeconds);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Offers the user's shared updates, oldest first, to a session that just connected. Reads
+     * and decodes everything before touching the outbox, so a failure leaves its replay open.
+     */
+    @Override
+    public void replay(String userId, SessionOutbox outbox) throws Exception {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(KEY_PREFIX + userId);
+        // A partition moving between nodes can leave the same key in two slots: the newer wins
+        Map<String, NodeMessage> latest = new HashMap<>();
+        for (Object value : fields.values()) {
+            NodeMessage message = objectMapper.readValue((String) value, NodeMessage.class);
+            latest.merge(message.getCoalesceKey(), message,
+                    (a, b) -> a.getEventTimestamp() >= b.getEventTimestamp() ? a : b);
+        }
+        List<NodeMessage> messages = new ArrayList<>(latest.values());
+        messages.sort(OLDEST_FIRST);
+
+        String[] keys = new String[messages.size()];
+        Update[] updates = new Update[messages.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = messages.get(i).getCoalesceKey();
+            updates[i] = ClusterRouter.toUpdate(messages.get(i));
+        }
+        outbox.replay(keys, updates);
+    }
+
+    /** An encoded update and the slot of its user's ring it was recorded in. */
+    public record Slot(String userId, int slot, String message) {}
+}
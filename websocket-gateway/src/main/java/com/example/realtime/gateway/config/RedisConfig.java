@@ -1,15 +1,56 @@
 package com.example.realtime.gateway.config;
 
+import com.example.realtime.gateway.cluster.ClusterRouter;
+import com.example.realtime.gateway.cluster.PresenceDirectory;
+import com.example.realtime.gateway.cluster.ReplayStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.time.Duration;
+
+/**
+ * Cluster routing between gateway nodes. Off unless {@code app.gateway.cluster.enabled=true};
+ * a single node then serves only the sessions it holds.
+ */
 @Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "app.gateway.cluster.enabled", havingValue = "true")
 public class RedisConfig {
 
-    // This creates the "frequency" named "live-updates"
+    // Resolved once: the default may be ${random.uuid}, which changes on every lookup
+    @Bean
+    public PresenceDirectory presenceDirectory(StringRedisTemplate redisTemplate,
+                                               @Value("${app.gateway.node-id}") String nodeId,
+                                               @Value("${app.gateway.cluster.presence-ttl:30s}") Duration presenceTtl,
+                                               @Value("${app.gateway.cluster.cache-ttl:1s}") Duration cacheTtl,
+                                               @Value("${app.gateway.cluster.cache-max-entries:100000}") int cacheMaxEntries) {
+        return new PresenceDirectory(redisTemplate, nodeId, presenceTtl, cacheTtl, cacheMaxEntries);
+    }
+
+    // Replay shared by all nodes, whichever consumes the user's partition
+    @Bean
+    public ReplayStore replayStore(StringRedisTemplate redisTemplate, ObjectMapper objectMapper,
+                                   @Value("${app.gateway.cluster.replay-ttl:1h}") Duration replayTtl) {
+        return new ReplayStore(redisTemplate, objectMapper, replayTtl);
+    }
+
+    // Subscribes this node to its own channel only
     @Bean
-    public ChannelTopic topic() {
-        return new ChannelTopic("live-updates");
+    public RedisMessageListenerContainer nodeChannelListener(RedisConnectionFactory connectionFactory,
+                                                             PresenceDirectory presenceDirectory,
+                                                             ClusterRouter clusterRouter) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(clusterRouter,
+                new ChannelTopic(ClusterRouter.nodeChannel(presenceDirectory.getNodeId())));
+        return container;
     }
 }
@@ -1,24 +1,93 @@
 package com.example.realtime.gateway.config;
 
 import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.gateway.session.ReplayBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.time.Duration;
+import java.util.List;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+
+    // Per-session outbound queue: hard cap, high-water mark, and how long a session may stay above it
+    @Value("${app.websocket.outbound.capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${app.websocket.outbound.high-water:500}")
+    private int queueHighWater;
+
+    @Value("${app.websocket.outbound.max-over-high-water:5s}")
+    private Duration maxOverHighWater;
+
+    // Tabs/devices one user may keep open; the oldest is closed beyond this
+    @Value("${app.websocket.max-sessions-per-user:10}")
+    private int maxSessionsPerUser;
+
+    // Longest micro-batch window a client may ask for with ?batchMs=
+    @Value("${app.websocket.max-batch-window:100ms}")
+    private Duration maxBatchWindow;
+
+    // permessage-deflate, when the client offers it (browsers do); Tomcat implements the extension
+    @Value("${app.websocket.compression:true}")
+    private boolean compression;
+
+    // Replay buffer: latest updates per user (distinct metric/resolution keys) and total memory
+    @Value("${app.websocket.replay.per-user:8}")
+    private int replayPerUser;
+
+    @Value("${app.websocket.replay.max-bytes:67108864}")
+    private long replayMaxBytes;
+
+    // Resolution of each aggregate topic, in the order of app.gateway.aggregate-topics
+    @Value("${app.gateway.aggregate-resolutions:1m}")
+    private List<String> resolutions;
+
+    public WebSocketConfig(MeterRegistry meterRegistry, ObjectMapper objectMapper) {
+        this.meterRegistry = meterRegistry;
+        this.objectMapper = objectMapper;
+    }
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(eventWebSocketHandler(), "/ws/events")
+                .setHandshakeHandler(handshakeHandler())
                 .setAllowedOrigins("*"); // Important for testing!
     }
 
+    // Negotiates the subprotocol offered by the handler, and drops permessage-deflate if disabled
+    private DefaultHandshakeHandler handshakeHandler() {
+        return new DefaultHandshakeHandler() {
+            @Override
+            protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                         List<WebSocketExtension> requested,
+                                                                         List<WebSocketExtension> supported) {
+                List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requested, supported);
+                return compression ? accepted : accepted.stream()
+                        .filter(extension -> !"permessage-deflate".equalsIgnoreCase(extension.getName()))
+                        .toList();
+            }
+        };
+    }
+
     @Bean
     public EventWebSocketHandler eventWebSocketHandler() {
-        return new EventWebSocketHandler();
+        return new EventWebSocketHandler(meterRegistry, queueCapacity, queueHighWater, maxOverHighWater,
+                maxSessionsPerUser, maxBatchWindow, new ReplayBuffer(replayPerUser, replayMaxBytes, meterRegistry),
+                resolutions, objectMapper);
     }
 }
\ No newline at end of file
@@ -1,114 +1,365 @@
 package com.example.realtime.gateway.handler;
 
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.SubscriptionRequest;
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.OutboxMetrics;
+import com.example.realtime.gateway.session.ReplayBuffer;
+import com.example.realtime.gateway.session.SessionOutbox;
+import com.example.realtime.gateway.session.SessionRegistry;
+import com.example.realtime.gateway.session.Subscription;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-public class EventWebSocketHandler extends TextWebSocketHandler {
+public class EventWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
 
     private static final Logger logger = LoggerFactory.getLogger(EventWebSocketHandler.class);
 
-    // CHANGE 1: Map of userId -> WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // Close code for clients that cannot keep up
+    private static final CloseStatus TOO_SLOW = CloseStatus.POLICY_VIOLATION.withReason("Client too slow");
+    // Close code for the oldest session when a user opens more than the allowed number
+    private static final CloseStatus TOO_MANY_SESSIONS = CloseStatus.POLICY_VIOLATION.withReason("Too many sessions for user");
+    // Slowest frame rate a subscription may ask for: one frame every 1000 s
+    static final double MIN_MAX_RATE = 0.001;
 
-    // Virtual thread executor for asynchronous send operations
+    // CHANGE 1: userId -> all of the user's sessions (tabs, devices), plus sessionId -> session
+    private final SessionRegistry sessions;
+
+    // Virtual thread executor for the per-session drain tasks (at most one running per session)
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
+    // Outbound queue limits, see SessionOutbox
+    private final int queueCapacity;
+    private final int queueHighWater;
+    private final long maxOverHighWaterNanos;
+    // Upper bound for the micro-batch window a client may ask for with ?batchMs=
+    private final long maxBatchWindowMillis;
+
+    private final OutboxMetrics metrics;
+
+    // Latest aggregates per user, replayed on connect
+    private final ReplayBuffer replayBuffer;
+    // Replay shared by the nodes of a cluster, if any; this node's buffer is the fallback
+    private volatile ReplaySource sharedReplay;
+
+    // Resolutions clients can subscribe to; a resolution's position is its bit in a Subscription
+    private final List<String> resolutions;
+    private final ObjectMapper objectMapper;
+
+    /** Replays a user's latest updates from somewhere other than this node's buffer. */
+    public interface ReplaySource {
+        /** Must end the outbox's replay, or throw before touching the outbox. */
+        void replay(String userId, SessionOutbox outbox) throws Exception;
+    }
+
+    public EventWebSocketHandler(MeterRegistry meterRegistry, int queueCapacity, int queueHighWater,
+                                 Duration maxOverHighWater, int maxSessionsPerUser, Duration maxBatchWindow,
+                                 ReplayBuffer replayBuffer, List<String> resolutions, ObjectMapper objectMapper) {
+        if (resolutions.size() > Integer.SIZE) {
+            throw new IllegalArgumentException("At most " + Integer.SIZE + " resolutions, got " + resolutions);
+        }
+        this.queueCapacity = queueCapacity;
+        this.queueHighWater = queueHighWater;
+        this.maxOverHighWaterNanos = maxOverHighWater.toNanos();
+        this.maxBatchWindowMillis = maxBatchWindow.toMillis();
+        this.metrics = new OutboxMetrics(meterRegistry);
+        this.replayBuffer = replayBuffer;
+        this.resolutions = List.copyOf(resolutions);
+        this.objectMapper = objectMapper;
+        this.sessions = new SessionRegistry(maxSessionsPerUser);
+        Gauge.builder("gateway.sessions", sessions, SessionRegistry::getSessionCount)
+                .description("Open WebSocket sessions")
+                .register(meterRegistry);
+        Gauge.builder("gateway.users", sessions, SessionRegistry::getUserCount)
+                .description("Users with at least one open WebSocket session")
+                .register(meterRegistry);
+    }
+
+    // Frame encodings offered during the handshake; see ClientProtocol
+    @Override
+    public List<String> getSubProtocols() {
+        return Arrays.stream(ClientProtocol.values()).map(ClientProtocol::getSubprotocol).toList();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         // CHANGE 2: Extract userId from query param: ?userId=alex_doe
-        String userId = extractUserId(session.getUri());
+        String userId = queryParam(session.getUri(), "userId");
         if (userId != null && !userId.isEmpty()) {
-            sessions.put(userId, session);
             logger.info("New WebSocket connection for user {}: sessionId={}", userId, session.getId());
         } else {
             // Fallback to session id as key if no userId provided
-            sessions.put(session.getId(), session);
+            userId = session.getId();
             logger.info("New WebSocket connection with no userId: sessionId={}", session.getId());
         }
+
+        // Negotiated frame encoding, and the optional micro-batch window: ?batchMs=20
+        ClientProtocol protocol = ClientProtocol.fromSubprotocol(session.getAcceptedProtocol());
+        long batchWindowMillis = Math.min(parseMillis(queryParam(session.getUri(), "batchMs")), maxBatchWindowMillis);
+        if (protocol != ClientProtocol.JSON || batchWindowMillis > 0) {
+            logger.info("Session {} uses {} frames, batch window {} ms", session.getId(), protocol, batchWindowMillis);
+        }
+
+        SessionOutbox outbox = new SessionOutbox(session, userId, queueCapacity, queueHighWater,
+                maxOverHighWaterNanos, executor, metrics, protocol, TimeUnit.MILLISECONDS.toNanos(batchWindowMillis));
+        // Live first, then the snapshot: an update published in between reaches the session
+        // live, and the replay skips its key instead of overwriting it with an older value
+        outbox.expectReplay();
+        SessionOutbox displaced = sessions.register(outbox);
+        if (displaced != null) {
+            close(displaced, TOO_MANY_SESSIONS);
+        }
+        replay(userId, outbox);
+    }
+
+    private void replay(String userId, SessionOutbox outbox) {
+        ReplaySource shared = sharedReplay;
+        if (shared != null) {
+            try {
+                shared.replay(userId, outbox);
+                return;
+            } catch (Exception e) {
+                logger.warn("Shared replay failed for user {}, using this node's: {}", userId, e.getMessage());
+            }
+        }
+        replayBuffer.replay(userId, outbox);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        // Remove the session from the map by value
-        sessions.values().remove(session);
+        // O(1) through the sessionId index
+        SessionOutbox outbox = sessions.unregister(session.getId());
+        if (outbox != null) {
+            outbox.clear();
+        }
         logger.info("WebSocket connection closed: {}", session.getId());
     }
 
-    // CHANGE 3: Send message to a specific user
-    public void sendToUser(String userId, String message) {
-        WebSocketSession session = sessions.get(userId);
-        if (session != null && session.isOpen()) {
-            try {
-                session.sendMessage(new TextMessage(message));
-            } catch (IOException e) {
-                logger.error("Error sending message to user {}: {}", userId, e.getMessage());
+    // Subscribe/unsubscribe requests, see SubscriptionRequest. Answered on the session's own queue,
+    // so the reply is ordered with the updates around it.
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        SessionOutbox outbox = sessions.get(session.getId());
+        if (outbox == null) {
+            return;
+        }
+        String reply;
+        try {
+            SubscriptionRequest request = objectMapper.readValue(message.getPayload(), SubscriptionRequest.class);
+            Subscription subscription = apply(outbox.getSubscription(), request);
+            outbox.setSubscription(subscription);
+            sessions.subscriptionChanged(outbox.getUserId());
+            reply = describe(subscription);
+        } catch (JsonProcessingException e) {
+            reply = error("Not a subscription request");
+        } catch (IllegalArgumentException e) {
+            reply = error(e.getMessage());
+        }
+        offer(outbox, null, Update.ofText(reply, -1));
+    }
+
+    private Subscription apply(Subscription current, SubscriptionRequest request) {
+        int mask = resolutionMask(request.getResolutions());
+        if (SubscriptionRequest.SUBSCRIBE.equals(request.getType())) {
+            return current.subscribe(mask, minIntervalNanos(request.getMaxRate()));
+        }
+        if (SubscriptionRequest.UNSUBSCRIBE.equals(request.getType())) {
+            return current.unsubscribe(mask);
+        }
+        throw new IllegalArgumentException("Unknown message type " + request.getType());
+    }
+
+    private int resolutionMask(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return -1;
+        }
+        int mask = 0;
+        for (String name : names) {
+            int index = resolutions.indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown resolution " + name + ", expected one of " + resolutions);
             }
-        } else {
-            logger.warn("No open session for user {}", userId);
+            mask |= 1 << index;
         }
+        return mask;
     }
 
-    // Asynchronous, virtual-thread backed send
-    public void sendToUserAsync(String userId, String message) {
-        WebSocketSession session = sessions.get(userId);
-        if (session == null) {
-            logger.warn("No session found for user {} when attempting async send", userId);
-            return;
+    // -1 keeps the current limit, 0 lifts it. Anything slower than MIN_MAX_RATE is refused: the
+    // interval would overflow, or park the session's drain task for good.
+    private static long minIntervalNanos(Double maxRate) {
+        if (maxRate == null) {
+            return -1;
+        }
+        if (maxRate == 0) {
+            return 0;
         }
+        if (!Double.isFinite(maxRate) || maxRate < MIN_MAX_RATE) {
+            throw new IllegalArgumentException("maxRate must be 0 or at least " + MIN_MAX_RATE + " per second");
+        }
+        return (long) (TimeUnit.SECONDS.toNanos(1) / maxRate);
+    }
 
-        executor.submit(() -> {
-            if (!session.isOpen()) {
-                logger.warn("Session for user {} is closed, dropping message", userId);
-                return;
+    private String describe(Subscription subscription) throws JsonProcessingException {
+        List<String> subscribed = new ArrayList<>();
+        for (int i = 0; i < resolutions.size(); i++) {
+            if ((subscription.getResolutions() & (1 << i)) != 0) {
+                subscribed.add(resolutions.get(i));
             }
+        }
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("type", "subscribed");
+        reply.put("resolutions", subscribed);
+        long interval = subscription.getMinIntervalNanos();
+        reply.put("maxRate", interval == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / (double) interval);
+        return objectMapper.writeValueAsString(reply);
+    }
 
-            synchronized (session) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (IOException e) {
-                    logger.warn("Dropping message for user {} due to IOException: {}", userId, e.getMessage());
-                }
+    private String error(String message) {
+        try {
+            Map<String, Object> reply = new LinkedHashMap<>();
+            reply.put("type", "error");
+            reply.put("message", message);
+            return objectMapper.writeValueAsString(reply);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // CHANGE 3: Send message to a specific user (queued; written by the session's drain task)
+    public void sendToUser(String userId, String message) {
+        sendToUserAsync(userId, message, -1);
+    }
+
+    // Same as sendToUser: every send is queued and written by the session's drain task
+    public void sendToUserAsync(String userId, String message) {
+        sendToUserAsync(userId, message, -1);
+    }
+
+    // eventTimestamp: epoch millis of the event behind the message, for end-to-end latency (-1 if unknown)
+    public void sendToUserAsync(String userId, String message, long eventTimestamp) {
+        enqueue(userId, null, Update.ofText(message, eventTimestamp));
+    }
+
+    /**
+     * Queues an update for every session of a user. Updates with the same non-null
+     * {@code coalesceKey} replace each other while waiting, so only the latest value is delivered.
+     * Aggregates are also kept for replay, whether or not the user is connected; returns the
+     * replay slot the update went to, or -1.
+     *
+     * Each session gets only the aggregates of resolutions it subscribed to; an update that
+     * matches none of the user's sessions is never queued, so it is never encoded either.
+     */
+    public int enqueue(String userId, String coalesceKey, Update update) {
+        int slot = replayBuffer.record(userId, coalesceKey, update);
+        SessionOutbox[] outboxes = sessions.sessionsOf(userId);
+        if (outboxes.length == 0) {
+            logger.debug("No session for user {}", userId);
+            return slot;
+        }
+        // One Update shared by all of the user's sessions with the same subscription
+        for (SessionOutbox outbox : outboxes) {
+            Update matched = update.forResolutions(outbox.getSubscription().getResolutions());
+            if (matched == null) {
+                metrics.filtered.increment();
+            } else if (matched == update || coalesceKey == null) {
+                offer(outbox, coalesceKey, matched);
+            } else {
+                offer(outbox, coalesceKey + '|' + matched.getResolutions(), matched);
             }
-        });
+        }
+        return slot;
+    }
+
+    public boolean hasSessions(String userId) {
+        return sessions.hasSessions(userId);
+    }
+
+    /** Resolution bits the user's sessions on this node subscribe to; 0 without sessions. */
+    public int resolutionsOf(String userId) {
+        return sessions.resolutionsOf(userId);
+    }
+
+    /** Users with a session on this node. */
+    public Set<String> localUsers() {
+        return sessions.users();
+    }
+
+    public void setSessionListener(SessionRegistry.Listener listener) {
+        sessions.setListener(listener);
+    }
+
+    public void setSharedReplay(ReplaySource sharedReplay) {
+        this.sharedReplay = sharedReplay;
     }
 
     // Keep a broadcast method for backwards compatibility
     public void broadcast(String message) {
-        for (WebSocketSession session : sessions.values()) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (IOException e) {
-                    logger.error("Error sending message to session {}", session.getId(), e);
-                }
-            }
+        Update update = Update.ofText(message, -1);
+        for (SessionOutbox outbox : sessions.allSessions()) {
+            offer(outbox, null, update);
+        }
+    }
+
+    private void offer(SessionOutbox outbox, String coalesceKey, Update update) {
+        if (outbox.offer(coalesceKey, update) == SessionOutbox.Offer.SLOW) {
+            logger.warn("Closing slow WebSocket session {} ({} messages queued)", outbox.getSession().getId(), outbox.size());
+            metrics.evicted.increment();
+            close(outbox, TOO_SLOW);
+        }
+    }
+
+    // Drops the queue right away; the registry entry goes in afterConnectionClosed
+    private void close(SessionOutbox outbox, CloseStatus status) {
+        outbox.clear();
+        try {
+            outbox.getSession().close(status);
+        } catch (IOException e) {
+            logger.debug("Error closing session {}: {}", outbox.getSession().getId(), e.getMessage());
         }
     }
 
-    private String extractUserId(URI uri) {
+    private String queryParam(URI uri, String name) {
         if (uri == null || uri.getQuery() == null) return null;
         String[] parts = uri.getQuery().split("&");
         for (String p : parts) {
             String[] kv = p.split("=", 2);
-            if (kv.length == 2 && "userId".equalsIgnoreCase(kv[0])) {
+            if (kv.length == 2 && name.equalsIgnoreCase(kv[0])) {
                 return kv[1];
             }
         }
         return null;
     }
 
+    private static long parseMillis(String value) {
+        try {
+            return value == null ? 0 : Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     // Shutdown executor when handler is GC'd - best-effort
     @Override
     protected void finalize() throws Throwable {
@@ -119,4 +370,4 @@ public class EventWebSocketHandler extends TextWebSocketHandler {
             super.finalize();
         }
     }
-}
\ No newline at end of file
+}
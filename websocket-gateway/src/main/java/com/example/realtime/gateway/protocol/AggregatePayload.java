@@ -0,0 +1,84 @@
+package com.example.realtime.gateway.protocol;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.codec.BinaryFormat;
+import com.example.realtime.common.serde.AggregateDeserializer;
+import com.example.realtime.common.serde.AggregateSerializer;
+import com.example.realtime.common.serde.WireFormat;
+
+/**
+ * One aggregate as it arrived (a JSON or binary Kafka value), converted to the other encoding
+ * only when a client needs it. Each conversion runs at most once per payload, however many
+ * sessions receive it; concurrent first calls may both convert, which is harmless.
+ *
+ * The resolution is carried as its position in {@code app.gateway.aggregate-resolutions} (taken
+ * from the topic the value came from), so subscriptions can be matched without decoding it.
+ */
+public final class AggregatePayload {
+
+    private static final AggregateSerializer JSON_SERIALIZER = new AggregateSerializer(WireFormat.JSON);
+    private static final AggregateDeserializer DESERIALIZER = new AggregateDeserializer();
+
+    /** Resolution index of a payload whose resolution is not known; it matches every subscription. */
+    public static final int ANY_RESOLUTION = -1;
+
+    private volatile byte[] json;
+    private volatile byte[] binary;
+    private final int resolution;
+
+    private AggregatePayload(byte[] json, byte[] binary, int resolution) {
+        this.json = json;
+        this.binary = binary;
+        this.resolution = resolution;
+    }
+
+    /** Wraps a value in either format; the bytes are not copied. */
+    public static AggregatePayload of(byte[] value) {
+        return of(value, ANY_RESOLUTION);
+    }
+
+    public static AggregatePayload of(byte[] value, int resolution) {
+        return BinaryFormat.isBinary(value)
+                ? new AggregatePayload(null, value, resolution)
+                : new AggregatePayload(value, null, resolution);
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /** Bit of the resolution in a subscription mask; all bits when unknown. */
+    public int resolutionBit() {
+        return resolutionBit(resolution);
+    }
+
+    public static int resolutionBit(int resolution) {
+        return resolution < 0 ? -1 : 1 << resolution;
+    }
+
+    /** UTF-8 JSON object. */
+    public byte[] json() {
+        byte[] result = json;
+        if (result == null) {
+            result = JSON_SERIALIZER.serialize(null, AggregateCodec.decode(binary));
+            json = result;
+        }
+        return result;
+    }
+
+    /** {@code AggregateCodec} record. */
+    public byte[] binary() {
+        byte[] result = binary;
+        if (result == null) {
+            result = AggregateCodec.encode(DESERIALIZER.deserialize(null, json));
+            binary = result;
+        }
+        return result;
+    }
+
+    /** Whichever encoding is at hand, without converting. */
+    public byte[] raw() {
+        byte[] result = json;
+        return result != null ? result : binary;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.realtime.gateway.protocol;
+
+/**
+ * Frame encodings a client can ask for with the WebSocket subprotocol header
+ * ({@code new WebSocket(url, ["aggregates.v1.binary"])}). Clients that ask for none get JSON.
+ */
+public enum ClientProtocol {
+    /** Text frames holding a JSON array of aggregates. */
+    JSON("aggregates.v1.json"),
+    /** Binary frames of {@code AggregateCodec} records, see {@link FrameEncoder}. */
+    BINARY("aggregates.v1.binary");
+
+    private final String subprotocol;
+
+    ClientProtocol(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /** The protocol for an accepted subprotocol; JSON when none was negotiated. */
+    public static ClientProtocol fromSubprotocol(String subprotocol) {
+        for (ClientProtocol protocol : values()) {
+            if (protocol.subprotocol.equals(subprotocol)) {
+                return protocol;
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.realtime.gateway.protocol;
+
+import com.example.realtime.common.codec.BinaryWriter;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.List;
+
+/**
+ * Packs the aggregates of one or more updates into a single WebSocket frame.
+ *
+ * JSON: a text frame holding {@code [agg,agg,...]}, built from the JSON bytes as they are.
+ * Binary:
+ * <pre>
+ *   FRAME_MAGIC, FRAME_VERSION
+ *   count  : varint
+ *   count x (length varint, AggregateCodec record)
+ * </pre>
+ */
+public final class FrameEncoder {
+    private FrameEncoder() {}
+
+    // Not the record magic (0xA5), so a frame is never mistaken for a single record
+    public static final byte FRAME_MAGIC = (byte) 0xA6;
+    public static final int FRAME_VERSION = 1;
+
+    private static final ThreadLocal<BinaryWriter> WRITER = ThreadLocal.withInitial(() -> new BinaryWriter(1024));
+
+    public static WebSocketMessage<?> encode(ClientProtocol protocol, List<Update> updates) {
+        return protocol == ClientProtocol.BINARY ? encodeBinary(updates) : encodeJson(updates);
+    }
+
+    private static TextMessage encodeJson(List<Update> updates) {
+        // Exact size up front: brackets, elements and the commas between them
+        int length = 2;
+        int count = 0;
+        for (Update update : updates) {
+            for (AggregatePayload aggregate : update.getAggregates()) {
+                length += aggregate.json().length;
+                count++;
+            }
+        }
+        length += Math.max(count - 1, 0);
+        byte[] frame = new byte[length];
+        int pos = 0;
+        frame[pos++] = '[';
+        for (Update update : updates) {
+            for (AggregatePayload aggregate : update.getAggregates()) {
+                if (pos > 1) {
+                    frame[pos++] = ',';
+                }
+                byte[] json = aggregate.json();
+                System.arraycopy(json, 0, frame, pos, json.length);
+                pos += json.length;
+            }
+        }
+        frame[pos] = ']';
+        return new TextMessage(frame);
+    }
+
+    private static BinaryMessage encodeBinary(List<Update> updates) {
+        int count = 0;
+        for (Update update : updates) {
+            count += update.getAggregates().length;
+        }
+        BinaryWriter out = WRITER.get();
+        out.reset();
+        out.writeByte(FRAME_MAGIC);
+        out.writeByte(FRAME_VERSION);
+        out.writeVarInt(count);
+        for (Update update : updates) {
+            for (AggregatePayload aggregate : update.getAggregates()) {
+                byte[] record = aggregate.binary();
+                out.writeVarInt(record.length);
+                out.writeBytes(record);
+            }
+        }
+        return new BinaryMessage(out.toByteArray());
+    }
+}
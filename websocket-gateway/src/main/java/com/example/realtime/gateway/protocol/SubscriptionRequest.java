@@ -0,0 +1,33 @@
+package com.example.realtime.gateway.protocol;
+
+import java.util.List;
+
+/**
+ * Text message a client sends to choose what it receives:
+ * <pre>
+ *   {"type":"subscribe","resolutions":["1m","1h"],"maxRate":2}
+ *   {"type":"unsubscribe","resolutions":["1h"]}
+ * </pre>
+ * No resolutions means all of them. {@code maxRate} caps frames per second for the session
+ * (0 lifts the cap; left out, the current one stays; non-zero rates below 0.001 are refused). The gateway answers each request with
+ * {@code {"type":"subscribed",...}} holding the resulting subscription, or {@code {"type":"error",...}}.
+ */
+public class SubscriptionRequest {
+    public static final String SUBSCRIBE = "subscribe";
+    public static final String UNSUBSCRIBE = "unsubscribe";
+
+    private String type;
+    private List<String> resolutions;
+    private Double maxRate;
+
+    public SubscriptionRequest() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<String> getResolutions() { return resolutions; }
+    public void setResolutions(List<String> resolutions) { this.resolutions = resolutions; }
+
+    public Double getMaxRate() { return maxRate; }
+    public void setMaxRate(Double maxRate) { this.maxRate = maxRate; }
+}
@@ -0,0 +1,118 @@
+package com.example.realtime.gateway.protocol;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One update for a user: either aggregates, which are framed per {@link ClientProtocol} and may
+ * be packed with other updates into one frame, or a plain text notice sent as it is.
+ *
+ * The same instance is offered to every session of the user; a frame holding just this update
+ * is encoded once per protocol and shared. Binary frames are handed out as a fresh message over
+ * the shared bytes, since sending one consumes its buffer's position.
+ *
+ * Sessions subscribed to only some resolutions get {@link #forResolutions} instead: a narrower
+ * update, built once per distinct subscription and shared the same way.
+ */
+public final class Update {
+
+    private final AggregatePayload[] aggregates;
+    private final String text;
+    private final long eventTimestamp;
+    // Resolution bits of the aggregates (see AggregatePayload#resolutionBit); all bits for text
+    private final int resolutions;
+
+    private final AtomicReferenceArray<WebSocketMessage<?>> frames =
+            new AtomicReferenceArray<>(ClientProtocol.values().length);
+    // Last narrowed copy; the sessions of one user mostly share a subscription
+    private volatile Narrowed narrowed;
+
+    private Update(AggregatePayload[] aggregates, String text, long eventTimestamp) {
+        this.aggregates = aggregates;
+        this.text = text;
+        this.eventTimestamp = eventTimestamp;
+        int mask = aggregates == null ? -1 : 0;
+        if (aggregates != null) {
+            for (AggregatePayload aggregate : aggregates) {
+                mask |= aggregate.resolutionBit();
+            }
+        }
+        this.resolutions = mask;
+    }
+
+    private record Narrowed(int subscribed, Update update) {}
+
+    /** @param eventTimestamp epoch millis of the latest event behind the aggregates, for latency (-1 if unknown) */
+    public static Update ofAggregates(AggregatePayload[] aggregates, long eventTimestamp) {
+        return new Update(aggregates, null, eventTimestamp);
+    }
+
+    public static Update ofText(String text, long eventTimestamp) {
+        return new Update(null, text, eventTimestamp);
+    }
+
+    public boolean isText() {
+        return text != null;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public AggregatePayload[] getAggregates() {
+        return aggregates;
+    }
+
+    public long getEventTimestamp() {
+        return eventTimestamp;
+    }
+
+    public int getResolutions() {
+        return resolutions;
+    }
+
+    /**
+     * This update as seen by a session subscribed to the {@code subscribed} resolution bits: itself
+     * when it holds nothing else, null when it holds none of them. Text notices always match, even
+     * a session unsubscribed from everything.
+     */
+    public Update forResolutions(int subscribed) {
+        if (aggregates == null || (resolutions & ~subscribed) == 0) {
+            return this;
+        }
+        if ((resolutions & subscribed) == 0) {
+            return null;
+        }
+        Narrowed cached = narrowed;
+        if (cached != null && cached.subscribed() == subscribed) {
+            return cached.update();
+        }
+        List<AggregatePayload> kept = new ArrayList<>(aggregates.length);
+        for (AggregatePayload aggregate : aggregates) {
+            if ((aggregate.resolutionBit() & subscribed) != 0) {
+                kept.add(aggregate);
+            }
+        }
+        Update update = new Update(kept.toArray(AggregatePayload[]::new), null, eventTimestamp);
+        // Benign race, as for frames
+        narrowed = new Narrowed(subscribed, update);
+        return update;
+    }
+
+    /** The frame for this update alone; every call may be sent independently. */
+    public WebSocketMessage<?> frame(ClientProtocol protocol) {
+        WebSocketMessage<?> frame = frames.get(protocol.ordinal());
+        if (frame == null) {
+            frame = isText() ? new TextMessage(text) : FrameEncoder.encode(protocol, List.of(this));
+            // Benign race: another session may encode the same frame concurrently
+            frames.set(protocol.ordinal(), frame);
+        }
+        // The cached message is never sent itself, so its buffer stays at position 0
+        return frame instanceof BinaryMessage binary ? new BinaryMessage(binary.getPayload().duplicate()) : frame;
+    }
+}
@@ -1,38 +1,175 @@
 package com.example.realtime.gateway.service;
 
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.codec.BinaryFormat;
 import com.example.realtime.common.dto.AggregateDTO;
-import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.common.serde.EventTimeHeader;
+import com.example.realtime.gateway.cluster.ClusterRouter;
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.Update;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 public class KafkaPushService {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaPushService.class);
 
-    private final EventWebSocketHandler webSocketHandler;
+    private static final Comparator<Slot> SLOT_ORDER = Comparator.comparingInt(Slot::topic)
+            .thenComparingLong(slot -> slot.record().offset());
+
+    private final ClusterRouter clusterRouter;
     private final ObjectMapper objectMapper;
 
-    public KafkaPushService(EventWebSocketHandler webSocketHandler, ObjectMapper objectMapper) {
-        this.webSocketHandler = webSocketHandler;
+    // Topics the batch listener consumes; an update holds the latest record of each window of each
+    @Value("${app.gateway.aggregate-topics:events-aggregated}")
+    private List<String> aggregateTopics;
+
+    // Resolution of each of those topics, same order; a payload is tagged with its position
+    @Value("${app.gateway.aggregate-resolutions:1m}")
+    private List<String> aggregateResolutions;
+
+    public KafkaPushService(ClusterRouter clusterRouter, ObjectMapper objectMapper) {
+        this.clusterRouter = clusterRouter;
         this.objectMapper = objectMapper;
     }
 
-    @KafkaListener(topics = "events-aggregated", groupId = "websocket-push-group")
-    public void consumeAggregates(AggregateDTO aggregate) {
+    // Record-at-a-time mode, kept for comparison: deserializes and re-serializes every aggregate.
+    // Only one of the two listeners runs, selected by app.gateway.batch-enabled.
+    @KafkaListener(id = "push-record-listener", topics = "events-aggregated", groupId = "websocket-push-group",
+            autoStartup = "#{!${app.gateway.batch-enabled:true}}")
+    public void consumeAggregates(@Payload AggregateDTO aggregate,
+                                  @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long recordTimestamp,
+                                  // Client time of the latest event in the aggregate, see EventTimeHeader
+                                  @Header(name = EventTimeHeader.NAME, required = false) byte[] eventTime) {
+        long eventTimestamp = eventTime != null ? EventTimeHeader.decode(eventTime) : recordTimestamp;
         try {
-            String jsonMessage = objectMapper.writeValueAsString(aggregate);
             String userId = aggregate.getMetricId();
+            int resolution = aggregateResolutions.indexOf(aggregate.getResolution());
 
-            logger.debug("Received aggregate for user {}: {}", userId, jsonMessage);
+            logger.debug("Received aggregate for user {}", userId);
 
-            // Async send to the specific user
-            webSocketHandler.sendToUserAsync(userId, jsonMessage);
+            // Never encoded when no session, here or on another node, subscribes to its resolution;
+            // such an aggregate is not kept for replay either
+            if (!clusterRouter.isSubscribed(userId, AggregatePayload.resolutionBit(resolution))) {
+                return;
+            }
+            byte[] json = objectMapper.writeValueAsBytes(aggregate);
+
+            // Async send to the specific user, on this node or the node that holds the session
+            // Only the latest update per metric, resolution and window is kept while the client catches up
+            AggregatePayload payload = AggregatePayload.of(json, resolution);
+            Update update = Update.ofAggregates(new AggregatePayload[]{payload}, eventTimestamp);
+            clusterRouter.route(userId, userId + '|' + aggregate.getResolution() + '@' + aggregate.getWindowStart(), update);
         } catch (Exception e) {
             logger.error("Error processing aggregate message", e);
         }
     }
-}
\ No newline at end of file
+
+    // Batch mode: route by record key and pass the values through untouched.
+    // Each user gets one update per poll holding the latest record of every topic and window:
+    // records of the same window replace each other, those of different windows (say, a final
+    // result followed by the next window's first) are all delivered.
+    @KafkaListener(id = "push-batch-listener", topics = "#{'${app.gateway.aggregate-topics:events-aggregated}'.split(',')}",
+            groupId = "websocket-push-group", containerFactory = "rawBatchKafkaListenerContainerFactory",
+            autoStartup = "${app.gateway.batch-enabled:true}")
+    public void consumeAggregateBatch(List<ConsumerRecord<String, byte[]>> records) {
+        // 1. Latest record per user, topic and window; the aggregates topics are keyed by userId
+        Map<String, Map<String, Slot>> latest = new HashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            int topic = aggregateTopics.indexOf(record.topic());
+            if (record.key() == null || record.value() == null || topic < 0) {
+                continue;
+            }
+            Slot slot = new Slot(topic + "@" + windowOf(record.value()), topic, record);
+            latest.computeIfAbsent(record.key(), k -> new HashMap<>()).put(slot.key(), slot);
+        }
+
+        // 2. One update per user, all routed together so presence is looked up once per poll
+        List<ClusterRouter.Delivery> deliveries = new ArrayList<>(latest.size());
+        for (Map.Entry<String, Map<String, Slot>> entry : latest.entrySet()) {
+            deliveries.add(toDelivery(entry.getKey(), entry.getValue().values()));
+        }
+        clusterRouter.route(deliveries);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Pushed {} aggregates as {} updates", records.size(), latest.size());
+        }
+    }
+
+    private ClusterRouter.Delivery toDelivery(String userId, Collection<Slot> slots) {
+        // In topic order, then in the order the windows were emitted
+        Slot[] sorted = slots.toArray(new Slot[0]);
+        Arrays.sort(sorted, SLOT_ORDER);
+
+        AggregatePayload[] aggregates = new AggregatePayload[sorted.length];
+        long eventTimestamp = -1;
+        StringBuilder coalesceKey = new StringBuilder(userId).append('|');
+        for (int i = 0; i < sorted.length; i++) {
+            ConsumerRecord<String, byte[]> record = sorted[i].record();
+            // Converted to JSON or binary only if some session asks for the other format;
+            // sessions not subscribed to this topic's resolution never see it
+            aggregates[i] = AggregatePayload.of(record.value(), sorted[i].topic());
+            eventTimestamp = Math.max(eventTimestamp, eventTimestamp(record));
+            coalesceKey.append(i == 0 ? "" : ",").append(sorted[i].key());
+        }
+        Update update = Update.ofAggregates(aggregates, eventTimestamp);
+
+        // A newer update replaces a waiting one only if it covers the same windows of the same topics
+        return new ClusterRouter.Delivery(userId, coalesceKey.toString(), update);
+    }
+
+    // Window start of an aggregate as it appears in the value, read without decoding the rest;
+    // null if it has none or cannot be read, in which case records of the topic replace each other
+    private String windowOf(byte[] value) {
+        try {
+            if (BinaryFormat.isBinary(value)) {
+                long start = AggregateCodec.windowStart(value);
+                return start == Long.MIN_VALUE ? null : Long.toString(start);
+            }
+            try (JsonParser parser = objectMapper.getFactory().createParser(value)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("windowStart".equals(field)) {
+                        return parser.getValueAsString();
+                    }
+                    parser.skipChildren();
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Could not read the window of an aggregate: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    // key is "topic@windowStart", also used for coalescing
+    private record Slot(String key, int topic, ConsumerRecord<String, byte[]> record) {}
+
+    // Client time of the latest event behind the aggregate; the record time (ingest) without one
+    private static long eventTimestamp(ConsumerRecord<String, byte[]> record) {
+        long eventTime = EventTimeHeader.decode(record.headers());
+        return eventTime >= 0 ? eventTime : record.timestamp();
+    }
+}
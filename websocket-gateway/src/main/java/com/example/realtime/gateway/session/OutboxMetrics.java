@@ -0,0 +1,72 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.gateway.protocol.Update;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Meters shared by all {@link SessionOutbox}es of a gateway; registered once. */
+public class OutboxMetrics {
+
+    final AtomicInteger queued = new AtomicInteger();
+    final Counter coalesced;
+    final Counter dropped;
+    public final Counter evicted;
+    public final Counter filtered;
+    private final DistributionSummary frameUpdates;
+    private final Timer sendLatency;
+    private final Timer endToEndLatency;
+
+    public OutboxMetrics(MeterRegistry meterRegistry) {
+        Gauge.builder("gateway.queue.depth", queued, AtomicInteger::get)
+                .description("Messages waiting to be written to a WebSocket, over all sessions")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("gateway.coalesced")
+                .description("Queued messages replaced by a newer update for the same metric")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("gateway.dropped")
+                .description("Messages dropped because a session queue was full")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("gateway.evicted")
+                .description("Sessions closed for staying above the high-water mark")
+                .register(meterRegistry);
+        this.filtered = Counter.builder("gateway.filtered")
+                .description("Updates not queued for a session because it did not subscribe to them")
+                .register(meterRegistry);
+        this.frameUpdates = DistributionSummary.builder("gateway.frame.updates")
+                .description("Updates packed into one WebSocket frame")
+                .register(meterRegistry);
+        this.sendLatency = Timer.builder("gateway.send")
+                .description("Time to write one frame to a WebSocket")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+        this.endToEndLatency = Timer.builder("gateway.e2e.latency")
+                .description("Client event time of the latest event in the aggregate (event-time header) to WebSocket delivery")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+    }
+
+    void recordSend(long sendNanos, List<Update> updates) {
+        sendLatency.record(sendNanos, TimeUnit.NANOSECONDS);
+        frameUpdates.record(updates.size());
+        long now = System.currentTimeMillis();
+        for (Update update : updates) {
+            if (update.getEventTimestamp() > 0) {
+                endToEndLatency.record(now - update.getEventTimestamp(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.Update;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recent aggregates per user, replayed to a session when it connects so the client has state
+ * before the next update arrives.
+ *
+ * Each user has a fixed-size ring of at most {@code perUser} coalesce keys holding the latest
+ * update for each: a newer update replaces the one with the same key in place, a new key takes
+ * the oldest slot. The slots are allocated once per user, and updates are stored as the shared
+ * instances that were delivered, so recording copies nothing. Rings are updated under their own
+ * map entry, so users never wait on each other.
+ *
+ * All rings together are kept under {@code maxBytes} (payload bytes plus a fixed overhead per
+ * entry); beyond that the least recently updated or replayed users are dropped first, down to
+ * three quarters of the cap so that one pass makes room for many new users.
+ */
+public class ReplayBuffer {
+
+    // Rough per-entry cost of the Update, payload and array slots on top of the payload bytes
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final int perUser;
+    private final long maxBytes;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    // Orders users by their last record or replay
+    private final AtomicLong clock = new AtomicLong();
+    // One eviction pass at a time; the others skip it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Counter evicted;
+
+    public ReplayBuffer(int perUser, long maxBytes, MeterRegistry meterRegistry) {
+        this.perUser = perUser;
+        this.maxBytes = maxBytes;
+        this.evicted = Counter.builder("gateway.replay.evicted")
+                .description("Users dropped from the replay buffer to stay under its memory cap")
+                .register(meterRegistry);
+        Gauge.builder("gateway.replay.bytes", this, ReplayBuffer::getBytes)
+                .description("Estimated memory held by the replay buffer")
+                .register(meterRegistry);
+        Gauge.builder("gateway.replay.users", this, ReplayBuffer::getUserCount)
+                .description("Users with updates in the replay buffer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Remembers an aggregate update; text notices are not replayed. Returns the ring slot it went
+     * to, or -1 if it was not kept.
+     */
+    public int record(String userId, String coalesceKey, Update update) {
+        if (perUser <= 0 || update.isText() || coalesceKey == null) {
+            return -1;
+        }
+        long size = sizeOf(update);
+        int[] slot = new int[1];
+        rings.compute(userId, (user, ring) -> {
+            if (ring == null) {
+                ring = new Ring(perUser);
+            }
+            long before = ring.bytes;
+            slot[0] = ring.put(coalesceKey, update, size);
+            bytes.addAndGet(ring.bytes - before);
+            ring.lastUsed = clock.incrementAndGet();
+            return ring;
+        });
+        if (bytes.get() > maxBytes) {
+            evictOverCap(userId);
+        }
+        return slot[0];
+    }
+
+    /**
+     * Offers the user's buffered updates, oldest first, to a session that just connected and
+     * {@linkplain SessionOutbox#expectReplay expects} them; always ends the session's replay.
+     */
+    public void replay(String userId, SessionOutbox outbox) {
+        String[][] keys = {new String[0]};
+        Update[][] updates = {new Update[0]};
+        if (perUser > 0) {
+            rings.computeIfPresent(userId, (user, ring) -> {
+                keys[0] = new String[ring.count];
+                updates[0] = new Update[ring.count];
+                ring.copyTo(keys[0], updates[0]);
+                ring.lastUsed = clock.incrementAndGet();
+                return ring;
+            });
+        }
+        // Outside the map entry: the outbox packs these into one frame
+        outbox.replay(keys[0], updates[0]);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public int getUserCount() {
+        return rings.size();
+    }
+
+    // Drops idle users until under the low-water mark; the user just written is kept
+    private void evictOverCap(String current) {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            // Last-used times are read once: they keep moving while the candidates are sorted
+            List<Idle> candidates = new ArrayList<>(rings.size());
+            rings.forEach((user, ring) -> candidates.add(new Idle(user, ring, ring.lastUsed)));
+            candidates.sort(Comparator.comparingLong(Idle::lastUsed));
+            long lowWater = maxBytes - maxBytes / 4;
+            boolean[] removed = new boolean[1];
+            for (Idle idle : candidates) {
+                if (bytes.get() <= lowWater) {
+                    break;
+                }
+                if (idle.userId().equals(current)) {
+                    continue;
+                }
+                removed[0] = false;
+                rings.computeIfPresent(idle.userId(), (user, ring) -> {
+                    // Touched since the snapshot: no longer idle
+                    if (ring != idle.ring() || ring.lastUsed != idle.lastUsed()) {
+                        return ring;
+                    }
+                    bytes.addAndGet(-ring.bytes);
+                    removed[0] = true;
+                    return null;
+                });
+                if (removed[0]) {
+                    evicted.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private record Idle(String userId, Ring ring, long lastUsed) {}
+
+    private static long sizeOf(Update update) {
+        long size = 0;
+        for (AggregatePayload aggregate : update.getAggregates()) {
+            size += aggregate.raw().length + ENTRY_OVERHEAD;
+        }
+        return size;
+    }
+
+    /**
+     * Latest update per key for one user; slots in insertion order, oldest at {@code next}. Only
+     * touched inside its map entry's compute.
+     */
+    private static final class Ring {
+        final String[] keys;
+        final Update[] updates;
+        final long[] sizes;
+        int next;
+        int count;
+        long bytes;
+        // Read without the entry by the eviction pass
+        volatile long lastUsed;
+
+        Ring(int capacity) {
+            keys = new String[capacity];
+            updates = new Update[capacity];
+            sizes = new long[capacity];
+        }
+
+        /** Stores the update and returns its slot. */
+        int put(String key, Update update, long size) {
+            int slot = indexOf(key);
+            if (slot < 0) {
+                slot = next;
+                next = (next + 1) % keys.length;
+                count = Math.min(count + 1, keys.length);
+                keys[slot] = key;
+            }
+            bytes += size - sizes[slot];
+            updates[slot] = update;
+            sizes[slot] = size;
+            return slot;
+        }
+
+        void copyTo(String[] keysOut, Update[] updatesOut) {
+            int start = count < keys.length ? 0 : next;
+            for (int i = 0; i < count; i++) {
+                int slot = (start + i) % keys.length;
+                keysOut[i] = keys[slot];
+                updatesOut[i] = updates[slot];
+            }
+        }
+
+        // Linear scan: rings are a handful of slots
+        private int indexOf(String key) {
+            for (int i = 0; i < count; i++) {
+                if (key.equals(keys[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.FrameEncoder;
+import com.example.realtime.gateway.protocol.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded outbound queue of one WebSocket session.
+ *
+ * Updates are coalesced by key (metric and resolution): while an update waits, a newer one for
+ * the same key replaces it in place, so a slow client receives fewer but current values instead
+ * of a growing backlog. At most one drain task per session runs at a time, which makes it the
+ * only writer to the socket; no lock is held while sending.
+ *
+ * The queue holds at most {@code capacity} keys. A session that stays above {@code highWater}
+ * for longer than the allowed time is reported as {@link Offer#SLOW} so the caller can close it.
+ *
+ * Aggregate updates that are pending together go out as one frame in the session's
+ * {@link ClientProtocol}. With a batch window the drain task first waits that long, so a busy
+ * user's updates are packed into one frame per window instead of one frame each. A subscription
+ * with a maximum rate works the same way: the drain task waits until the minimum gap since the
+ * previous frame has passed, and coalescing keeps what it then sends current.
+ */
+public class SessionOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbox.class);
+
+    public enum Offer { QUEUED, COALESCED, DROPPED, SLOW }
+
+    // Upper bound on updates packed into one frame
+    static final int MAX_FRAME_UPDATES = 256;
+
+    private final WebSocketSession session;
+    private final String userId;
+    private final int capacity;
+    private final int highWater;
+    private final long maxOverHighWaterNanos;
+    private final Executor executor;
+    private final OutboxMetrics metrics;
+    private final ClientProtocol protocol;
+    private final long batchWindowNanos;
+
+    // Latest update per key, and the order in which keys first became pending
+    private final ConcurrentHashMap<String, Update> latest = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // Keys for messages that must not be coalesced
+    private final AtomicLong uniqueKeys = new AtomicLong();
+    // nanoTime when the queue went above the high-water mark, 0 while below
+    private volatile long overHighWaterSince;
+    private volatile Subscription subscription = Subscription.ALL;
+    // Between expectReplay and replay, keys of live offers, so the replay never overtakes them
+    private volatile boolean replaying;
+    private final Set<String> liveKeys = new HashSet<>();
+    // nanoTime of the last frame written; only the drain task touches it
+    private long lastFrameNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+    public SessionOutbox(WebSocketSession session, String userId, int capacity, int highWater,
+                         long maxOverHighWaterNanos, Executor executor, OutboxMetrics metrics,
+                         ClientProtocol protocol, long batchWindowNanos) {
+        this.session = session;
+        this.userId = userId;
+        this.capacity = capacity;
+        this.highWater = highWater;
+        this.maxOverHighWaterNanos = maxOverHighWaterNanos;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.protocol = protocol;
+        this.batchWindowNanos = batchWindowNanos;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ClientProtocol getProtocol() {
+        return protocol;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public Subscription getSubscription() {
+        return subscription;
+    }
+
+    public void setSubscription(Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * Queues {@code update}, replacing a waiting update with the same {@code coalesceKey}.
+     * A null key is never coalesced. The update is not copied, so one instance can be offered
+     * to every session of a user.
+     */
+    public Offer offer(String coalesceKey, Update update) {
+        if (replaying && coalesceKey != null) {
+            synchronized (liveKeys) {
+                if (replaying) {
+                    liveKeys.add(coalesceKey);
+                }
+                return enqueue(coalesceKey, update);
+            }
+        }
+        return enqueue(coalesceKey, update);
+    }
+
+    /**
+     * Call before the session is registered for live updates: from then on until {@link #replay},
+     * live offers note their keys.
+     */
+    public void expectReplay() {
+        replaying = true;
+    }
+
+    /**
+     * Queues the updates recorded before the session connected, except for keys that already got
+     * a live update: that one is newer, whether it is still waiting or already sent.
+     */
+    public void replay(String[] keys, Update[] updates) {
+        synchronized (liveKeys) {
+            for (int i = 0; i < keys.length; i++) {
+                if (!liveKeys.contains(keys[i])) {
+                    enqueue(keys[i], updates[i]);
+                }
+            }
+            replaying = false;
+            liveKeys.clear();
+        }
+    }
+
+    private Offer enqueue(String coalesceKey, Update update) {
+        String key = coalesceKey != null ? coalesceKey : "\u0000" + uniqueKeys.incrementAndGet();
+
+        Offer result;
+        if (latest.replace(key, update) != null) {
+            metrics.coalesced.increment();
+            result = Offer.COALESCED;
+        } else if (size.get() >= capacity) {
+            metrics.dropped.increment();
+            result = Offer.DROPPED;
+        } else if (latest.putIfAbsent(key, update) == null) {
+            size.incrementAndGet();
+            metrics.queued.incrementAndGet();
+            order.offer(key);
+            result = Offer.QUEUED;
+        } else {
+            // Raced with another producer for the same key
+            latest.put(key, update);
+            metrics.coalesced.increment();
+            result = Offer.COALESCED;
+        }
+
+        if (size.get() > highWater) {
+            long now = System.nanoTime();
+            long since = overHighWaterSince;
+            if (since == 0) {
+                overHighWaterSince = now;
+            } else if (now - since > maxOverHighWaterNanos) {
+                return Offer.SLOW;
+            }
+        }
+
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+        return result;
+    }
+
+    /** Drops everything still queued (the session is gone). */
+    public void clear() {
+        String key;
+        while ((key = order.poll()) != null) {
+            if (latest.remove(key) != null) {
+                size.decrementAndGet();
+                metrics.queued.decrementAndGet();
+            }
+        }
+    }
+
+    private void drain() {
+        long wait = Math.max(batchWindowNanos,
+                subscription.getMinIntervalNanos() - (System.nanoTime() - lastFrameNanos));
+        if (wait > 0) {
+            // Runs on a virtual thread: parking here lets the window's updates pile up cheaply
+            LockSupport.parkNanos(wait);
+        }
+        List<Update> frame = new ArrayList<>();
+        do {
+            String key;
+            while ((key = order.poll()) != null) {
+                Update update = latest.remove(key);
+                if (update == null) {
+                    continue;
+                }
+                size.decrementAndGet();
+                metrics.queued.decrementAndGet();
+                if (size.get() <= highWater) {
+                    overHighWaterSince = 0;
+                }
+                if (update.isText()) {
+                    // Notices keep their place in the stream and go out on their own
+                    flush(frame);
+                    send(update.frame(protocol), List.of(update));
+                } else {
+                    frame.add(update);
+                    if (frame.size() >= MAX_FRAME_UPDATES) {
+                        flush(frame);
+                    }
+                }
+            }
+            flush(frame);
+            draining.set(false);
+            // An offer may have slipped in after the last poll but before the flag was cleared
+        } while (!order.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void flush(List<Update> frame) {
+        if (frame.isEmpty()) {
+            return;
+        }
+        // A lone update reuses the frame shared with the user's other sessions
+        send(frame.size() == 1 ? frame.get(0).frame(protocol) : FrameEncoder.encode(protocol, frame), frame);
+        frame.clear();
+    }
+
+    private void send(WebSocketMessage<?> message, List<Update> updates) {
+        if (!session.isOpen()) {
+            clear();
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            session.sendMessage(message);
+            lastFrameNanos = System.nanoTime();
+            metrics.recordSend(lastFrameNanos - start, updates);
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Dropping message for session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.realtime.gateway.session;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open sessions by user (many devices per user) and by session id.
+ *
+ * Both indexes are ConcurrentHashMaps, which lock per hash bin, so connects and disconnects of
+ * different users never contend. A user's sessions are an immutable array replaced atomically
+ * on change: fan-out reads it without locking, and connect/disconnect cost O(sessions of that
+ * user) rather than O(all sessions).
+ */
+public class SessionRegistry {
+
+    private static final SessionOutbox[] NONE = new SessionOutbox[0];
+
+    private final Map<String, SessionOutbox[]> byUser = new ConcurrentHashMap<>();
+    private final Map<String, SessionOutbox> bySessionId = new ConcurrentHashMap<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final int maxSessionsPerUser;
+
+    private volatile Listener listener;
+
+    /**
+     * Told when a user gets a first session on this node, or loses the last one, and when the
+     * resolutions their sessions subscribe to change in between.
+     */
+    public interface Listener {
+        void userConnected(String userId);
+
+        void userDisconnected(String userId);
+
+        void resolutionsChanged(String userId, int resolutions);
+    }
+
+    public SessionRegistry(int maxSessionsPerUser) {
+        this.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    /**
+     * Adds a session. When the user already has {@code maxSessionsPerUser} sessions the oldest
+     * one is unregistered and returned so the caller can close it; otherwise returns null.
+     */
+    public SessionOutbox register(SessionOutbox outbox) {
+        bySessionId.put(outbox.getSession().getId(), outbox);
+        sessionCount.incrementAndGet();
+
+        SessionOutbox[] displaced = new SessionOutbox[1];
+        boolean[] first = new boolean[1];
+        int[] before = new int[1];
+        byUser.compute(outbox.getUserId(), (userId, current) -> {
+            if (current == null) {
+                first[0] = true;
+                return new SessionOutbox[]{outbox};
+            }
+            before[0] = resolutionsOf(current);
+            if (current.length >= maxSessionsPerUser) {
+                displaced[0] = current[0];
+                SessionOutbox[] next = Arrays.copyOfRange(current, 1, current.length + 1);
+                next[next.length - 1] = outbox;
+                return next;
+            }
+            SessionOutbox[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = outbox;
+            return next;
+        });
+
+        if (displaced[0] != null && bySessionId.remove(displaced[0].getSession().getId()) != null) {
+            sessionCount.decrementAndGet();
+        }
+        Listener l = listener;
+        if (first[0] && l != null) {
+            l.userConnected(outbox.getUserId());
+        } else if (l != null) {
+            notifyIfChanged(l, outbox.getUserId(), before[0]);
+        }
+        return displaced[0];
+    }
+
+    /** Removes a session by id; returns it, or null if it was not registered. */
+    public SessionOutbox unregister(String sessionId) {
+        SessionOutbox outbox = bySessionId.remove(sessionId);
+        if (outbox == null) {
+            return null;
+        }
+        sessionCount.decrementAndGet();
+        boolean[] last = new boolean[1];
+        int[] before = new int[1];
+        byUser.computeIfPresent(outbox.getUserId(), (userId, current) -> {
+            before[0] = resolutionsOf(current);
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == outbox) {
+                    if (current.length == 1) {
+                        last[0] = true;
+                        return null;
+                    }
+                    SessionOutbox[] next = new SessionOutbox[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    return next;
+                }
+            }
+            return current;
+        });
+        Listener l = listener;
+        if (last[0] && l != null) {
+            l.userDisconnected(outbox.getUserId());
+        } else if (l != null) {
+            notifyIfChanged(l, outbox.getUserId(), before[0]);
+        }
+        return outbox;
+    }
+
+    /** Call after a session of the user changed its subscription. */
+    public void subscriptionChanged(String userId) {
+        Listener l = listener;
+        if (l != null && hasSessions(userId)) {
+            l.resolutionsChanged(userId, resolutionsOf(userId));
+        }
+    }
+
+    /** Resolution bits any session of the user subscribes to; 0 when none. */
+    public int resolutionsOf(String userId) {
+        return resolutionsOf(sessionsOf(userId));
+    }
+
+    private void notifyIfChanged(Listener l, String userId, int before) {
+        SessionOutbox[] current = byUser.get(userId);
+        if (current != null && resolutionsOf(current) != before) {
+            l.resolutionsChanged(userId, resolutionsOf(current));
+        }
+    }
+
+    private static int resolutionsOf(SessionOutbox[] outboxes) {
+        int resolutions = 0;
+        for (SessionOutbox outbox : outboxes) {
+            resolutions |= outbox.getSubscription().getResolutions();
+        }
+        return resolutions;
+    }
+
+    /** The session with this id, or null. */
+    public SessionOutbox get(String sessionId) {
+        return bySessionId.get(sessionId);
+    }
+
+    /** Sessions of a user; an empty array when none. The array must not be modified. */
+    public SessionOutbox[] sessionsOf(String userId) {
+        SessionOutbox[] sessions = byUser.get(userId);
+        return sessions != null ? sessions : NONE;
+    }
+
+    public boolean hasSessions(String userId) {
+        return byUser.containsKey(userId);
+    }
+
+    /** Users with at least one session; a live view. */
+    public Set<String> users() {
+        return byUser.keySet();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Iterable<SessionOutbox> allSessions() {
+        return bySessionId.values();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    public int getUserCount() {
+        return byUser.size();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.realtime.gateway.session;
+
+/**
+ * What one session asked to receive, compiled for the fan-out path: a mask of resolution bits
+ * (positions in {@code app.gateway.aggregate-resolutions}) and the shortest gap between frames.
+ *
+ * Immutable; a session swaps in a new instance on every subscribe/unsubscribe. A session that
+ * never subscribed gets everything, as before subscriptions existed. Its first subscribe narrows
+ * that down to what it names; later ones add to it.
+ */
+public final class Subscription {
+
+    public static final Subscription ALL = new Subscription(-1, 0, false);
+
+    private final int resolutions;
+    private final long minIntervalNanos;
+    // False until the client subscribes or unsubscribes for the first time
+    private final boolean explicit;
+
+    private Subscription(int resolutions, long minIntervalNanos, boolean explicit) {
+        this.resolutions = resolutions;
+        this.minIntervalNanos = minIntervalNanos;
+        this.explicit = explicit;
+    }
+
+    /** Adds resolutions; {@code minIntervalNanos} replaces the current limit unless negative. */
+    public Subscription subscribe(int resolutions, long minIntervalNanos) {
+        return new Subscription(explicit ? this.resolutions | resolutions : resolutions,
+                minIntervalNanos < 0 ? this.minIntervalNanos : minIntervalNanos, true);
+    }
+
+    public Subscription unsubscribe(int resolutions) {
+        return new Subscription(this.resolutions & ~resolutions, minIntervalNanos, true);
+    }
+
+    public int getResolutions() {
+        return resolutions;
+    }
+
+    /** Shortest time between two frames to the session; 0 for no limit. */
+    public long getMinIntervalNanos() {
+        return minIntervalNanos;
+    }
+}
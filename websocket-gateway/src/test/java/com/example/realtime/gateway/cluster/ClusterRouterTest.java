@@ -0,0 +1,205 @@
+package com.example.realtime.gateway.cluster;
+
+import com.example.realtime.gateway.handler.EventWebSocketHandler;
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.Update;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EventWebSocketHandler handler = mock(EventWebSocketHandler.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final PresenceDirectory presence = mock(PresenceDirectory.class);
+    private final ReplayStore replayStore = mock(ReplayStore.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void queuesLocallyAndForwardsToEveryOtherNodeOfTheUser() throws Exception {
+        when(presence.getNodeId()).thenReturn("a");
+        when(presence.nodesOf(List.of("alice"))).thenReturn(Map.of("alice", Map.of("a", -1, "b", -1, "c", -1)));
+        ClusterRouter router = router(presence);
+        Update update = aggregate("{\"count\":3}", 1);
+
+        router.route("alice", "alice|topics|3", update);
+
+        verify(handler).enqueue("alice", "alice|topics|3", update);
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq("live-updates:b"), message.capture());
+        verify(redisTemplate).convertAndSend(eq("live-updates:c"), anyString());
+        verify(redisTemplate, never()).convertAndSend(eq("live-updates:a"), anyString());
+        assertEquals(2.0, meterRegistry.get("gateway.cluster.forwarded").counter().count());
+
+        // The receiving node rebuilds the same update, resolutions included (same handler mock,
+        // so the second enqueue is the received one)
+        router.onMessage(new DefaultMessage("live-updates:b".getBytes(StandardCharsets.UTF_8),
+                message.getValue().getBytes(StandardCharsets.UTF_8)), null);
+        ArgumentCaptor<Update> received = ArgumentCaptor.forClass(Update.class);
+        verify(handler, times(2)).enqueue(eq("alice"), eq("alice|topics|3"), received.capture());
+        assertEquals("{\"count\":3}", new String(received.getValue().getAggregates()[0].raw(), StandardCharsets.UTF_8));
+        assertEquals(1, received.getValue().getAggregates()[0].getResolution());
+        assertEquals(1234, received.getValue().getEventTimestamp());
+        assertEquals(1.0, meterRegistry.get("gateway.cluster.received").counter().count());
+    }
+
+    @Test
+    public void aPollLooksUpPresenceOnceForAllItsUsers() {
+        when(presence.getNodeId()).thenReturn("a");
+        when(presence.nodesOf(List.of("alice", "bob"))).thenReturn(Map.of("alice", Map.of("b", -1), "bob", Map.of("a", -1)));
+        ClusterRouter router = router(presence);
+        Update alice = aggregate("{\"count\":1}", 0);
+        Update bob = aggregate("{\"count\":2}", 0);
+
+        router.route(List.of(new ClusterRouter.Delivery("alice", "alice|0", alice),
+                new ClusterRouter.Delivery("bob", "bob|0", bob)));
+
+        verify(handler).enqueue("alice", "alice|0", alice);
+        verify(handler).enqueue("bob", "bob|0", bob);
+        verify(presence).nodesOf(List.of("alice", "bob"));
+        verify(redisTemplate).convertAndSend(eq("live-updates:b"), anyString());
+        verify(redisTemplate, never()).convertAndSend(eq("live-updates:a"), anyString());
+
+        // Redis down: local sessions are still served
+        when(presence.nodesOf(List.of("alice"))).thenThrow(new IllegalStateException("redis down"));
+        router.route("alice", "alice|0", alice);
+        verify(handler, times(2)).enqueue("alice", "alice|0", alice);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recordedUpdatesAreSavedForReplayOncePerPoll() throws Exception {
+        when(presence.getNodeId()).thenReturn("a");
+        when(presence.nodesOf(List.of("alice", "bob"))).thenReturn(Map.of());
+        Update alice = aggregate("{\"count\":1}", 0);
+        Update notice = Update.ofText("notice", -1);
+        when(handler.enqueue("alice", "alice|0", alice)).thenReturn(3);
+        when(handler.enqueue("bob", null, notice)).thenReturn(-1);
+        ClusterRouter router = router(presence, replayStore);
+        verify(handler).setSharedReplay(replayStore);
+
+        router.route(List.of(new ClusterRouter.Delivery("alice", "alice|0", alice),
+                new ClusterRouter.Delivery("bob", null, notice)));
+
+        // Only what the local buffer kept, in the slot it took
+        ArgumentCaptor<List<ReplayStore.Slot>> saved = ArgumentCaptor.forClass(List.class);
+        verify(replayStore).save(saved.capture());
+        assertEquals(1, saved.getValue().size());
+        ReplayStore.Slot slot = saved.getValue().get(0);
+        assertEquals("alice", slot.userId());
+        assertEquals(3, slot.slot());
+        assertEquals("alice|0", objectMapper.readValue(slot.message(), NodeMessage.class).getCoalesceKey());
+    }
+
+    @Test
+    public void nodesOnlyGetTheResolutionsTheirSessionsSubscribeTo() throws Exception {
+        when(presence.getNodeId()).thenReturn("a");
+        when(presence.nodesOf(List.of("alice"))).thenReturn(Map.of("alice", Map.of("b", 0b10, "c", 0b100, "d", -1)));
+        ClusterRouter router = router(presence);
+        Update update = Update.ofAggregates(new AggregatePayload[]{
+                AggregatePayload.of("{\"r\":\"1m\"}".getBytes(StandardCharsets.UTF_8), 0),
+                AggregatePayload.of("{\"r\":\"1h\"}".getBytes(StandardCharsets.UTF_8), 1)}, 1234);
+
+        router.route("alice", "alice|0,1", update);
+
+        ArgumentCaptor<String> hourly = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq("live-updates:b"), hourly.capture());
+        NodeMessage narrowed = objectMapper.readValue(hourly.getValue(), NodeMessage.class);
+        assertEquals(List.of(1), narrowed.getResolutions());
+        assertEquals("alice|0,1|2", narrowed.getCoalesceKey());
+        ArgumentCaptor<String> all = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq("live-updates:d"), all.capture());
+        assertEquals(List.of(0, 1), objectMapper.readValue(all.getValue(), NodeMessage.class).getResolutions());
+        // c subscribes to neither resolution
+        verify(redisTemplate, never()).convertAndSend(eq("live-updates:c"), anyString());
+        assertEquals(1.0, meterRegistry.get("gateway.cluster.filtered").counter().count());
+    }
+
+    @Test
+    public void subscribedChecksThisNodeThenTheOthers() {
+        when(presence.getNodeId()).thenReturn("a");
+        when(handler.resolutionsOf("alice")).thenReturn(0b01);
+        when(presence.nodesOf("alice")).thenReturn(Map.of("b", 0b10));
+        ClusterRouter router = router(presence);
+
+        assertTrue(router.isSubscribed("alice", 0b01));
+        assertTrue(router.isSubscribed("alice", 0b10));
+        assertFalse(router.isSubscribed("alice", 0b100));
+        assertFalse(router(null).isSubscribed("alice", 0b10));
+    }
+
+    @Test
+    public void withoutADirectoryOnlyLocalSessionsAreServed() throws Exception {
+        ClusterRouter router = router(null);
+        Update update = Update.ofText("notice", -1);
+
+        router.route("alice", null, update);
+        router.heartbeat();
+
+        verify(handler).enqueue("alice", null, update);
+        verify(redisTemplate, never()).convertAndSend(anyString(), any());
+        verify(handler, never()).setSessionListener(any());
+        verify(handler, never()).setSharedReplay(any());
+    }
+
+    @Test
+    public void heartbeatRefreshesLocalUsersAndPresenceFailuresAreSwallowed() {
+        ClusterRouter router = router(presence);
+        verify(handler).setSessionListener(router);
+        when(handler.localUsers()).thenReturn(Set.of("alice"));
+        when(handler.resolutionsOf("alice")).thenReturn(0b10);
+
+        router.heartbeat();
+        verify(presence).refresh(Map.of("alice", 0b10));
+
+        doThrow(new IllegalStateException("redis down")).when(presence).add(eq("bob"), anyInt());
+        doThrow(new IllegalStateException("redis down")).when(presence).refresh(any());
+        router.userConnected("bob");
+        router.heartbeat();
+        router.userDisconnected("bob");
+        verify(presence).remove("bob");
+        verify(presence, times(2)).refresh(any());
+    }
+
+    private ClusterRouter router(PresenceDirectory directory) {
+        return router(directory, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ClusterRouter router(PresenceDirectory directory, ReplayStore store) {
+        ObjectProvider<PresenceDirectory> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(directory);
+        ObjectProvider<ReplayStore> stores = mock(ObjectProvider.class);
+        when(stores.getIfAvailable()).thenReturn(store);
+        return new ClusterRouter(handler, objectMapper, redisTemplate, provider, stores, meterRegistry);
+    }
+
+    private static Update aggregate(String json, int resolution) {
+        return Update.ofAggregates(new AggregatePayload[]{
+                AggregatePayload.of(json.getBytes(StandardCharsets.UTF_8), resolution)}, 1234);
+    }
+}
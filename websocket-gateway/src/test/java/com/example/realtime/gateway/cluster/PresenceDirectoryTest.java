@@ -0,0 +1,184 @@
+package com.example.realtime.gateway.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PresenceDirectoryTest {
+
+    // Stands in for Redis: key -> (node -> expiry score), and key -> (node -> resolutions)
+    private final Map<String, Map<String, Double>> zsets = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final StringRedisConnection connection = mock(StringRedisConnection.class);
+    private final StringRedisTemplate redisTemplate = fakeRedis();
+
+    @Test
+    public void deadNodesExpireWhileOthersKeepRefreshing() {
+        PresenceDirectory nodeA = directory("a");
+        PresenceDirectory nodeB = directory("b");
+        nodeA.add("alice", -1);
+        nodeB.add("alice", -1);
+        assertEquals(Set.of("a", "b"), new TreeSet<>(directory("c").nodesOf("alice").keySet()));
+
+        // a dies; b keeps refreshing past a's expiry
+        now.addAndGet(20_000);
+        nodeB.refresh(Map.of("alice", -1));
+        now.addAndGet(20_000);
+        nodeB.refresh(Map.of("alice", -1));
+
+        // a's resolutions are still in the hash, but only live nodes count
+        assertEquals(Map.of("b", -1), directory("c").nodesOf("alice"));
+        // Pruned by b's refresh, not just hidden
+        assertEquals(Set.of("b"), zsets.get("presence:alice").keySet());
+    }
+
+    @Test
+    public void removeDropsOnlyThisNode() {
+        PresenceDirectory nodeA = directory("a");
+        nodeA.add("alice", -1);
+        directory("b").add("alice", -1);
+
+        nodeA.remove("alice");
+
+        assertEquals(Map.of("b", -1), directory("c").nodesOf("alice"));
+        assertEquals(Set.of("b"), hashes.get("presence-resolutions:alice").keySet());
+    }
+
+    @Test
+    public void lookupsAreCachedForTheCacheTtl() {
+        PresenceDirectory reader = directory("c");
+        assertEquals(Map.of(), reader.nodesOf("alice"));
+
+        directory("a").add("alice", -1);
+
+        assertEquals(Map.of(), reader.nodesOf("alice"));
+        assertEquals(Map.of("a", -1), directory("d").nodesOf("alice"));
+    }
+
+    @Test
+    public void aPollsUsersAreLookedUpInOnePipeline() {
+        directory("a").add("alice", -1);
+        directory("b").add("bob", -1);
+        PresenceDirectory reader = directory("c");
+
+        Map<String, Map<String, Integer>> nodes = reader.nodesOf(List.of("alice", "bob", "alice", "carol"));
+
+        assertEquals(Map.of("alice", Map.of("a", -1), "bob", Map.of("b", -1), "carol", Map.of()), nodes);
+        verify(connection, times(3)).zRangeByScore(anyString(), anyDouble(), anyDouble());
+        // All cached now: no second round trip
+        reader.nodesOf(List.of("alice", "bob", "carol"));
+        verify(connection, times(3)).zRangeByScore(anyString(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    public void cacheKeepsTheMostRecentlyReadUsers() {
+        PresenceDirectory reader = directory("c", 2);
+        reader.nodesOf("alice");
+        reader.nodesOf("bob");
+        reader.nodesOf("alice");
+        // Over the cap: bob, read least recently, goes
+        reader.nodesOf("carol");
+        directory("a").add("alice", -1);
+        directory("a").add("bob", -1);
+
+        assertEquals(Map.of(), reader.nodesOf("alice"));
+        assertEquals(Map.of("a", -1), reader.nodesOf("bob"));
+    }
+
+    @Test
+    public void eachNodePublishesTheResolutionsItsSessionsSubscribeTo() {
+        directory("a").add("alice", 0b01);
+        directory("b").add("alice", 0b10);
+        PresenceDirectory nodeB = directory("b");
+        nodeB.refresh(Map.of("alice", 0b11));
+
+        assertEquals(Map.of("a", 0b01, "b", 0b11), directory("c").nodesOf("alice"));
+    }
+
+    private PresenceDirectory directory(String nodeId) {
+        return directory(nodeId, 100);
+    }
+
+    private PresenceDirectory directory(String nodeId, int cacheMaxEntries) {
+        return new PresenceDirectory(redisTemplate, nodeId, Duration.ofSeconds(30), Duration.ofMinutes(1),
+                cacheMaxEntries, now::get);
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate fakeRedis() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        // Results of the pipeline being run, in command order
+        List<Object> results = new ArrayList<>();
+        when(connection.zAdd(anyString(), anyDouble(), anyString())).thenAnswer(invocation -> {
+            zsets.computeIfAbsent(invocation.getArgument(0), k -> new HashMap<>())
+                    .put(invocation.getArgument(2), invocation.getArgument(1));
+            return true;
+        });
+        when(connection.zRemRangeByScore(anyString(), anyDouble(), anyDouble())).thenAnswer(invocation -> {
+            double max = invocation.getArgument(2);
+            Map<String, Double> zset = zsets.getOrDefault(invocation.<String>getArgument(0), new HashMap<>());
+            zset.values().removeIf(score -> score <= max);
+            return 0L;
+        });
+        when(connection.zRangeByScore(anyString(), anyDouble(), anyDouble())).thenAnswer(invocation -> {
+            double min = invocation.getArgument(1);
+            results.add(zsets.getOrDefault(invocation.<String>getArgument(0), Map.of()).entrySet().stream()
+                    .filter(entry -> entry.getValue() >= min)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet()));
+            return null;
+        });
+        when(connection.hSet(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            hashes.computeIfAbsent(invocation.getArgument(0), k -> new HashMap<>())
+                    .put(invocation.getArgument(1), invocation.getArgument(2));
+            return true;
+        });
+        when(connection.hGetAll(anyString())).thenAnswer(invocation -> {
+            results.add(Map.copyOf(hashes.getOrDefault(invocation.<String>getArgument(0), Map.of())));
+            return null;
+        });
+        when(connection.zRem(anyString(), any(String[].class))).thenAnswer(invocation -> {
+            Map<String, Double> zset = zsets.get(invocation.<String>getArgument(0));
+            if (zset != null) {
+                zset.remove(invocation.<String>getArgument(1));
+            }
+            return 1L;
+        });
+        when(connection.hDel(anyString(), any(String[].class))).thenAnswer(invocation -> {
+            Map<String, String> hash = hashes.get(invocation.<String>getArgument(0));
+            if (hash != null) {
+                hash.remove(invocation.<String>getArgument(1));
+            }
+            return 1L;
+        });
+        doAnswer(invocation -> {
+            results.clear();
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(connection);
+            return List.copyOf(results);
+        }).when(template).executePipelined(any(RedisCallback.class));
+
+        return template;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.realtime.gateway.cluster;
+
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.SessionOutbox;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReplayStoreTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Stands in for Redis: key -> (field -> value)
+    private final Map<String, Map<Object, Object>> hashes = new HashMap<>();
+    private final StringRedisConnection connection = mock(StringRedisConnection.class);
+    private final StringRedisTemplate redisTemplate = fakeRedis();
+    private final ReplayStore store = new ReplayStore(redisTemplate, objectMapper, Duration.ofHours(1));
+
+    @Test
+    public void anyNodeReplaysTheLatestUpdatePerKeyOldestFirst() throws Exception {
+        // Slot 2 was written by a node that consumed alice's partition before a rebalance
+        store.save(List.of(
+                slot("alice", 0, "alice|1m", 30, "{\"count\":3}"),
+                slot("alice", 1, "alice|1h", 20, "{\"count\":20}"),
+                slot("alice", 2, "alice|1m", 10, "{\"count\":1}"),
+                slot("bob", 0, "bob|1m", 5, "{\"count\":9}")));
+        verify(connection).expire("replay:alice", 3600);
+
+        SessionOutbox outbox = mock(SessionOutbox.class);
+        store.replay("alice", outbox);
+
+        ArgumentCaptor<String[]> keys = ArgumentCaptor.forClass(String[].class);
+        ArgumentCaptor<Update[]> updates =
+                ArgumentCaptor.forClass(Update[].class);
+        verify(outbox).replay(keys.capture(), updates.capture());
+        assertArrayEquals(new String[]{"alice|1h", "alice|1m"}, keys.getValue());
+        assertEquals("{\"count\":3}",
+                new String(updates.getValue()[1].getAggregates()[0].raw(), StandardCharsets.UTF_8));
+        assertEquals(1, updates.getValue()[1].getAggregates()[0].getResolution());
+    }
+
+    @Test
+    public void unreadableEntriesLeaveTheReplayToTheCaller() {
+        hashes.put("replay:alice", Map.of("0", "not json"));
+        SessionOutbox outbox = mock(SessionOutbox.class);
+
+        assertThrows(Exception.class, () -> store.replay("alice", outbox));
+        verify(outbox, never()).replay(any(), any());
+    }
+
+    private ReplayStore.Slot slot(String userId, int slot, String key, long eventTimestamp, String json) throws Exception {
+        NodeMessage message = new NodeMessage(userId, key, eventTimestamp,
+                List.of(json.getBytes(StandardCharsets.UTF_8)), List.of(1), null);
+        return new ReplayStore.Slot(userId, slot, objectMapper.writeValueAsString(message));
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate fakeRedis() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(connection.hSet(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            hashes.computeIfAbsent(invocation.getArgument(0), k -> new HashMap<>())
+                    .put(invocation.getArgument(1), invocation.getArgument(2));
+            return true;
+        });
+        when(connection.expire(anyString(), anyLong())).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(connection);
+            return List.of();
+        }).when(template).executePipelined(any(RedisCallback.class));
+
+        HashOperations<String, Object, Object> ops = mock(HashOperations.class);
+        when(template.opsForHash()).thenReturn(ops);
+        when(ops.entries(anyString())).thenAnswer(invocation ->
+                hashes.getOrDefault(invocation.<String>getArgument(0), Map.of()));
+        return template;
+    }
+}
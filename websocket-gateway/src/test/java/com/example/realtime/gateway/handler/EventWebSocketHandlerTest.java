@@ -0,0 +1,145 @@
+package com.example.realtime.gateway.handler;
+
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.Update;
+import com.example.realtime.gateway.session.ReplayBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EventWebSocketHandlerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EventWebSocketHandler handler = new EventWebSocketHandler(meterRegistry, 100, 100,
+            Duration.ofSeconds(5), 10, Duration.ZERO, new ReplayBuffer(0, 0, meterRegistry),
+            List.of("1m", "1h"), new ObjectMapper());
+
+    @Test
+    public void sessionsOnlyGetTheResolutionsTheySubscribedTo() throws Exception {
+        List<String> everything = new CopyOnWriteArrayList<>();
+        List<String> hourly = new CopyOnWriteArrayList<>();
+        WebSocketSession all = connect("s1", everything);
+        WebSocketSession subscriber = connect("s2", hourly);
+
+        handler.handleMessage(subscriber, new TextMessage("{\"type\":\"subscribe\",\"resolutions\":[\"1h\"]}"));
+        await(hourly, 1);
+        assertEquals("{\"type\":\"subscribed\",\"resolutions\":[\"1h\"],\"maxRate\":0.0}", hourly.get(0));
+
+        handler.enqueue("alice", "alice|topics|3", aggregates("{\"r\":\"1m\"}", "{\"r\":\"1h\"}"));
+        await(hourly, 2);
+        assertEquals("[{\"r\":\"1h\"}]", hourly.get(1));
+        await(everything, 1);
+        assertEquals("[{\"r\":\"1m\"},{\"r\":\"1h\"}]", everything.get(0));
+
+        // Matches no subscription of that session: never queued for it
+        handler.enqueue("alice", "alice|topics|1", aggregates("{\"r\":\"1m\"}"));
+        await(everything, 2);
+        assertEquals(1.0, meterRegistry.get("gateway.filtered").counter().count());
+
+        handler.handleMessage(subscriber, new TextMessage("{\"type\":\"subscribe\",\"resolutions\":[\"5m\"]}"));
+        await(hourly, 3);
+        assertEquals("{\"type\":\"error\",\"message\":\"Unknown resolution 5m, expected one of [1m, 1h]\"}",
+                hourly.get(2));
+        assertEquals(2, everything.size());
+    }
+
+    @Test
+    public void noticesReachSessionsWhateverTheirSubscription() throws Exception {
+        List<String> hourly = new CopyOnWriteArrayList<>();
+        List<String> none = new CopyOnWriteArrayList<>();
+        WebSocketSession subscriber = connect("s1", hourly);
+        WebSocketSession unsubscribed = connect("s2", none);
+        handler.handleMessage(subscriber, new TextMessage("{\"type\":\"subscribe\",\"resolutions\":[\"1h\"]}"));
+        handler.handleMessage(unsubscribed, new TextMessage("{\"type\":\"unsubscribe\"}"));
+        await(hourly, 1);
+        await(none, 1);
+        assertEquals("{\"type\":\"subscribed\",\"resolutions\":[],\"maxRate\":0.0}", none.get(0));
+
+        handler.sendToUser("alice", "notice");
+        await(hourly, 2);
+        await(none, 2);
+        assertEquals("notice", hourly.get(1));
+        assertEquals("notice", none.get(1));
+    }
+
+    @Test
+    public void refusesRatesThatCannotBeScheduled() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        WebSocketSession session = connect("s1", received);
+
+        handler.handleMessage(session, new TextMessage("{\"type\":\"subscribe\",\"maxRate\":1e-12}"));
+        handler.handleMessage(session, new TextMessage("{\"type\":\"subscribe\",\"maxRate\":-1}"));
+        handler.handleMessage(session, new TextMessage("{\"type\":\"subscribe\",\"maxRate\":2}"));
+        await(received, 3);
+        String error = "{\"type\":\"error\",\"message\":\"maxRate must be 0 or at least 0.001 per second\"}";
+        assertEquals(error, received.get(0));
+        assertEquals(error, received.get(1));
+        assertEquals("{\"type\":\"subscribed\",\"resolutions\":[\"1m\",\"1h\"],\"maxRate\":2.0}", received.get(2));
+    }
+
+    @Test
+    public void replaysFromThisNodeWhenTheSharedReplayFails() throws Exception {
+        EventWebSocketHandler replaying = new EventWebSocketHandler(meterRegistry, 100, 100,
+                Duration.ofSeconds(5), 10, Duration.ZERO, new ReplayBuffer(4, Long.MAX_VALUE, meterRegistry),
+                List.of("1m", "1h"), new ObjectMapper());
+        assertEquals(0, replaying.enqueue("alice", "alice|0", aggregates("{\"count\":1}")));
+        replaying.setSharedReplay((userId, outbox) -> {
+            throw new IllegalStateException("redis down");
+        });
+
+        List<String> received = new CopyOnWriteArrayList<>();
+        connect(replaying, "s1", received);
+
+        await(received, 1);
+        assertEquals("[{\"count\":1}]", received.get(0));
+    }
+
+    private WebSocketSession connect(String sessionId, List<String> received) throws Exception {
+        return connect(handler, sessionId, received);
+    }
+
+    private static WebSocketSession connect(EventWebSocketHandler handler, String sessionId,
+                                            List<String> received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost/ws/events?userId=alice"));
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    // Outboxes drain on virtual threads
+    private static void await(List<String> received, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (received.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, received.size(), "received " + received);
+    }
+
+    private static Update aggregates(String... json) {
+        AggregatePayload[] payloads = new AggregatePayload[json.length];
+        for (int i = 0; i < json.length; i++) {
+            payloads[i] = AggregatePayload.of(json[i].getBytes(StandardCharsets.UTF_8), i);
+        }
+        return Update.ofAggregates(payloads, -1);
+    }
+}
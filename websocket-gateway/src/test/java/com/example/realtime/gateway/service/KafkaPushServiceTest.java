@@ -0,0 +1,141 @@
+package com.example.realtime.gateway.service;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.gateway.cluster.ClusterRouter;
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.Update;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class KafkaPushServiceTest {
+
+    @Test
+    public void batchSendsOneUpdateOfRawValuesPerUser() throws Exception {
+        ClusterRouter router = mock(ClusterRouter.class);
+        KafkaPushService service = new KafkaPushService(router, new ObjectMapper());
+        ReflectionTestUtils.setField(service, "aggregateTopics", List.of("events-aggregated", "events-aggregated-1h"));
+
+        AggregateDTO binary = new AggregateDTO();
+        binary.setMetricId("bob");
+        binary.setCount(7);
+
+        service.consumeAggregateBatch(List.of(
+                record("events-aggregated", "alice", 10, "{\"count\":1}"),
+                record("events-aggregated-1h", "alice", 11, "{\"count\":40}"),
+                record("events-aggregated", "alice", 12, "{\"count\":2}"),
+                new ConsumerRecord<>("events-aggregated", 0, 3, 13, null, 0, 0, "bob",
+                        AggregateCodec.encode(binary), new RecordHeaders(), Optional.empty())));
+
+        // Latest per topic, values untouched, in topic order
+        Map<String, ClusterRouter.Delivery> routed = routedOnce(router);
+        assertEquals("alice|0@null,1@null", routed.get("alice").coalesceKey());
+        Update alice = routed.get("alice").update();
+        assertEquals("[{\"count\":2},{\"count\":40}]", json(alice));
+        assertEquals(12, alice.getEventTimestamp());
+
+        // Binary records are converted to JSON for JSON clients
+        assertEquals("bob|0@null", routed.get("bob").coalesceKey());
+        assertTrue(json(routed.get("bob").update()).startsWith("[{\"metricId\":\"bob\""));
+    }
+
+    @Test
+    public void onlyRecordsOfTheSameWindowReplaceEachOther() throws Exception {
+        ClusterRouter router = mock(ClusterRouter.class);
+        KafkaPushService service = new KafkaPushService(router, new ObjectMapper());
+        ReflectionTestUtils.setField(service, "aggregateTopics", List.of("events-aggregated", "events-aggregated-1h"));
+
+        AggregateDTO closed = new AggregateDTO();
+        closed.setMetricId("bob");
+        closed.setWindowStart(Instant.ofEpochMilli(60_000));
+        closed.setCount(9);
+        AggregateDTO next = new AggregateDTO();
+        next.setMetricId("bob");
+        next.setWindowStart(Instant.ofEpochMilli(120_000));
+        next.setCount(1);
+
+        service.consumeAggregateBatch(List.of(
+                // Final result of one window, then two updates of the next one
+                record("events-aggregated", "alice", 10, "{\"windowStart\":60000,\"count\":5}"),
+                record("events-aggregated", "alice", 11, "{\"windowStart\":120000,\"count\":1}"),
+                record("events-aggregated", "alice", 12, "{\"windowStart\":120000,\"count\":2}"),
+                binaryRecord("bob", 13, closed),
+                binaryRecord("bob", 14, next)));
+
+        Map<String, ClusterRouter.Delivery> routed = routedOnce(router);
+        assertEquals("alice|0@60000,0@120000", routed.get("alice").coalesceKey());
+        assertEquals("[{\"windowStart\":60000,\"count\":5},{\"windowStart\":120000,\"count\":2}]",
+                json(routed.get("alice").update()));
+
+        assertEquals("bob|0@60000,0@120000", routed.get("bob").coalesceKey());
+        assertEquals(2, routed.get("bob").update().getAggregates().length);
+    }
+
+    // The poll's updates, all handed to the router in one call, by user
+    @SuppressWarnings("unchecked")
+    private static Map<String, ClusterRouter.Delivery> routedOnce(ClusterRouter router) {
+        ArgumentCaptor<List<ClusterRouter.Delivery>> deliveries = ArgumentCaptor.forClass(List.class);
+        verify(router).route(deliveries.capture());
+        verifyNoMoreInteractions(router);
+        return deliveries.getValue().stream()
+                .collect(Collectors.toMap(ClusterRouter.Delivery::userId, delivery -> delivery));
+    }
+
+    @Test
+    public void recordModeSkipsAggregatesNoSessionSubscribesTo() {
+        ClusterRouter router = mock(ClusterRouter.class);
+        KafkaPushService service = new KafkaPushService(router, new ObjectMapper());
+        ReflectionTestUtils.setField(service, "aggregateResolutions", List.of("1m", "1h"));
+        when(router.isSubscribed("alice", 0b10)).thenReturn(false);
+        when(router.isSubscribed("alice", 0b01)).thenReturn(true);
+
+        AggregateDTO hourly = new AggregateDTO();
+        hourly.setMetricId("alice");
+        hourly.setResolution("1h");
+        service.consumeAggregates(hourly, 10, null);
+        verify(router, never()).route(anyString(), any(), any());
+
+        AggregateDTO minute = new AggregateDTO();
+        minute.setMetricId("alice");
+        minute.setResolution("1m");
+        service.consumeAggregates(minute, 10, null);
+        verify(router).route(eq("alice"), eq("alice|1m@null"), any());
+    }
+
+    private static ConsumerRecord<String, byte[]> binaryRecord(String key, long offset, AggregateDTO aggregate) {
+        return new ConsumerRecord<>("events-aggregated", 0, offset, offset, null, 0, 0, key,
+                AggregateCodec.encode(aggregate), new RecordHeaders(), Optional.empty());
+    }
+
+    private static String json(Update update) {
+        return ((TextMessage) update.frame(ClientProtocol.JSON)).getPayload();
+    }
+
+    private static ConsumerRecord<String, byte[]> record(String topic, String key, long timestamp, String json) {
+        return new ConsumerRecord<>(topic, 0, timestamp, timestamp, null, 0, 0, key,
+                json.getBytes(StandardCharsets.UTF_8), new RecordHeaders(), Optional.empty());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.Update;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplayBufferTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OutboxMetrics metrics = new OutboxMetrics(meterRegistry);
+    private final List<String> sent = new ArrayList<>();
+
+    @Test
+    public void replaysLatestUpdatePerKeyOldestFirst() throws Exception {
+        ReplayBuffer buffer = new ReplayBuffer(2, Long.MAX_VALUE, meterRegistry);
+
+        buffer.record("alice", "alice|1m", update("1"));
+        buffer.record("alice", "alice|1h", update("2"));
+        buffer.record("alice", "alice|1m", update("3"));
+        // A third key pushes out the oldest one (1m)
+        buffer.record("alice", "alice|1d", update("4"));
+        buffer.record("alice", null, Update.ofText("notice", -1));
+
+        replay(buffer, "alice");
+
+        assertEquals(List.of("[2,4]"), sent);
+    }
+
+    @Test
+    public void recordReturnsTheRingSlotTaken() {
+        ReplayBuffer buffer = new ReplayBuffer(2, Long.MAX_VALUE, meterRegistry);
+
+        assertEquals(0, buffer.record("alice", "alice|1m", update("1")));
+        assertEquals(1, buffer.record("alice", "alice|1h", update("2")));
+        assertEquals(0, buffer.record("alice", "alice|1m", update("3")));
+        // The oldest slot is reused
+        assertEquals(0, buffer.record("alice", "alice|1d", update("4")));
+        assertEquals(-1, buffer.record("alice", "alice|notice", Update.ofText("notice", -1)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyActiveUsersDownToThreeQuartersOfTheCap() throws Exception {
+        // Room for four single-aggregate users
+        ReplayBuffer buffer = new ReplayBuffer(4, 4 * (1 + 96), meterRegistry);
+
+        buffer.record("alice", "k", update("1"));
+        buffer.record("bob", "k", update("2"));
+        buffer.record("carol", "k", update("3"));
+        buffer.record("dave", "k", update("4"));
+        replay(buffer, "alice");
+        sent.clear();
+        buffer.record("erin", "k", update("5"));
+
+        // bob and carol were idle the longest
+        assertEquals(3, buffer.getUserCount());
+        assertEquals(3 * (1 + 96), buffer.getBytes());
+        replay(buffer, "bob");
+        replay(buffer, "carol");
+        replay(buffer, "alice");
+        assertEquals(List.of("[1]"), sent);
+        assertEquals(2.0, meterRegistry.get("gateway.replay.evicted").counter().count());
+    }
+
+    private static Update update(String json) {
+        return Update.ofAggregates(new AggregatePayload[]{AggregatePayload.of(json.getBytes(StandardCharsets.UTF_8))}, -1);
+    }
+
+    // Replays into a fresh session; the drain runs once everything is queued, as on connect
+    private void replay(ReplayBuffer buffer, String userId) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> sent.add(((TextMessage) invocation.getArgument(0)).getPayload()))
+                .when(session).sendMessage(any());
+        List<Runnable> tasks = new ArrayList<>();
+        SessionOutbox outbox = new SessionOutbox(session, userId, 10, 10, Long.MAX_VALUE, tasks::add, metrics,
+                ClientProtocol.JSON, 0);
+
+        buffer.replay(userId, outbox);
+        tasks.forEach(Runnable::run);
+    }
+}
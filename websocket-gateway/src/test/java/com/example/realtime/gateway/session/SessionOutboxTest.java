@@ -0,0 +1,201 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.common.codec.AggregateCodec;
+import com.example.realtime.common.codec.BinaryReader;
+import com.example.realtime.common.dto.AggregateDTO;
+import com.example.realtime.gateway.protocol.AggregatePayload;
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import com.example.realtime.gateway.protocol.FrameEncoder;
+import com.example.realtime.gateway.protocol.Update;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SessionOutboxTest {
+
+    // Drain tasks only run when the test says so, which stands in for a slow socket
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<WebSocketMessage<?>> frames = new ArrayList<>();
+    private final List<String> sent = new ArrayList<>();
+    // Binary payloads as the socket read them
+    private final List<byte[]> received = new ArrayList<>();
+    private final OutboxMetrics metrics = new OutboxMetrics(new SimpleMeterRegistry());
+
+    @Test
+    public void keepsOnlyLatestUpdatePerKey() throws Exception {
+        SessionOutbox outbox = outbox(10, 10, Long.MAX_VALUE);
+
+        outbox.offer("alice|1m", text("a1"));
+        outbox.offer("bob|1m", text("b1"));
+        outbox.offer("alice|1m", text("a2"));
+        outbox.offer(null, text("notice"));
+        outbox.offer(null, text("notice"));
+        runTasks();
+
+        assertEquals(List.of("a2", "b1", "notice", "notice"), sent);
+        assertEquals(0, outbox.size());
+        assertEquals(0, metrics.getQueued());
+    }
+
+    @Test
+    public void dropsNewKeysWhenFullAndFlagsSlowSessions() throws Exception {
+        SessionOutbox outbox = outbox(3, 1, 0);
+
+        assertEquals(SessionOutbox.Offer.QUEUED, outbox.offer("a", text("1")));
+        outbox.offer("b", text("2"));
+        // Coalescing still works on a full queue, new keys are dropped
+        outbox.offer("c", text("3"));
+        assertEquals(SessionOutbox.Offer.SLOW, outbox.offer("d", text("4")));
+        assertEquals(3, outbox.size());
+
+        runTasks();
+        assertEquals(List.of("1", "2", "3"), sent);
+    }
+
+    @Test
+    public void packsPendingAggregatesIntoOneFrame() throws Exception {
+        SessionOutbox outbox = outbox(10, 10, Long.MAX_VALUE);
+
+        outbox.offer("alice|1m", aggregates("{\"count\":1}"));
+        outbox.offer("alice|1h", aggregates("{\"count\":2}", "{\"count\":3}"));
+        outbox.offer(null, text("notice"));
+        outbox.offer("alice|1d", aggregates("{\"count\":4}"));
+        runTasks();
+
+        // Notices keep their place between frames
+        assertEquals(List.of("[{\"count\":1},{\"count\":2},{\"count\":3}]", "notice", "[{\"count\":4}]"), sent);
+    }
+
+    @Test
+    public void replayNeverOvertakesALiveUpdate() throws Exception {
+        SessionOutbox outbox = outbox(10, 10, Long.MAX_VALUE);
+        outbox.expectReplay();
+
+        // Live updates that arrive between registering and replaying: one already sent, one waiting
+        outbox.offer("alice|1m", text("live-1m"));
+        runTasks();
+        outbox.offer("alice|1h", text("live-1h"));
+        outbox.replay(new String[]{"alice|1m", "alice|1h", "alice|1d"},
+                new Update[]{text("old-1m"), text("old-1h"), text("old-1d")});
+        runTasks();
+
+        assertEquals(List.of("live-1m", "live-1h", "old-1d"), sent);
+
+        // Replay is over: updates coalesce as usual again
+        outbox.offer("alice|1m", text("a"));
+        outbox.offer("alice|1m", text("b"));
+        runTasks();
+        assertEquals("b", sent.get(sent.size() - 1));
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void binaryFramesCarryCodecRecords() throws Exception {
+        SessionOutbox outbox = outbox(10, 10, Long.MAX_VALUE, ClientProtocol.BINARY);
+        AggregateDTO binary = new AggregateDTO();
+        binary.setMetricId("alice");
+        binary.setCount(7);
+
+        outbox.offer("a", aggregates("{\"metricId\":\"alice\",\"count\":5}"));
+        outbox.offer("b", Update.ofAggregates(new AggregatePayload[]{AggregatePayload.of(AggregateCodec.encode(binary))}, -1));
+        runTasks();
+
+        BinaryReader in = new BinaryReader(((BinaryMessage) frames.get(0)).getPayload().array());
+        assertEquals(FrameEncoder.FRAME_MAGIC, (byte) in.readByte());
+        assertEquals(FrameEncoder.FRAME_VERSION, in.readByte());
+        assertEquals(2, in.readVarInt());
+        in.readVarInt();
+        assertEquals(5, AggregateCodec.decode(in).getCount());
+        in.readVarInt();
+        assertEquals(7, AggregateCodec.decode(in).getCount());
+    }
+
+    @Test
+    public void sharedBinaryFrameReachesEverySession() throws Exception {
+        SessionOutbox first = outbox(10, 10, Long.MAX_VALUE, ClientProtocol.BINARY);
+        SessionOutbox second = outbox(10, 10, Long.MAX_VALUE, ClientProtocol.BINARY);
+        AggregateDTO aggregate = new AggregateDTO();
+        aggregate.setMetricId("alice");
+        aggregate.setCount(3);
+        Update update = Update.ofAggregates(
+                new AggregatePayload[]{AggregatePayload.of(AggregateCodec.encode(aggregate))}, -1);
+
+        first.offer("a", update);
+        second.offer("a", update);
+        runTasks();
+        // A replay sends the same instance again
+        first.offer("a", update);
+        runTasks();
+
+        assertEquals(3, received.size());
+        for (byte[] payload : received) {
+            BinaryReader in = new BinaryReader(payload);
+            assertEquals(FrameEncoder.FRAME_MAGIC, (byte) in.readByte());
+            in.readByte();
+            assertEquals(1, in.readVarInt());
+            in.readVarInt();
+            assertEquals(3, AggregateCodec.decode(in).getCount());
+        }
+    }
+
+    private SessionOutbox outbox(int capacity, int highWater, long maxOverHighWaterNanos) throws Exception {
+        return outbox(capacity, highWater, maxOverHighWaterNanos, ClientProtocol.JSON);
+    }
+
+    private SessionOutbox outbox(int capacity, int highWater, long maxOverHighWaterNanos,
+                                 ClientProtocol protocol) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            frames.add(message);
+            if (message instanceof TextMessage text) {
+                sent.add(text.getPayload());
+            } else if (message instanceof BinaryMessage binary) {
+                // Reads the buffer the way the container does, moving its position
+                ByteBuffer buffer = binary.getPayload();
+                byte[] payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+                received.add(payload);
+            }
+            return null;
+        }).when(session).sendMessage(any());
+        return new SessionOutbox(session, "alice", capacity, highWater, maxOverHighWaterNanos, tasks::add, metrics,
+                protocol, 0);
+    }
+
+    private static Update text(String payload) {
+        return Update.ofText(payload, -1);
+    }
+
+    private static Update aggregates(String... json) {
+        AggregatePayload[] payloads = new AggregatePayload[json.length];
+        for (int i = 0; i < json.length; i++) {
+            payloads[i] = AggregatePayload.of(json[i].getBytes(StandardCharsets.UTF_8));
+        }
+        return Update.ofAggregates(payloads, -1);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
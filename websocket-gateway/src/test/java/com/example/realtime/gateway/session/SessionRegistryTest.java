@@ -0,0 +1,88 @@
+package com.example.realtime.gateway.session;
+
+import com.example.realtime.gateway.protocol.ClientProtocol;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SessionRegistryTest {
+
+    private final OutboxMetrics metrics = new OutboxMetrics(new SimpleMeterRegistry());
+
+    @Test
+    public void keepsEverySessionOfAUserUntilTheCapDisplacesTheOldest() {
+        SessionRegistry registry = new SessionRegistry(2);
+        SessionOutbox phone = outbox("s1", "alice");
+        SessionOutbox laptop = outbox("s2", "alice");
+        SessionOutbox tablet = outbox("s3", "alice");
+
+        assertNull(registry.register(phone));
+        assertNull(registry.register(laptop));
+        assertSame(phone, registry.register(tablet));
+
+        assertArrayEquals(new SessionOutbox[]{laptop, tablet}, registry.sessionsOf("alice"));
+        assertEquals(2, registry.getSessionCount());
+        // The displaced session's own close callback finds nothing left to remove
+        assertNull(registry.unregister("s1"));
+    }
+
+    @Test
+    public void unregisterRemovesOnlyThatSession() {
+        SessionRegistry registry = new SessionRegistry(10);
+        SessionOutbox a1 = outbox("s1", "alice");
+        SessionOutbox a2 = outbox("s2", "alice");
+        SessionOutbox b1 = outbox("s3", "bob");
+        registry.register(a1);
+        registry.register(a2);
+        registry.register(b1);
+
+        assertSame(a1, registry.unregister("s1"));
+        assertArrayEquals(new SessionOutbox[]{a2}, registry.sessionsOf("alice"));
+
+        registry.unregister("s2");
+        assertFalse(registry.hasSessions("alice"));
+        assertEquals(0, registry.sessionsOf("alice").length);
+        assertEquals(1, registry.getUserCount());
+        assertEquals(1, registry.getSessionCount());
+    }
+
+    @Test
+    public void listenerHearsWhenTheUsersResolutionsChange() {
+        SessionRegistry registry = new SessionRegistry(10);
+        SessionRegistry.Listener listener = mock(SessionRegistry.Listener.class);
+        registry.setListener(listener);
+        SessionOutbox hourly = outbox("s1", "alice");
+        hourly.setSubscription(Subscription.ALL.subscribe(0b10, -1));
+        SessionOutbox everything = outbox("s2", "alice");
+
+        registry.register(hourly);
+        verify(listener).userConnected("alice");
+        assertEquals(0b10, registry.resolutionsOf("alice"));
+
+        registry.register(everything);
+        verify(listener).resolutionsChanged("alice", -1);
+
+        registry.unregister("s2");
+        verify(listener).resolutionsChanged("alice", 0b10);
+
+        hourly.setSubscription(hourly.getSubscription().unsubscribe(0b10));
+        registry.subscriptionChanged("alice");
+        verify(listener).resolutionsChanged("alice", 0);
+        assertEquals(0, registry.resolutionsOf("bob"));
+    }
+
+    private SessionOutbox outbox(String sessionId, String userId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return new SessionOutbox(session, userId, 10, 5, Long.MAX_VALUE, Runnable::run, metrics, ClientProtocol.JSON, 0);
+    }
+}